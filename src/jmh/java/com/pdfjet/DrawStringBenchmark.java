@@ -0,0 +1,69 @@
+package com.pdfjet;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  Draws 1,000,000 characters through Page.drawString.
+ *  The "core" font exercises drawASCIIString, the "ttf" font drawUnicodeString.
+ *  Run from the project directory so the DejaVu font can be found.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DrawStringBenchmark {
+    private static final String FONT_PATH =
+            "src/examples/resources/fonts/DejaVu/ttf/DejaVuLGCSerif.ttf";
+
+    @Param({"core", "ttf", "shaped"})
+    public String fontType;
+
+    @Param({"false", "true"})
+    public boolean kernPairs;
+
+    private Font font;
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        PDF pdf = new PDF(new ByteArrayOutputStream());
+        if (fontType.equals("core")) {
+            font = new Font(pdf, CoreFont.HELVETICA);
+        } else {
+            font = new Font(pdf, FONT_PATH);
+            font.setShaping(fontType.equals("shaped"));
+        }
+        font.setKernPairs(kernPairs);
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            buf.append((char) ('A' + (i % 26)));
+        }
+        text = buf.toString();
+    }
+
+    @Benchmark
+    public int drawMillionChars() throws Exception {
+        PDF pdf = new PDF(new ByteArrayOutputStream());
+        Page page = new Page(pdf, Letter.PORTRAIT, false);
+        for (int i = 0; i < 10000; i++) {
+            page.drawString(font, text, 50f, 50f + (i % 700));
+        }
+        return page.buf.size();
+    }
+}
@@ -0,0 +1,71 @@
+package com.pdfjet;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  Compares the DecimalFormat("0.###") path used by the content stream writers
+ *  with the allocation free NumberWriter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberWriterBenchmark {
+    private final DecimalFormat df =
+            new DecimalFormat("0.###", new DecimalFormatSymbols(Locale.US));
+    private final byte[] numBuf = new byte[NumberWriter.MAX_LENGTH];
+    private final float[] values = new float[1024];
+    private ByteArrayOutputStream buf;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextFloat() * 842f;
+        }
+        buf = new ByteArrayOutputStream(8192);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1024)
+    public int decimalFormat() {
+        buf.reset();
+        for (float val : values) {
+            String str = df.format(val);
+            for (int i = 0; i < str.length(); i++) {
+                buf.write((byte) str.charAt(i));
+            }
+            buf.write(' ');
+        }
+        return buf.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1024)
+    public int numberWriter() {
+        buf.reset();
+        for (float val : values) {
+            buf.write(numBuf, 0, NumberWriter.write(val, numBuf, 0));
+            buf.write(' ');
+        }
+        return buf.size();
+    }
+}
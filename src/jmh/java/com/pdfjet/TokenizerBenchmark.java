@@ -0,0 +1,212 @@
+package com.pdfjet;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  Tokenizes every object of a sample PDF with the StringBuilder based tokenizer
+ *  that PDF.getObject used before, and with the typed Lexer.
+ *  The sample is a generated document with text pages and link annotations,
+ *  or any PDF file passed with -p fileName=...
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+    @Param({""})
+    public String fileName;
+
+    private ChunkedBuffer buf;
+    private long[] offsets;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        byte[] pdfBytes;
+        if (fileName.equals("")) {
+            pdfBytes = createSample();
+        } else {
+            pdfBytes = Contents.getFromStream(new FileInputStream(fileName));
+        }
+        buf = new ChunkedBuffer(pdfBytes);
+        List<Long> list = new ArrayList<Long>();
+        for (PDFobj obj : new PDF().read(new ByteArrayInputStream(pdfBytes))) {
+            if (obj.offset > 0) {
+                list.add(obj.offset);
+            }
+        }
+        offsets = new long[list.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = list.get(i);
+        }
+    }
+
+    private static byte[] createSample() throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        PDF pdf = new PDF(os);
+        pdf.setTitle("Tokenizer Benchmark");
+        Font f1 = new Font(pdf, CoreFont.HELVETICA);
+        for (int i = 0; i < 500; i++) {
+            Page page = new Page(pdf, Letter.PORTRAIT);
+            for (int j = 0; j < 10; j++) {
+                TextLine text = new TextLine(f1, "Link number " + j);
+                text.setLocation(50f, 50f + 20f*j);
+                text.setURIAction("http://pdfjet.com/page/" + i + "/" + j);
+                text.drawOn(page);
+            }
+        }
+        pdf.complete();
+        return os.toByteArray();
+    }
+
+    @Benchmark
+    public int stringTokenizer() {
+        int count = 0;
+        for (long off : offsets) {
+            count += LegacyTokenizer.getTokens(buf, off, buf.length()).size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int lexer() {
+        int count = 0;
+        for (long off : offsets) {
+            TokenBuffer tokens = Lexer.tokenize(buf, off, buf.length());
+            for (int i = 0; i < tokens.size(); i++) {
+                if (tokens.isRef(i)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int lexerWithStrings() {
+        int count = 0;
+        for (long off : offsets) {
+            TokenBuffer tokens = Lexer.tokenize(buf, off, buf.length());
+            for (int i = 0; i < tokens.size(); i++) {
+                count += tokens.getString(i).length();
+            }
+        }
+        return count;
+    }
+
+    /**
+     *  The tokenizer from PDF.getObject before the Lexer was added.
+     */
+    static class LegacyTokenizer {
+        private static boolean process(List<String> dict, StringBuilder sb1) {
+            String str = sb1.toString().trim();
+            if (!str.equals("")) {
+                dict.add(str);
+            }
+            sb1.setLength(0);
+            return str.equals("endobj") || str.equals("stream") || str.equals("startxref");
+        }
+
+        static List<String> getTokens(ChunkedBuffer buf, long off, long len) {
+            List<String> dict = new ArrayList<String>();
+            StringBuilder token = new StringBuilder();
+
+            int p = 0;
+            char c1 = ' ';
+            boolean done = false;
+            while (!done && off < len) {
+                char c2 = (char) buf.get(off++);
+                if (c1 == '\\') {
+                    token.append(c2);
+                    c1 = c2;
+                    continue;
+                }
+
+                if (c2 == '(') {
+                    if (p == 0) {
+                        done = process(dict, token);
+                    }
+                    if (!done) {
+                        token.append(c2);
+                        c1 = c2;
+                        ++p;
+                    }
+                } else if (c2 == ')') {
+                    token.append(c2);
+                    c1 = c2;
+                    --p;
+                    if (p == 0) {
+                        done = process(dict, token);
+                    }
+                } else if (c2 == 0x00         // Null
+                        || c2 == 0x09       // Horizontal Tab
+                        || c2 == 0x0A       // Line Feed (LF)
+                        || c2 == 0x0C       // Form Feed
+                        || c2 == 0x0D       // Carriage Return (CR)
+                        || c2 == 0x20) {    // Space
+                    done = process(dict, token);
+                    if (!done) {
+                        c1 = ' ';
+                    }
+                } else if (c2 == '/') {
+                    done = process(dict, token);
+                    if (!done) {
+                        token.append(c2);
+                        c1 = c2;
+                    }
+                } else if (c2 == '<' || c2 == '>' || c2 == '%') {
+                    if (p > 0) {
+                        token.append(c2);
+                        c1 = c2;
+                    } else {
+                        if (c2 != c1) {
+                            done = process(dict, token);
+                            if (!done) {
+                                token.append(c2);
+                                c1 = c2;
+                            }
+                        } else {
+                            token.append(c2);
+                            done = process(dict, token);
+                            if (!done) {
+                                c1 = ' ';
+                            }
+                        }
+                    }
+                } else if (c2 == '[' || c2 == ']' || c2 == '{' || c2 == '}') {
+                    if (p > 0) {
+                        token.append(c2);
+                        c1 = c2;
+                    } else {
+                        done = process(dict, token);
+                        if (!done) {
+                            dict.add(String.valueOf(c2));
+                            c1 = c2;
+                        }
+                    }
+                } else {
+                    token.append(c2);
+                    c1 = c2;
+                }
+            }
+
+            return dict;
+        }
+    }
+}
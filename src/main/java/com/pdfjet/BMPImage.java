@@ -23,10 +23,6 @@ SOFTWARE.
 */
 package com.pdfjet;
 
-import java.io.ByteArrayOutputStream;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
-
 class BMPImage {
     int w = 0;              // Image width in pixels
     int h = 0;              // Image height in pixels
@@ -37,6 +33,7 @@ class BMPImage {
     private int bpp;
     private byte palette[][];
     private boolean r5g6b5; // If 16 bit image two encodings can occur
+    private CompressionPolicy policy;
 
     private static final int m10000000 = 0x80;
     private static final int m01000000 = 0x40;
@@ -51,6 +48,11 @@ class BMPImage {
 
     /* Tested with images created from GIMP */
     public BMPImage(java.io.InputStream is) throws Exception {
+        this(is, new CompressionPolicy());
+    }
+
+    public BMPImage(java.io.InputStream is, CompressionPolicy policy) throws Exception {
+        this.policy = policy;
         palette = null;
         byte bm[] = getBytes(is, 2);
         // From Wikipedia
@@ -137,11 +139,7 @@ class BMPImage {
             throw new Exception ("BMP parse error: imagedata not correct");
         }
 
-        ByteArrayOutputStream data2 = new ByteArrayOutputStream(32768);
-        DeflaterOutputStream dos = new DeflaterOutputStream(data2, new Deflater());
-        dos.write(image, 0, image.length);
-        dos.finish();
-        deflated = data2.toByteArray();
+        deflated = Compressor.deflate(image, policy, CompressionPolicy.IMAGES);
     }
 
     // 5 + 6 + 5 in B G R format 2 bytes to 3 bytes
@@ -312,8 +312,7 @@ public class Barcode implements Drawable {
                     text.charAt(10) +
                     "  " +
                     text.charAt(11);
-            float fontSize = font.getSize();
-            font.setSize(10f);
+            Font font = this.font.withSize(10f);
 
             TextLine textLine = new TextLine(font, label);
             textLine.setLocation(
@@ -323,8 +322,7 @@ public class Barcode implements Drawable {
             xy[0] = Math.max(x, xy[0]);
             xy[1] = Math.max(y, xy[1]);
 
-            font.setSize(fontSize);
-            return new float[] {xy[0], xy[1] + font.descent};
+            return new float[] {xy[0], xy[1] + this.font.descent};
         }
 
         return new float[] {xy[0], xy[1]};
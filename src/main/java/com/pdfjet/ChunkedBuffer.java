@@ -0,0 +1,101 @@
+/**
+ *  ChunkedBuffer.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ *  Read only view of a PDF file that may be larger than 2 GB.
+ *  Large files are memory mapped in chunks of 1 GB, so the content is paged in on demand.
+ */
+final class ChunkedBuffer {
+    private static final int CHUNK_BITS = 30;
+
+    private final ByteBuffer[] chunks;
+    private final long length;
+    private final int chunkBits;
+    private final long chunkMask;
+
+    ChunkedBuffer(byte[] buf) {
+        this(new ByteBuffer[] { ByteBuffer.wrap(buf) }, buf.length, 31);
+    }
+
+    private ChunkedBuffer(ByteBuffer[] chunks, long length, int chunkBits) {
+        this.chunks = chunks;
+        this.length = length;
+        this.chunkBits = chunkBits;
+        this.chunkMask = (1L << chunkBits) - 1;
+    }
+
+    /**
+     *  Maps the content of the file channel into memory.
+     *  The mapping stays valid after the channel is closed.
+     *
+     *  @param channel the file channel.
+     *  @return the buffer.
+     *  @throws IOException  If an input or output exception occurred
+     */
+    static ChunkedBuffer map(FileChannel channel) throws IOException {
+        return map(channel, CHUNK_BITS);
+    }
+
+    static ChunkedBuffer map(FileChannel channel, int chunkBits) throws IOException {
+        long length = channel.size();
+        long chunkSize = 1L << chunkBits;
+        int count = (int) ((length + chunkSize - 1) >>> chunkBits);
+        ByteBuffer[] chunks = new ByteBuffer[Math.max(count, 1)];
+        if (count == 0) {
+            chunks[0] = ByteBuffer.allocate(0);
+        }
+        for (int i = 0; i < count; i++) {
+            long position = ((long) i) << chunkBits;
+            long size = Math.min(chunkSize, length - position);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+        return new ChunkedBuffer(chunks, length, chunkBits);
+    }
+
+    long length() {
+        return length;
+    }
+
+    byte get(long index) {
+        return chunks[(int) (index >>> chunkBits)].get((int) (index & chunkMask));
+    }
+
+    void get(long index, byte[] dst, int off, int len) {
+        while (len > 0) {
+            ByteBuffer chunk = chunks[(int) (index >>> chunkBits)].duplicate();
+            int position = (int) (index & chunkMask);
+            int count = Math.min(len, chunk.limit() - position);
+            chunk.position(position);
+            chunk.get(dst, off, count);
+            index += count;
+            off += count;
+            len -= count;
+        }
+    }
+}
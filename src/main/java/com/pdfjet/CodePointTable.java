@@ -0,0 +1,162 @@
+/**
+ *  CodePointTable.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ *  Maps Unicode code points, including the supplementary planes, to 16-bit values.
+ *  Used for the glyph IDs and the glyph widths of the embedded fonts.
+ *  The code points are split in blocks of 256 and the blocks without values
+ *  share one block filled with the default value, so a font that covers a few
+ *  scripts uses a few kilobytes instead of a dense table for the whole BMP.
+ *  The values are set while the font is parsed, the table is not changed after that.
+ */
+final class CodePointTable {
+    private final int defaultValue;
+    private final char[] emptyBlock;
+    private char[][] blocks;
+
+    /**
+     *  Creates an empty table.
+     *
+     *  @param defaultValue the value of the code points that are not in the table.
+     */
+    CodePointTable(int defaultValue) {
+        this.defaultValue = defaultValue;
+        this.emptyBlock = new char[256];
+        Arrays.fill(emptyBlock, (char) defaultValue);
+        this.blocks = new char[1][];
+        this.blocks[0] = emptyBlock;
+    }
+
+    /**
+     *  Creates a table from a dense array.
+     *
+     *  @param values the value of each code point.
+     *  @param defaultValue the value of the code points that are not in the array.
+     */
+    CodePointTable(int[] values, int defaultValue) {
+        this(defaultValue);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != defaultValue) {
+                put(i, values[i]);
+            }
+        }
+    }
+
+    private CodePointTable(int defaultValue, char[][] blocks, char[] emptyBlock) {
+        this.defaultValue = defaultValue;
+        this.emptyBlock = emptyBlock;
+        this.blocks = blocks;
+    }
+
+    /**
+     *  Reads a table written by the write method.
+     *  The block index is followed by the blocks that have values,
+     *  so the table is restored with a bulk copy of each block.
+     *
+     *  @param buf the buffer positioned at the start of the table.
+     *  @return the table.
+     *  @throws Exception  If the table is truncated or invalid
+     */
+    static CodePointTable read(ByteBuffer buf) throws Exception {
+        int defaultValue = buf.getInt();
+        int blockCount = buf.getInt();
+        if (blockCount < 1 || blockCount > 0x1100) {
+            throw new Exception("Invalid code point table.");
+        }
+        char[] index = new char[blockCount];
+        buf.asCharBuffer().get(index);
+        buf.position(buf.position() + 2*((blockCount + 1) & ~1));
+
+        char[] emptyBlock = new char[256];
+        Arrays.fill(emptyBlock, (char) defaultValue);
+        char[][] blocks = new char[blockCount][];
+        CharBuffer values = buf.asCharBuffer();
+        for (int i = 0; i < blockCount; i++) {
+            if (index[i] == 0xFFFF) {
+                blocks[i] = emptyBlock;
+            } else {
+                values.position(256*index[i]);
+                blocks[i] = new char[256];
+                values.get(blocks[i]);
+            }
+        }
+        return new CodePointTable(defaultValue, blocks, emptyBlock);
+    }
+
+    /**
+     *  Writes the table: the default value, the number of blocks, the index of
+     *  each block padded to a multiple of 4 bytes, 0xFFFF for the empty blocks,
+     *  and the values of the other blocks. All the values are big-endian.
+     *
+     *  @param stream the output stream.
+     *  @throws IOException  If an input or output exception occurred
+     */
+    void write(DataOutputStream stream) throws IOException {
+        stream.writeInt(defaultValue);
+        stream.writeInt(blocks.length);
+        int n = 0;
+        for (char[] block : blocks) {
+            stream.writeShort((block == emptyBlock) ? 0xFFFF : n++);
+        }
+        if (blocks.length % 2 == 1) {
+            stream.writeShort(0);
+        }
+        for (char[] block : blocks) {
+            if (block != emptyBlock) {
+                for (char value : block) {
+                    stream.writeShort(value);
+                }
+            }
+        }
+    }
+
+    void put(int codePoint, int value) {
+        if (value == get(codePoint)) {
+            return;
+        }
+        int block = codePoint >>> 8;
+        if (block >= blocks.length) {
+            int n = blocks.length;
+            blocks = Arrays.copyOf(blocks, block + 1);
+            Arrays.fill(blocks, n, blocks.length, emptyBlock);
+        }
+        if (blocks[block] == emptyBlock) {
+            blocks[block] = emptyBlock.clone();
+        }
+        blocks[block][codePoint & 0xFF] = (char) value;
+    }
+
+    int get(int codePoint) {
+        int block = codePoint >>> 8;
+        if (block >= blocks.length) {
+            return defaultValue;
+        }
+        return blocks[block][codePoint & 0xFF];
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ *  CompressionPolicy.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.util.zip.*;
+
+/**
+ *  Used to select the Flate compression settings for each type of stream in the PDF.
+ *  The settings are used for the streams created after the policy is set on the PDF.
+ *
+ *  <pre>
+ *  Examples:
+ *      pdf.setCompressionPolicy(CompressionPolicy.fast());
+ *      pdf.setCompressionPolicy(CompressionPolicy.max());
+ *      pdf.setCompressionPolicy(new CompressionPolicy()
+ *              .setLevel(CompressionPolicy.IMAGES, Deflater.BEST_COMPRESSION));
+ *  </pre>
+ */
+public class CompressionPolicy {
+    /** Page content streams */
+    public static final int CONTENT = 0;
+    /** Image streams */
+    public static final int IMAGES = 1;
+    /** Embedded font programs */
+    public static final int FONTS = 2;
+    /** Embedded files */
+    public static final int ATTACHMENTS = 3;
+
+    /** Level that stores the data without compressing it. */
+    public static final int STORE = Deflater.NO_COMPRESSION;
+
+    private final int[] level = new int[4];
+    private final int[] strategy = new int[4];
+    private final int[] bufferSize = new int[4];
+    private final boolean[] exhaustive = new boolean[4];
+
+    /**
+     *  Creates a compression policy with the default settings.
+     *  The fonts are compressed with Deflater.BEST_SPEED,
+     *  everything else with Deflater.DEFAULT_COMPRESSION.
+     */
+    public CompressionPolicy() {
+        for (int i = 0; i < 4; i++) {
+            level[i] = Deflater.DEFAULT_COMPRESSION;
+            strategy[i] = Deflater.DEFAULT_STRATEGY;
+            bufferSize[i] = 4096;
+        }
+        level[FONTS] = Deflater.BEST_SPEED;
+        bufferSize[CONTENT] = 8192;
+    }
+
+    /**
+     *  Returns a policy for latency sensitive applications.
+     *  All streams are compressed with Deflater.BEST_SPEED.
+     *
+     *  @return the policy.
+     */
+    public static CompressionPolicy fast() {
+        CompressionPolicy policy = new CompressionPolicy();
+        for (int i = 0; i < 4; i++) {
+            policy.level[i] = Deflater.BEST_SPEED;
+        }
+        return policy;
+    }
+
+    /**
+     *  Returns a policy for archival documents where the file size matters most.
+     *  All streams are compressed with Deflater.BEST_COMPRESSION.
+     *  Images, fonts and attachments are compressed with every strategy
+     *  and the smallest result is kept.
+     *
+     *  @return the policy.
+     */
+    public static CompressionPolicy max() {
+        CompressionPolicy policy = new CompressionPolicy();
+        for (int i = 0; i < 4; i++) {
+            policy.level[i] = Deflater.BEST_COMPRESSION;
+            policy.bufferSize[i] = 65536;
+            policy.exhaustive[i] = (i != CONTENT);
+        }
+        return policy;
+    }
+
+    /**
+     *  Sets the compression level for the specified type of stream.
+     *
+     *  @param streamType CONTENT, IMAGES, FONTS or ATTACHMENTS.
+     *  @param level Deflater.DEFAULT_COMPRESSION or a value between STORE (0) and 9.
+     *  @return this policy.
+     */
+    public CompressionPolicy setLevel(int streamType, int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.level[streamType] = level;
+        return this;
+    }
+
+    /**
+     *  Sets the compression strategy for the specified type of stream.
+     *
+     *  @param streamType CONTENT, IMAGES, FONTS or ATTACHMENTS.
+     *  @param strategy Deflater.DEFAULT_STRATEGY, Deflater.FILTERED or Deflater.HUFFMAN_ONLY.
+     *  @return this policy.
+     */
+    public CompressionPolicy setStrategy(int streamType, int strategy) {
+        if (strategy != Deflater.DEFAULT_STRATEGY &&
+                strategy != Deflater.FILTERED &&
+                strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("Invalid compression strategy: " + strategy);
+        }
+        this.strategy[streamType] = strategy;
+        return this;
+    }
+
+    /**
+     *  Sets the size of the buffers used while compressing the specified type of stream.
+     *  For content streams this is the amount of uncompressed page content held in memory.
+     *
+     *  @param streamType CONTENT, IMAGES, FONTS or ATTACHMENTS.
+     *  @param bufferSize the buffer size in bytes, at least 512.
+     *  @return this policy.
+     */
+    public CompressionPolicy setBufferSize(int streamType, int bufferSize) {
+        if (bufferSize < 512) {
+            throw new IllegalArgumentException("The buffer size must be at least 512 bytes.");
+        }
+        this.bufferSize[streamType] = bufferSize;
+        return this;
+    }
+
+    /**
+     *  When set to true the data is compressed with every strategy
+     *  and the smallest result is kept. This is slow and has no effect on content streams.
+     *
+     *  @param streamType IMAGES, FONTS or ATTACHMENTS.
+     *  @param exhaustive the exhaustive flag.
+     *  @return this policy.
+     */
+    public CompressionPolicy setExhaustive(int streamType, boolean exhaustive) {
+        this.exhaustive[streamType] = exhaustive;
+        return this;
+    }
+
+    public int getLevel(int streamType) {
+        return level[streamType];
+    }
+
+    public int getStrategy(int streamType) {
+        return strategy[streamType];
+    }
+
+    public int getBufferSize(int streamType) {
+        return bufferSize[streamType];
+    }
+
+    public boolean isExhaustive(int streamType) {
+        return exhaustive[streamType];
+    }
+
+    /**
+     *  Creates a deflater configured for the specified type of stream.
+     *
+     *  @param streamType CONTENT, IMAGES, FONTS or ATTACHMENTS.
+     *  @return the deflater.
+     */
+    Deflater newDeflater(int streamType) {
+        Deflater deflater = new Deflater(level[streamType]);
+        deflater.setStrategy(strategy[streamType]);
+        return deflater;
+    }
+
+    /**
+     *  Applies the settings for the specified type of stream to a reset deflater.
+     *
+     *  @param deflater the deflater.
+     *  @param streamType CONTENT, IMAGES, FONTS or ATTACHMENTS.
+     */
+    void configure(Deflater deflater, int streamType) {
+        deflater.setLevel(level[streamType]);
+        deflater.setStrategy(strategy[streamType]);
+    }
+}
@@ -27,16 +27,44 @@ import java.io.*;
 import java.util.zip.*;
 
 class Compressor {
+    private static final int[] STRATEGIES = {
+        Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY
+    };
+
     static byte[] deflate(byte[] data) {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
-        Deflater deflater = new Deflater();
-        // deflater.setLevel(Deflater.BEST_COMPRESSION);
-        // deflater.setLevel(Deflater.BEST_SPEED);
-        deflater.setInput(data);
+        return deflate(data, 0, data.length, new Deflater(), 4096);
+    }
+
+    static byte[] deflate(byte[] data, CompressionPolicy policy, int streamType) {
+        return deflate(data, 0, data.length, policy, streamType);
+    }
+
+    static byte[] deflate(
+            byte[] data, int off, int len, CompressionPolicy policy, int streamType) {
+        int bufferSize = policy.getBufferSize(streamType);
+        if (!policy.isExhaustive(streamType)) {
+            return deflate(data, off, len, policy.newDeflater(streamType), bufferSize);
+        }
+        byte[] smallest = null;
+        for (int strategy : STRATEGIES) {
+            Deflater deflater = new Deflater(policy.getLevel(streamType));
+            deflater.setStrategy(strategy);
+            byte[] deflated = deflate(data, off, len, deflater, bufferSize);
+            if (smallest == null || deflated.length < smallest.length) {
+                smallest = deflated;
+            }
+        }
+        return smallest;
+    }
+
+    private static byte[] deflate(
+            byte[] data, int off, int len, Deflater deflater, int bufferSize) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(len);
+        deflater.setInput(data, off, len);
         // End compression with the current contents of the input buffer.
         deflater.finish();
 
-        byte[] buf = new byte[4096];
+        byte[] buf = new byte[bufferSize];
         while (!deflater.finished()) {
             int count = deflater.deflate(buf);
             bos.write(buf, 0, count);
@@ -0,0 +1,294 @@
+/**
+ *  ContentBuffer.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ *  Holds the content stream of a page while it is being drawn.
+ *
+ *  When a Deflater is supplied the content is collected in a small fixed window.
+ *  Every time the window is full it is passed through the Deflater,
+ *  so only the compressed bytes of the page are kept in memory.
+ *  Without a Deflater the window grows and the content is kept uncompressed.
+ *  The content written through the ByteArrayOutputStream methods is added
+ *  to the stream the same way.
+ */
+final class ContentBuffer extends ByteArrayOutputStream {
+    private static final byte[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+
+    private Deflater deflater;
+    private int flushed;        // Number of bytes already passed to the deflater
+    private byte[] data;        // The compressed content
+    private int dataLen;
+
+    /**
+     *  Creates a content buffer.
+     *
+     *  @param deflater the deflater to stream the content through, or null to keep it uncompressed.
+     *  @param bufferSize the size of the window in bytes.
+     */
+    ContentBuffer(Deflater deflater, int bufferSize) {
+        super(bufferSize);
+        this.deflater = deflater;
+        if (deflater != null) {
+            this.data = new byte[bufferSize];
+        }
+    }
+
+    boolean isCompressed() {
+        return deflater != null;
+    }
+
+    /**
+     *  Returns the number of uncompressed bytes written so far.
+     *
+     *  @return the size of the content.
+     */
+    @Override
+    public int size() {
+        return flushed + count;
+    }
+
+    @Override
+    public void write(int b) {
+        append((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        append(b, off, len);
+    }
+
+    @Override
+    public void reset() {
+        if (data != null) {
+            throw new IllegalStateException("The compressed content cannot be reset.");
+        }
+        count = 0;
+    }
+
+    @Override
+    public String toString() {
+        return new String(toByteArray());
+    }
+
+    void append(byte b) {
+        if (count == buf.length) {
+            makeRoom(1);
+        }
+        buf[count++] = b;
+    }
+
+    void append(byte[] b, int off, int len) {
+        if (deflater != null && len >= buf.length) {
+            drain();
+            deflate(b, off, len);
+            flushed += len;
+            return;
+        }
+        if (count + len > buf.length) {
+            makeRoom(len);
+        }
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    void append(String str) {
+        int len = str.length();
+        if (count + len > buf.length) {
+            if (len > buf.length && deflater != null) {
+                for (int i = 0; i < len; i++) {
+                    append((byte) str.charAt(i));
+                }
+                return;
+            }
+            makeRoom(len);
+        }
+        for (int i = 0; i < len; i++) {
+            buf[count++] = (byte) str.charAt(i);
+        }
+    }
+
+    void append(int val) {
+        if (count + NumberWriter.MAX_LENGTH > buf.length) {
+            makeRoom(NumberWriter.MAX_LENGTH);
+        }
+        count = NumberWriter.write(val, buf, count);
+    }
+
+    void append(float val) {
+        if (count + NumberWriter.MAX_LENGTH > buf.length) {
+            makeRoom(NumberWriter.MAX_LENGTH);
+        }
+        count = NumberWriter.write(val, buf, count);
+    }
+
+    /**
+     *  Appends the code as 2 uppercase hex digits.
+     *
+     *  @param code the character code.
+     */
+    void appendHex2(int code) {
+        if (count + 2 > buf.length) {
+            makeRoom(2);
+        }
+        buf[count++] = HEX_DIGITS[(code >> 4) & 0x0F];
+        buf[count++] = HEX_DIGITS[code & 0x0F];
+    }
+
+    /**
+     *  Appends the code as 4 uppercase hex digits.
+     *
+     *  @param code the glyph or character code.
+     */
+    void appendHex4(int code) {
+        if (count + 4 > buf.length) {
+            makeRoom(4);
+        }
+        buf[count++] = HEX_DIGITS[(code >> 12) & 0x0F];
+        buf[count++] = HEX_DIGITS[(code >> 8) & 0x0F];
+        buf[count++] = HEX_DIGITS[(code >> 4) & 0x0F];
+        buf[count++] = HEX_DIGITS[code & 0x0F];
+    }
+
+    /**
+     *  Returns a copy of the uncompressed content.
+     *  Content that is compressed while it is drawn is flushed and inflated.
+     *
+     *  @return the content.
+     */
+    @Override
+    public byte[] toByteArray() {
+        if (data == null) {
+            return Arrays.copyOf(buf, count);
+        }
+        if (deflater != null) {
+            drain();
+            int len;
+            do {
+                if (dataLen == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                len = data.length - dataLen;
+                dataLen += deflater.deflate(data, dataLen, len, Deflater.SYNC_FLUSH);
+            } while (dataLen == data.length);
+        }
+        byte[] content = new byte[flushed];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, 0, dataLen);
+            int n = 0;
+            while (n < flushed) {
+                int k = inflater.inflate(content, n, flushed - n);
+                if (k == 0 && (inflater.needsInput() || inflater.finished())) {
+                    break;
+                }
+                n += k;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+        return content;
+    }
+
+    /**
+     *  Completes the compressed stream.
+     *  Content that was kept uncompressed is passed through the specified deflater first.
+     *
+     *  @param deflater the deflater to use for uncompressed content.
+     *  @return the length of the compressed stream.
+     */
+    int finish(Deflater deflater) {
+        if (this.deflater == null) {
+            this.deflater = deflater;
+            this.data = new byte[Math.max(count / 2, 64)];
+        }
+        drain();
+        this.deflater.finish();
+        while (!this.deflater.finished()) {
+            deflateOut();
+        }
+        this.deflater = null;
+        this.buf = null;    // Release the window memory
+        return dataLen;
+    }
+
+    /**
+     *  Writes the compressed stream to the output stream.
+     *
+     *  @param os the output stream.
+     *  @throws IOException  If an input or output exception occurred
+     */
+    void writeCompressedTo(OutputStream os) throws IOException {
+        os.write(data, 0, dataLen);
+    }
+
+    private void makeRoom(int len) {
+        if (deflater != null) {
+            drain();
+            if (len <= buf.length) {
+                return;
+            }
+        }
+        int size = buf.length * 2;
+        while (size < count + len) {
+            size *= 2;
+        }
+        byte[] buf2 = new byte[size];
+        System.arraycopy(buf, 0, buf2, 0, count);
+        buf = buf2;
+    }
+
+    private void drain() {
+        if (count > 0) {
+            deflate(buf, 0, count);
+            flushed += count;
+            count = 0;
+        }
+    }
+
+    private void deflate(byte[] b, int off, int len) {
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflateOut();
+        }
+    }
+
+    private void deflateOut() {
+        if (dataLen == data.length) {
+            byte[] data2 = new byte[data.length * 2];
+            System.arraycopy(data, 0, data2, 0, dataLen);
+            data = data2;
+        }
+        dataLen += deflater.deflate(data, dataLen, data.length - dataLen);
+    }
+}
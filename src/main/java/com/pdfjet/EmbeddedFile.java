@@ -24,11 +24,8 @@ SOFTWARE.
 package com.pdfjet;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.InputStream;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 
 /**
  *  Used to embed file objects.
@@ -48,11 +45,8 @@ public class EmbeddedFile {
         byte[] buf = Contents.getFromStream(stream);
 
         if (compress) {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            DeflaterOutputStream dos = new DeflaterOutputStream(baos, new Deflater());
-            dos.write(buf, 0, buf.length);
-            dos.finish();
-            buf = baos.toByteArray();
+            buf = Compressor.deflate(
+                    buf, pdf.getCompressionPolicy(), CompressionPolicy.ATTACHMENTS);
         }
 
         pdf.newobj();
@@ -23,7 +23,6 @@ SOFTWARE.
 */
 package com.pdfjet;
 
-import java.io.FileInputStream;
 import java.io.InputStream;
 import java.util.List;
 
@@ -45,8 +44,13 @@ public class Font {
     protected int fontDescriptorObjNumber;
     protected int cidFontDictObjNumber;
     protected int toUnicodeCMapObjNumber;
+    protected int metadataObjNumber;
 
-    // Font attributes
+    // The font objects are written when the PDF is completed, if the font is used.
+    protected FontData fontData;        // Only used for embedded fonts.
+    protected boolean isStreamFont = false;
+
+    // Font attributes, these are shared by all the sized views of the font.
     protected int unitsPerEm = 1000;    // The default for core fonts.
     protected int fontAscent;
     protected int fontDescent;
@@ -60,19 +64,23 @@ public class Font {
     protected int fontUnderlinePosition;
     protected int fontUnderlineThickness;
     protected int[] advanceWidth;
-    protected int[] glyphWidth;
-    protected int[] unicodeToGID;
+    protected CodePointTable glyphWidth;
+    protected CodePointTable unicodeToGID;
+    protected OpenTypeLayout layout;    // Null if the font has no GSUB and GPOS tables
     protected boolean cff;
-    protected int compressedSize;
     protected int uncompressedSize;
     protected int[][] metrics;          // Only used for core fonts.
+    protected KernTable kernTable;      // Only used for core fonts.
+    protected FontSubset subset;        // The glyphs used from an embedded font
 
     // Don't change the following default values!
+    // These are copied to a sized view and can be changed on the view.
     protected float size = 12.0f;
     protected boolean isCoreFont = false;
     protected boolean isCJK = false;
     protected boolean skew15 = false;
     protected boolean kernPairs = false;
+    protected boolean shaping = false;
 
     // These attributes depend on the font size.
     protected float ascent;
@@ -106,27 +114,16 @@ public class Font {
         this.bBoxURx = font.bBoxURx;
         this.bBoxURy = font.bBoxURy;
         this.metrics = font.metrics;
+        this.kernTable = font.kernTable;
         this.fontUnderlinePosition = font.underlinePosition;
         this.fontUnderlineThickness = font.underlineThickness;
         this.fontAscent = font.bBoxURy;
         this.fontDescent = font.bBoxLLy;
         setSize(size);
 
-        pdf.newobj();
-        pdf.append("<<\n");
-        pdf.append("/Type /Font\n");
-        pdf.append("/Subtype /Type1\n");
-        pdf.append("/BaseFont /");
-        pdf.append(this.name);
-        pdf.append('\n');
-        if (!this.name.equals("Symbol") && !this.name.equals("ZapfDingbats")) {
-            pdf.append("/Encoding /WinAnsiEncoding\n");
+        if (register(pdf, "Type1:" + this.name)) {
+            objNumber = pdf.reserveObjNumber();
         }
-        pdf.append(">>\n");
-        pdf.endobj();
-        objNumber = pdf.getObjNumber();
-
-        pdf.fonts.add(this);
     }
 
     // Used by PDFobj
@@ -139,6 +136,7 @@ public class Font {
         this.bBoxURx = font.bBoxURx;
         this.bBoxURy = font.bBoxURy;
         this.metrics = font.metrics;
+        this.kernTable = font.kernTable;
         this.fontUnderlinePosition = font.underlinePosition;
         this.fontUnderlineThickness = font.underlineThickness;
         this.fontAscent = font.bBoxURy;
@@ -146,6 +144,45 @@ public class Font {
         setSize(size);
     }
 
+    // Used by withSize
+    protected Font(Font font, float size) {
+        this.name = font.name;
+        this.info = font.info;
+        this.objNumber = font.objNumber;
+        this.fontID = font.fontID;
+        this.fileObjNumber = font.fileObjNumber;
+        this.fontDescriptorObjNumber = font.fontDescriptorObjNumber;
+        this.cidFontDictObjNumber = font.cidFontDictObjNumber;
+        this.toUnicodeCMapObjNumber = font.toUnicodeCMapObjNumber;
+        this.unitsPerEm = font.unitsPerEm;
+        this.fontAscent = font.fontAscent;
+        this.fontDescent = font.fontDescent;
+        this.bBoxLLx = font.bBoxLLx;
+        this.bBoxLLy = font.bBoxLLy;
+        this.bBoxURx = font.bBoxURx;
+        this.bBoxURy = font.bBoxURy;
+        this.firstChar = font.firstChar;
+        this.lastChar = font.lastChar;
+        this.capHeight = font.capHeight;
+        this.fontUnderlinePosition = font.fontUnderlinePosition;
+        this.fontUnderlineThickness = font.fontUnderlineThickness;
+        this.advanceWidth = font.advanceWidth;
+        this.glyphWidth = font.glyphWidth;
+        this.unicodeToGID = font.unicodeToGID;
+        this.layout = font.layout;
+        this.cff = font.cff;
+        this.uncompressedSize = font.uncompressedSize;
+        this.metrics = font.metrics;
+        this.kernTable = font.kernTable;
+        this.subset = font.subset;
+        this.isCoreFont = font.isCoreFont;
+        this.isCJK = font.isCJK;
+        this.skew15 = font.skew15;
+        this.kernPairs = font.kernPairs;
+        this.shaping = font.shaping;
+        setSize(size);
+    }
+
     /**
      *  Constructor for CJK - Chinese, Japanese and Korean fonts.
      *  Please see Example_04.
@@ -173,81 +210,11 @@ public class Font {
         this.descent = this.size/4;
         this.bodyHeight = this.ascent + this.descent;
 
-        // Font Descriptor
-        pdf.newobj();
-        pdf.append("<<\n");
-        pdf.append("/Type /FontDescriptor\n");
-        pdf.append("/FontName /");
-        pdf.append(fontName);
-        pdf.append('\n');
-        pdf.append("/Flags 4\n");
-        pdf.append("/FontBBox [0 0 0 0]\n");
-        pdf.append(">>\n");
-        pdf.endobj();
-
-        // CIDFont Dictionary
-        pdf.newobj();
-        pdf.append("<<\n");
-        pdf.append("/Type /Font\n");
-        pdf.append("/Subtype /CIDFontType0\n");
-        pdf.append("/BaseFont /");
-        pdf.append(fontName);
-        pdf.append('\n');
-        pdf.append("/FontDescriptor ");
-        pdf.append(pdf.getObjNumber() - 1);
-        pdf.append(" 0 R\n");
-        pdf.append("/CIDSystemInfo <<\n");
-        pdf.append("/Registry (Adobe)\n");
-        if (fontName.startsWith("AdobeMingStd")) {
-            pdf.append("/Ordering (CNS1)\n");
-            pdf.append("/Supplement 4\n");
-        } else if (fontName.startsWith("AdobeSongStd")
-                || fontName.startsWith("STHeitiSC")) {
-            pdf.append("/Ordering (GB1)\n");
-            pdf.append("/Supplement 4\n");
-        } else if (fontName.startsWith("KozMinPro")) {
-            pdf.append("/Ordering (Japan1)\n");
-            pdf.append("/Supplement 4\n");
-        } else if (fontName.startsWith("AdobeMyungjoStd")) {
-            pdf.append("/Ordering (Korea1)\n");
-            pdf.append("/Supplement 1\n");
-        } else {
-            throw new Exception("Unsupported font: " + fontName);
+        if (register(pdf, "CJK:" + fontName)) {
+            fontDescriptorObjNumber = pdf.reserveObjNumber();
+            cidFontDictObjNumber = pdf.reserveObjNumber();
+            objNumber = pdf.reserveObjNumber();
         }
-        pdf.append(">>\n");
-        pdf.append(">>\n");
-        pdf.endobj();
-
-        // Type0 Font Dictionary
-        pdf.newobj();
-        pdf.append("<<\n");
-        pdf.append("/Type /Font\n");
-        pdf.append("/Subtype /Type0\n");
-        pdf.append("/BaseFont /");
-        if (fontName.startsWith("AdobeMingStd")) {
-            pdf.append(fontName + "-UniCNS-UTF16-H\n");
-            pdf.append("/Encoding /UniCNS-UTF16-H\n");
-        } else if (fontName.startsWith("AdobeSongStd")
-                || fontName.startsWith("STHeitiSC")) {
-            pdf.append(fontName + "-UniGB-UTF16-H\n");
-            pdf.append("/Encoding /UniGB-UTF16-H\n");
-        } else if (fontName.startsWith("KozMinPro")) {
-            pdf.append(fontName + "-UniJIS-UCS2-H\n");
-            pdf.append("/Encoding /UniJIS-UCS2-H\n");
-        } else if (fontName.startsWith("AdobeMyungjoStd")) {
-            pdf.append(fontName + "-UniKS-UCS2-H\n");
-            pdf.append("/Encoding /UniKS-UCS2-H\n");
-        } else {
-            throw new Exception("Unsupported font: " + fontName);
-        }
-        pdf.append("/DescendantFonts [");
-        pdf.append(pdf.getObjNumber() - 1);
-        pdf.append(" 0 R]\n");
-        pdf.append(">>\n");
-        pdf.endobj();
-        objNumber = pdf.getObjNumber();
-
-        pdf.fonts.add(this);
     }
 
     /**
@@ -259,7 +226,7 @@ public class Font {
      * @throws Exception if the font is not found
      */
     public Font(PDF pdf, InputStream inputStream, boolean flag) throws Exception {
-        FontStream1.register(pdf, this, inputStream);
+        FontStream1.register(pdf, this, FontData.get(inputStream, true));
         this.setSize(size);
     }
 
@@ -272,7 +239,7 @@ public class Font {
      * @throws Exception is the font is not found
      */
     public Font(List<PDFobj> objects, InputStream inputStream, boolean flag) throws Exception {
-        FontStream2.register(objects, this, inputStream);
+        FontStream2.register(objects, this, FontData.get(inputStream, true));
         setSize(size);
     }
 
@@ -284,7 +251,7 @@ public class Font {
      *  @throws Exception  If an input or output exception occurred
      */
     public Font(PDF pdf, InputStream inputStream) throws Exception {
-        OpenTypeFont.register(pdf, this, inputStream);
+        OpenTypeFont.register(pdf, this, FontData.get(inputStream, false));
         setSize(size);
     }
 
@@ -296,16 +263,143 @@ public class Font {
      * @throws Exception thrown of the font file is not found.
      */
     public Font(PDF pdf, String fontPath) throws Exception {
-        InputStream inputStream = new FileInputStream(fontPath);
-        // InputStream inputStream = Font.class.getClassLoader().getResourceAsStream(fontPath);
+        // The parsed font is cached, the file is only read again if it was modified.
+        FontData data = FontData.get(fontPath);
         if (fontPath.endsWith(".stream")) {
-            FontStream1.register(pdf, this, inputStream);
+            FontStream1.register(pdf, this, data);
         } else {
-            OpenTypeFont.register(pdf, this, inputStream);
+            OpenTypeFont.register(pdf, this, data);
         }
         setSize(size);
     }
 
+    // Returns false if the PDF already has this font, the font then uses its objects.
+    protected boolean register(PDF pdf, String key) {
+        Font font = pdf.fontsByKey.get(key);
+        if (font != null) {
+            this.objNumber = font.objNumber;
+            this.fileObjNumber = font.fileObjNumber;
+            this.fontDescriptorObjNumber = font.fontDescriptorObjNumber;
+            this.cidFontDictObjNumber = font.cidFontDictObjNumber;
+            this.toUnicodeCMapObjNumber = font.toUnicodeCMapObjNumber;
+            this.metadataObjNumber = font.metadataObjNumber;
+            this.subset = font.subset;
+            return false;
+        }
+        pdf.fontsByKey.put(key, this);
+        pdf.fonts.add(this);
+        return true;
+    }
+
+    /**
+     *  Writes the font objects reserved when the font was added to the PDF.
+     *
+     *  @param pdf the PDF.
+     *  @throws Exception  If an input or output exception occurred
+     */
+    void embed(PDF pdf) throws Exception {
+        if (isCoreFont) {
+            addCoreFontObject(pdf);
+        } else if (isCJK) {
+            addCJKFontObjects(pdf);
+        } else if (isStreamFont) {
+            FontStream1.embed(pdf, this, fontData);
+        } else {
+            OpenTypeFont.embed(pdf, this, fontData);
+        }
+    }
+
+    private void addCoreFontObject(PDF pdf) throws Exception {
+        pdf.beginReservedObject(objNumber);
+        pdf.append("<<\n");
+        pdf.append("/Type /Font\n");
+        pdf.append("/Subtype /Type1\n");
+        pdf.append("/BaseFont /");
+        pdf.append(this.name);
+        pdf.append('\n');
+        if (!this.name.equals("Symbol") && !this.name.equals("ZapfDingbats")) {
+            pdf.append("/Encoding /WinAnsiEncoding\n");
+        }
+        pdf.append(">>\n");
+        pdf.endobj();
+    }
+
+    private void addCJKFontObjects(PDF pdf) throws Exception {
+        // Font Descriptor
+        pdf.beginReservedObject(fontDescriptorObjNumber);
+        pdf.append("<<\n");
+        pdf.append("/Type /FontDescriptor\n");
+        pdf.append("/FontName /");
+        pdf.append(name);
+        pdf.append('\n');
+        pdf.append("/Flags 4\n");
+        pdf.append("/FontBBox [0 0 0 0]\n");
+        pdf.append(">>\n");
+        pdf.endobj();
+
+        // CIDFont Dictionary
+        pdf.beginReservedObject(cidFontDictObjNumber);
+        pdf.append("<<\n");
+        pdf.append("/Type /Font\n");
+        pdf.append("/Subtype /CIDFontType0\n");
+        pdf.append("/BaseFont /");
+        pdf.append(name);
+        pdf.append('\n');
+        pdf.append("/FontDescriptor ");
+        pdf.append(fontDescriptorObjNumber);
+        pdf.append(" 0 R\n");
+        pdf.append("/CIDSystemInfo <<\n");
+        pdf.append("/Registry (Adobe)\n");
+        if (name.startsWith("AdobeMingStd")) {
+            pdf.append("/Ordering (CNS1)\n");
+            pdf.append("/Supplement 4\n");
+        } else if (name.startsWith("AdobeSongStd")
+                || name.startsWith("STHeitiSC")) {
+            pdf.append("/Ordering (GB1)\n");
+            pdf.append("/Supplement 4\n");
+        } else if (name.startsWith("KozMinPro")) {
+            pdf.append("/Ordering (Japan1)\n");
+            pdf.append("/Supplement 4\n");
+        } else if (name.startsWith("AdobeMyungjoStd")) {
+            pdf.append("/Ordering (Korea1)\n");
+            pdf.append("/Supplement 1\n");
+        } else {
+            throw new Exception("Unsupported font: " + name);
+        }
+        pdf.append(">>\n");
+        pdf.append(">>\n");
+        pdf.endobj();
+
+        // Type0 Font Dictionary
+        pdf.beginReservedObject(objNumber);
+        pdf.append("<<\n");
+        pdf.append("/Type /Font\n");
+        pdf.append("/Subtype /Type0\n");
+        pdf.append("/BaseFont /");
+        if (name.startsWith("AdobeMingStd")) {
+            pdf.append(name + "-UniCNS-UTF16-H\n");
+            pdf.append("/Encoding /UniCNS-UTF16-H\n");
+        } else if (name.startsWith("AdobeSongStd")
+                || name.startsWith("STHeitiSC")) {
+            pdf.append(name + "-UniGB-UTF16-H\n");
+            pdf.append("/Encoding /UniGB-UTF16-H\n");
+        } else if (name.startsWith("KozMinPro")) {
+            pdf.append(name + "-UniJIS-UCS2-H\n");
+            pdf.append("/Encoding /UniJIS-UCS2-H\n");
+        } else if (name.startsWith("AdobeMyungjoStd")) {
+            pdf.append(name + "-UniKS-UCS2-H\n");
+            pdf.append("/Encoding /UniKS-UCS2-H\n");
+        } else {
+            throw new Exception("Unsupported font: " + name);
+        }
+        pdf.append("/DescendantFonts [");
+        pdf.append(cidFontDictObjNumber);
+        pdf.append(" 0 R]\n");
+        pdf.append(">>\n");
+        pdf.endobj();
+    }
+
+
     /**
      *  Sets the size of this font.
      *
@@ -338,6 +432,44 @@ public class Font {
         return this;
     }
 
+    /**
+     *  Returns a view of this font with the specified size.
+     *  The view uses the same embedded font and metrics as this font,
+     *  so creating it is cheap and changing the size of the view does
+     *  not change the size of this font.
+     *  The metrics are not changed after the font is created, and the glyphs
+     *  used on the pages are recorded under a lock. So each thread can measure
+     *  text and draw it on its own pages with its own view of a shared font.
+     *  The views themselves are not thread-safe.
+     *
+     *  <pre>
+     *  Examples:
+     *      Font f1 = new Font(pdf, "fonts/DejaVuSans.ttf");
+     *      Font f2 = f1.withSize(8f);
+     *  </pre>
+     *
+     *  @param fontSize the size of the view.
+     *  @return the font view.
+     */
+    public Font withSize(float fontSize) {
+        return new Font(this, fontSize);
+    }
+
+    /**
+     *  Returns a view of this font with the specified size.
+     *
+     *  @param fontSize the size of the view.
+     *  @return the font view.
+     */
+    public Font withSize(double fontSize) {
+        return withSize((float) fontSize);
+    }
+
+    // The name of the embedded font program, a subset name starts with a six letter tag.
+    protected String getBaseFont() {
+        return (subset != null && subset.getTag() != null) ? subset.getTag() + "+" + name : name;
+    }
+
     /**
      *  Returns the current font size.
      *
@@ -357,6 +489,18 @@ public class Font {
         this.kernPairs = kernPairs;
     }
 
+    /**
+     *  Enables the OpenType shaping of the text drawn and measured with this font:
+     *  the standard ligatures, the pair kerning and the positioning of the combining marks.
+     *  The shaping is used only for fonts loaded from OpenType and TrueType files
+     *  that have GSUB or GPOS tables, the .stream fonts don't have them.
+     *
+     *  @param shaping if 'true' the text is shaped.
+     */
+    public void setShaping(boolean shaping) {
+        this.shaping = shaping;
+    }
+
     /**
      *  Returns the width of the specified string when drawn on the page with this font using the current font size.
      *
@@ -373,34 +517,35 @@ public class Font {
             return str.length() * ascent;
         }
 
+        if (shaping && layout != null) {
+            return layout.shape(this, str).getAdvance() * size / unitsPerEm;
+        }
+
         int width = 0;
+        if (!isCoreFont) {
+            // The code points that are not in the font have the width of the .notdef glyph.
+            int i = 0;
+            while (i < str.length()) {
+                int c1 = str.codePointAt(i);
+                width += glyphWidth.get(c1);
+                i += Character.charCount(c1);
+            }
+            return width * size / unitsPerEm;
+        }
+
         for (int i = 0; i < str.length(); i++) {
             int c1 = str.charAt(i);
-            if (isCoreFont) {
-                if (c1 < firstChar || c1 > lastChar) {
-                    c1 = 0x20;
-                }
-                c1 -= 32;
+            if (c1 < firstChar || c1 > lastChar) {
+                c1 = 0x20;
+            }
 
-                width += metrics[c1][1];
-                if (kernPairs && i < (str.length() - 1)) {
-                    int c2 = str.charAt(i + 1);
-                    if (c2 < firstChar || c2 > lastChar) {
-                        c2 = 32;
-                    }
-                    for (int j = 2; j < metrics[c1].length; j += 2) {
-                        if (metrics[c1][j] == c2) {
-                            width += metrics[c1][j + 1];
-                            break;
-                        }
-                    }
-                }
-            } else {
-                if (c1 < firstChar || c1 > lastChar) {
-                    width += advanceWidth[0];
-                } else {
-                    width += glyphWidth[c1];
+            width += metrics[c1 - 32][1];
+            if (kernPairs && i < (str.length() - 1)) {
+                int c2 = str.charAt(i + 1);
+                if (c2 < firstChar || c2 > lastChar) {
+                    c2 = 32;
                 }
+                width += kernTable.get(c1, c2);
             }
         }
 
@@ -474,17 +619,24 @@ public class Font {
             return getCoreFontFitChars(str, w);
         }
 
-        int i;
-        for (i = 0; i < str.length(); i++) {
-            int c1 = str.charAt(i);
-
-            if (c1 < firstChar || c1 > lastChar) {
-                w -= advanceWidth[0];
-            } else {
-                w -= glyphWidth[c1];
+        if (shaping && layout != null) {
+            // A ligature fits or doesn't fit as a whole.
+            GlyphRun run = layout.shape(this, str);
+            for (int i = 0; i < run.count; i++) {
+                w -= run.advances[i];
+                if (w < 0) {
+                    return run.start[i];
+                }
             }
+            return str.length();
+        }
 
+        int i = 0;
+        while (i < str.length()) {
+            int c1 = str.codePointAt(i);
+            w -= glyphWidth.get(c1);
             if (w < 0) break;
+            i += Character.charCount(c1);
         }
 
         return i;
@@ -501,8 +653,7 @@ public class Font {
                 c1 = 32;
             }
 
-            c1 -= 32;
-            w -= metrics[c1][1];
+            w -= metrics[c1 - 32][1];
 
             if (w < 0) {
                 return i;
@@ -513,13 +664,11 @@ public class Font {
                 if (c2 < firstChar || c2 > lastChar) {
                     c2 = 32;
                 }
-                for (int j = 2; j < metrics[c1].length; j += 2) {
-                    if (metrics[c1][j] == c2) {
-                        w -= metrics[c1][j + 1];
-                        if (w < 0) {
-                            return i;
-                        }
-                        break;
+                int kern = kernTable.get(c1, c2);
+                if (kern != 0) {
+                    w -= kern;
+                    if (w < 0) {
+                        return i;
                     }
                 }
             }
@@ -560,9 +709,10 @@ public class Font {
 
         Font activeFont = this;
         StringBuilder buf = new StringBuilder();
-        for (int i = 0; i < str.length(); i++) {
-            int ch = str.charAt(i);
-            if (activeFont.unicodeToGID[ch] == 0) {
+        int i = 0;
+        while (i < str.length()) {
+            int ch = str.codePointAt(i);
+            if (activeFont.unicodeToGID.get(ch) == 0) {
                 width += activeFont.stringWidth(buf.toString());
                 buf.setLength(0);
                 // Switch the active font
@@ -572,7 +722,8 @@ public class Font {
                     activeFont = this;
                 }
             }
-            buf.append((char) ch);
+            buf.appendCodePoint(ch);
+            i += Character.charCount(ch);
         }
         width += activeFont.stringWidth(buf.toString());
 
@@ -0,0 +1,457 @@
+/**
+ *  FontData.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ *  The parsed metrics and the font program of an OpenType or .stream font.
+ *  Parsing a font and compressing its program is done once per process,
+ *  the Font objects created for each PDF only add the PDF object numbers.
+ *  The instances are immutable and can be shared between threads.
+ */
+final class FontData {
+    // The fonts are large, so only the most recently used are kept.
+    private static final int MAX_CACHED_FONTS = 32;
+
+    private static final Map<String, FontData> cache =
+            new LinkedHashMap<String, FontData>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FontData> eldest) {
+            return size() > MAX_CACHED_FONTS;
+        }
+    };
+
+    // Version 2 of the .stream format, written by OptimizeOTF. All values are big-endian.
+    //   int     magic, "PJFS"
+    //   int     version, 2
+    //   int[12] unitsPerEm, bBoxLLx, bBoxLLy, bBoxURx, bBoxURy, ascent, descent,
+    //           firstChar, lastChar, capHeight, underlinePosition, underlineThickness
+    //   int     flags, 1 for a CFF font program
+    //   int     the size of the uncompressed font program
+    //   int[12] the offset and the length of the sections: the name, the info,
+    //           the advance widths, the glyph widths, the glyph IDs and the font program
+    // The name and the info are UTF-8, the advance widths are 16-bit values and
+    // the glyph widths and IDs are code point tables, see CodePointTable.write.
+    // The font program is zlib compressed and is copied as is to the PDF.
+    // The sections start at multiples of 4 bytes, so the file can be mapped and
+    // nothing in it has to be inflated or parsed.
+    static final int STREAM_MAGIC = 0x504A4653;
+    static final int STREAM_VERSION = 2;
+    static final int STREAM_HEADER_SIZE = 112;
+    static final int STREAM_CFF = 1;
+
+    static final int NAME = 0;
+    static final int INFO = 1;
+    static final int ADVANCE_WIDTHS = 2;
+    static final int GLYPH_WIDTHS = 3;
+    static final int GLYPH_IDS = 4;
+    static final int PROGRAM = 5;
+    static final int SECTIONS = 6;
+
+    final String key;                   // The cache key, the path or the SHA-256 digest
+    final String name;
+    final String info;
+    final int unitsPerEm;
+    final int bBoxLLx;
+    final int bBoxLLy;
+    final int bBoxURx;
+    final int bBoxURy;
+    final int ascent;
+    final int descent;
+    final int firstChar;
+    final int lastChar;
+    final int capHeight;
+    final int underlinePosition;
+    final int underlineThickness;
+    final int[] advanceWidth;
+    final CodePointTable glyphWidth;
+    final CodePointTable unicodeToGID;
+    final OpenTypeLayout layout;        // Null for .stream fonts
+    final boolean cff;
+    final int uncompressedSize;         // The size of the embedded font program
+
+    // OpenType fonts keep the font file, .stream fonts the compressed font program.
+    // The program of a version 2 .stream font stays in the mapped file until it is used.
+    private final byte[] fontFile;
+    private final int programOff;
+    private final ByteBuffer mappedProgram;
+
+    // Guarded by this
+    private byte[] compressed;
+    private byte[] program;
+    private final Map<String, byte[]> deflated = new HashMap<String, byte[]>();
+
+    private FontData(String key, OTF otf) {
+        this.key = key;
+        this.name = otf.fontName;
+        this.info = otf.fontInfo;
+        this.unitsPerEm = otf.unitsPerEm;
+        this.bBoxLLx = otf.bBoxLLx;
+        this.bBoxLLy = otf.bBoxLLy;
+        this.bBoxURx = otf.bBoxURx;
+        this.bBoxURy = otf.bBoxURy;
+        this.ascent = otf.ascent;
+        this.descent = otf.descent;
+        this.firstChar = otf.firstChar;
+        this.lastChar = otf.lastChar;
+        this.capHeight = otf.capHeight;
+        this.underlinePosition = otf.underlinePosition;
+        this.underlineThickness = otf.underlineThickness;
+        this.advanceWidth = otf.advanceWidth;
+        this.glyphWidth = otf.glyphWidth;
+        this.unicodeToGID = otf.unicodeToGID;
+        this.layout = otf.layout;
+        this.cff = otf.cff;
+        this.fontFile = otf.buf;
+        this.programOff = otf.cff ? otf.cffOff : 0;
+        this.uncompressedSize = otf.cff ? otf.cffLen : otf.buf.length;
+        this.mappedProgram = null;
+    }
+
+    // Version 2 of the .stream format, see above.
+    private FontData(String key, ByteBuffer buf) throws Exception {
+        this.key = key;
+        if (buf.remaining() < STREAM_HEADER_SIZE || buf.getInt(0) != STREAM_MAGIC) {
+            throw new Exception("Not a .stream font.");
+        }
+        int version = buf.getInt(4);
+        if (version != STREAM_VERSION) {
+            throw new Exception(".stream font version " + version + " is not supported.");
+        }
+        buf.position(8);
+        this.unitsPerEm = buf.getInt();
+        this.bBoxLLx = buf.getInt();
+        this.bBoxLLy = buf.getInt();
+        this.bBoxURx = buf.getInt();
+        this.bBoxURy = buf.getInt();
+        this.ascent = buf.getInt();
+        this.descent = buf.getInt();
+        this.firstChar = buf.getInt();
+        this.lastChar = buf.getInt();
+        this.capHeight = buf.getInt();
+        this.underlinePosition = buf.getInt();
+        this.underlineThickness = buf.getInt();
+        this.cff = (buf.getInt() & STREAM_CFF) != 0;
+        this.uncompressedSize = buf.getInt();
+
+        ByteBuffer[] sections = new ByteBuffer[SECTIONS];
+        for (int i = 0; i < SECTIONS; i++) {
+            int offset = buf.getInt();
+            int length = buf.getInt();
+            if (offset < STREAM_HEADER_SIZE || length < 0 ||
+                    length > buf.limit() - offset) {
+                throw new Exception("Invalid .stream font section " + i + ".");
+            }
+            ByteBuffer section = buf.duplicate();
+            section.limit(offset + length);
+            section.position(offset);
+            sections[i] = section.slice();
+        }
+
+        try {
+            this.name = getString(sections[NAME]);
+            this.info = getString(sections[INFO]);
+            ShortBuffer widths = sections[ADVANCE_WIDTHS].asShortBuffer();
+            this.advanceWidth = new int[widths.remaining()];
+            for (int i = 0; i < advanceWidth.length; i++) {
+                this.advanceWidth[i] = widths.get(i) & 0xFFFF;
+            }
+            this.glyphWidth = CodePointTable.read(sections[GLYPH_WIDTHS]);
+            this.unicodeToGID = CodePointTable.read(sections[GLYPH_IDS]);
+        } catch (BufferUnderflowException e) {
+            throw new Exception("Truncated .stream font.", e);
+        } catch (IllegalArgumentException e) {
+            throw new Exception("Invalid .stream font.", e);
+        }
+        this.layout = null;
+        this.mappedProgram = sections[PROGRAM];
+        this.fontFile = null;
+        this.programOff = 0;
+    }
+
+    // Version 1 of the .stream format, written by the previous versions of OptimizeOTF.
+    private FontData(String key, byte[] buf) throws Exception {
+        this.key = key;
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(buf);
+        int len = inputStream.read();
+        byte[] fontName = new byte[len];
+        inputStream.read(fontName, 0, len);
+        this.name = new String(fontName, "UTF-8");
+
+        len = getInt24(inputStream);
+        byte[] fontInfo = new byte[len];
+        inputStream.read(fontInfo, 0, len);
+        this.info = new String(fontInfo, "UTF-8");
+
+        byte[] metrics = new byte[getInt32(inputStream)];
+        inputStream.read(metrics, 0, metrics.length);
+        ByteArrayInputStream stream =
+                new ByteArrayInputStream(Decompressor.inflate(metrics));
+
+        this.unitsPerEm = getInt32(stream);
+        this.bBoxLLx = getInt32(stream);
+        this.bBoxLLy = getInt32(stream);
+        this.bBoxURx = getInt32(stream);
+        this.bBoxURy = getInt32(stream);
+        this.ascent = getInt32(stream);
+        this.descent = getInt32(stream);
+        this.firstChar = getInt32(stream);
+        this.lastChar = getInt32(stream);
+        this.capHeight = getInt32(stream);
+        this.underlinePosition = getInt32(stream);
+        this.underlineThickness = getInt32(stream);
+
+        len = getInt32(stream);
+        this.advanceWidth = new int[len];
+        for (int i = 0; i < len; i++) {
+            this.advanceWidth[i] = getInt16(stream);
+        }
+
+        len = getInt32(stream);
+        int[] values = new int[len];
+        for (int i = 0; i < len; i++) {
+            values[i] = getInt16(stream);
+        }
+        this.glyphWidth = new CodePointTable(values, advanceWidth[0]);
+
+        len = getInt32(stream);
+        values = new int[len];
+        for (int i = 0; i < len; i++) {
+            values[i] = getInt16(stream);
+        }
+        this.unicodeToGID = new CodePointTable(values, 0);
+        this.layout = null;
+
+        this.cff = inputStream.read() == 'Y';
+        this.uncompressedSize = getInt32(inputStream);
+        this.compressed = new byte[getInt32(inputStream)];
+        inputStream.read(this.compressed, 0, this.compressed.length);
+        this.fontFile = null;
+        this.programOff = 0;
+        this.mappedProgram = null;
+    }
+
+    /**
+     *  Returns the data for the font file, the file is parsed again if it was modified.
+     *
+     *  @param path the path to an OpenType, TrueType or .stream font file.
+     *  @return the font data.
+     *  @throws Exception  If an input or output exception occurred
+     */
+    static FontData get(String path) throws Exception {
+        File file = new File(path);
+        String key = "file:" + file.getCanonicalPath() + ":" +
+                file.length() + ":" + file.lastModified();
+        FontData data = getCachedFontData(key);
+        if (data == null) {
+            if (path.endsWith(".stream")) {
+                data = parseStream(key, map(file));
+            } else {
+                data = parse(key, Contents.getFromStream(new FileInputStream(file)), false);
+            }
+            putCachedFontData(key, data);
+        }
+        return data;
+    }
+
+    /**
+     *  Returns the data for the font read from the input stream.
+     *  The fonts are identified by the SHA-256 digest of their content.
+     *  The input stream is closed.
+     *
+     *  @param inputStream the input stream.
+     *  @param streamFont true for .stream fonts.
+     *  @return the font data.
+     *  @throws Exception  If an input or output exception occurred
+     */
+    static FontData get(InputStream inputStream, boolean streamFont) throws Exception {
+        byte[] buf = Contents.getFromStream(inputStream);
+        String key = (streamFont ? "stream:" : "otf:") + digest(buf);
+        FontData data = getCachedFontData(key);
+        if (data == null) {
+            data = parse(key, buf, streamFont);
+            putCachedFontData(key, data);
+        }
+        return data;
+    }
+
+    private static FontData parse(
+            String key, byte[] buf, boolean streamFont) throws Exception {
+        if (streamFont) {
+            return parseStream(key, ByteBuffer.wrap(buf));
+        }
+        return new FontData(key, new OTF(new ByteArrayInputStream(buf)));
+    }
+
+    private static FontData parseStream(String key, ByteBuffer buf) throws Exception {
+        if (buf.remaining() >= 4 && buf.getInt(0) == STREAM_MAGIC) {
+            return new FontData(key, buf);
+        }
+        if (buf.hasArray()) {
+            return new FontData(key, buf.array());
+        }
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return new FontData(key, bytes);
+    }
+
+    // The mapping stays valid after the channel is closed.
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String getString(ByteBuffer buf) throws Exception {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static FontData getCachedFontData(String key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    private static void putCachedFontData(String key, FontData data) {
+        synchronized (cache) {
+            cache.put(key, data);
+        }
+    }
+
+    private static String digest(byte[] buf) throws NoSuchAlgorithmException {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(buf);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0x0F, 16));
+            sb.append(Character.forDigit(b & 0x0F, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     *  Sets the metrics of the font.
+     *
+     *  @param font the font.
+     */
+    void copyTo(Font font) {
+        font.name = name;
+        font.info = info;
+        font.unitsPerEm = unitsPerEm;
+        font.bBoxLLx = bBoxLLx;
+        font.bBoxLLy = bBoxLLy;
+        font.bBoxURx = bBoxURx;
+        font.bBoxURy = bBoxURy;
+        font.fontAscent = ascent;
+        font.fontDescent = descent;
+        font.firstChar = firstChar;
+        font.lastChar = lastChar;
+        font.capHeight = capHeight;
+        font.fontUnderlinePosition = underlinePosition;
+        font.fontUnderlineThickness = underlineThickness;
+        font.advanceWidth = advanceWidth;
+        font.glyphWidth = glyphWidth;
+        font.unicodeToGID = unicodeToGID;
+        font.layout = layout;
+        font.cff = cff;
+        font.uncompressedSize = uncompressedSize;
+    }
+
+    /**
+     *  Returns the compressed font program. The program of a .stream font
+     *  is already compressed and the policy is not used.
+     *
+     *  @param policy the compression policy.
+     *  @return the compressed font program, the array must not be modified.
+     */
+    synchronized byte[] getCompressedProgram(CompressionPolicy policy) {
+        if (mappedProgram != null || compressed != null) {
+            return getStreamProgram();
+        }
+        String key = policy.getLevel(CompressionPolicy.FONTS) + ":" +
+                policy.getStrategy(CompressionPolicy.FONTS) + ":" +
+                policy.isExhaustive(CompressionPolicy.FONTS);
+        byte[] buf = deflated.get(key);
+        if (buf == null) {
+            buf = Compressor.deflate(
+                    fontFile, programOff, uncompressedSize, policy, CompressionPolicy.FONTS);
+            deflated.put(key, buf);
+        }
+        return buf;
+    }
+
+    /**
+     *  Returns the uncompressed font program.
+     *
+     *  @return the font program, the array must not be modified.
+     *  @throws Exception  If the compressed program is invalid
+     */
+    synchronized byte[] getProgram() throws Exception {
+        if (program == null) {
+            if (mappedProgram != null || compressed != null) {
+                program = Decompressor.inflate(getStreamProgram());
+            } else if (cff) {
+                program = Arrays.copyOfRange(fontFile, programOff, programOff + uncompressedSize);
+            } else {
+                program = fontFile;
+            }
+        }
+        return program;
+    }
+
+    // Guarded by this
+    private byte[] getStreamProgram() {
+        if (compressed == null) {
+            compressed = new byte[mappedProgram.remaining()];
+            mappedProgram.duplicate().get(compressed);
+        }
+        return compressed;
+    }
+
+    private static int getInt16(InputStream stream) throws Exception {
+        return stream.read() << 8 | stream.read();
+    }
+
+    private static int getInt24(InputStream stream) throws Exception {
+        return stream.read() << 16 |
+                stream.read() << 8 | stream.read();
+    }
+
+    private static int getInt32(InputStream stream) throws Exception {
+        return stream.read() << 24 | stream.read() << 16 |
+                stream.read() << 8 | stream.read();
+    }
+}
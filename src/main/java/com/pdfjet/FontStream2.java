@@ -30,10 +30,10 @@ class FontStream2 {
     protected static void register(
             List<PDFobj> objects,
             Font font,
-            InputStream inputStream) throws Exception {
-        FontStream1.getFontData(font, inputStream);
+            FontData data) throws Exception {
+        data.copyTo(font);
 
-        embedFontFile(objects, font, inputStream);
+        embedFontFile(objects, font, data);
         addFontDescriptorObject(objects, font);
         addCIDFontDictionaryObject(objects, font);
         addToUnicodeCMapObject(objects, font);
@@ -105,7 +105,7 @@ class FontStream2 {
     private static void embedFontFile(
             List<PDFobj> objects,
             Font font,
-            InputStream inputStream) throws Exception {
+            FontData data) throws Exception {
         int metadataObjNumber = addMetadataObject(objects, font);
 
         PDFobj obj = new PDFobj();
@@ -117,7 +117,8 @@ class FontStream2 {
         obj.dict.add("/Filter");
         obj.dict.add("/FlateDecode");
         obj.dict.add("/Length");
-        obj.dict.add(String.valueOf(font.compressedSize));
+        byte[] compressed = data.getCompressedProgram(new CompressionPolicy());
+        obj.dict.add(String.valueOf(compressed.length));
         if (font.cff) {
             obj.dict.add("/Subtype");
             obj.dict.add("/CIDFontType0C");
@@ -126,14 +127,7 @@ class FontStream2 {
             obj.dict.add(String.valueOf(font.uncompressedSize));
         }
         obj.dict.add(">>");
-        ByteArrayOutputStream buf2 = new ByteArrayOutputStream();
-        byte[] buf = new byte[4096];
-        int len;
-        while ((len = inputStream.read(buf, 0, buf.length)) > 0) {
-            buf2.write(buf, 0, len);
-        }
-        inputStream.close();
-        obj.setStream(buf2.toByteArray());
+        obj.setStream(compressed);
         obj.number = objects.size() + 1;
         objects.add(obj);
         font.fileObjNumber = obj.number;
@@ -193,7 +187,7 @@ class FontStream2 {
         List<String> list = new ArrayList<String>();
         StringBuilder buf = new StringBuilder();
         for (int cid = 0; cid <= 0xffff; cid++) {
-            int gid = font.unicodeToGID[cid];
+            int gid = font.unicodeToGID.get(cid);
             if (gid > 0) {
                 buf.append('<');
                 buf.append(FontStream1.toHexString(gid));
@@ -0,0 +1,530 @@
+/**
+ *  FontSubset.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Collects the glyphs used by an embedded font and writes the objects that
+ *  depend on them when the PDF is completed: the CID font dictionary with the
+ *  widths of the used glyphs, the ToUnicode CMap and, for TrueType fonts,
+ *  the subset of the font program.
+ *  The glyph IDs are not changed, the unused glyphs are left empty and
+ *  the glyphs after the last used one are removed from the font program.
+ *  See the 'glyf' and 'loca' tables in the OpenType specification.
+ *  The subset is shared by the sized views of the font, the glyphs are added
+ *  under the lock of the subset so pages can be drawn on different threads.
+ */
+final class FontSubset {
+    // These are the tables required by the PDF specification for TrueType fonts.
+    private static final String[] TABLES = {
+        "OS/2", "cvt ", "fpgm", "glyf", "head", "hhea", "hmtx", "loca", "maxp", "prep"
+    };
+
+    private static final int ARG_1_AND_2_ARE_WORDS = 0x0001;
+    private static final int WE_HAVE_A_SCALE = 0x0008;
+    private static final int MORE_COMPONENTS = 0x0020;
+    private static final int WE_HAVE_AN_X_AND_Y_SCALE = 0x0040;
+    private static final int WE_HAVE_A_TWO_BY_TWO = 0x0080;
+
+    private final Font font;
+    private final byte[] program;
+    private final int metadataObjNumber;
+    private final String tag;
+    private final BitSet glyphs = new BitSet();
+    private final int[][] toUnicode = new int[256][];  // Blocks of 256 glyphs, created when used
+    private final Map<Integer, String> ligatures = new HashMap<Integer, String>();
+    private boolean embedded = false;
+
+    /**
+     *  Creates the subset for the font. The object numbers of the font file,
+     *  the CID font dictionary and the ToUnicode CMap must be reserved.
+     *
+     *  @param font the font.
+     *  @param program the TrueType font program, or null if it is embedded in full.
+     *  @param metadataObjNumber the font metadata object number or -1.
+     */
+    FontSubset(Font font, byte[] program, int metadataObjNumber) {
+        this.font = font;
+        this.program = program;
+        this.metadataObjNumber = metadataObjNumber;
+        this.tag = (program != null) ? getTag(font.name, font.fileObjNumber) : null;
+        this.glyphs.set(0);             // The .notdef glyph
+    }
+
+    // Six uppercase letters that are unique for each subset in the document.
+    private static String getTag(String name, int objNumber) {
+        long hash = (name.hashCode() & 0xFFFFFFFFL) * 31L + objNumber;
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            buf.append((char) ('A' + (hash % 26)));
+            hash /= 26;
+        }
+        return buf.toString();
+    }
+
+    // Returns null if the font program is embedded in full.
+    String getTag() {
+        return tag;
+    }
+
+    synchronized void addGlyph(int gid, int unicode) {
+        glyphs.set(gid);
+        int[] block = toUnicode[gid >> 8];
+        if (block == null) {
+            block = new int[256];
+            toUnicode[gid >> 8] = block;
+        }
+        if (block[gid & 0xFF] == 0) {
+            block[gid & 0xFF] = unicode;
+        }
+    }
+
+    // A ligature glyph maps to all of its characters.
+    synchronized void addGlyph(int gid, String text) {
+        glyphs.set(gid);
+        if (!ligatures.containsKey(gid)) {
+            ligatures.put(gid, text);
+        }
+    }
+
+    /**
+     *  Writes the objects reserved when the font was registered.
+     *
+     *  @param pdf the PDF.
+     *  @throws Exception  If an input or output exception occurred
+     */
+    synchronized void embed(PDF pdf) throws Exception {
+        if (embedded) {
+            return;
+        }
+        embedded = true;
+
+        if (program != null) {
+            embedFontProgram(pdf);
+        }
+        addCIDFontDictionaryObject(pdf);
+        addToUnicodeCMapObject(pdf);
+    }
+
+    private void embedFontProgram(PDF pdf) throws Exception {
+        byte[] subset = subset();
+        byte[] deflated = Compressor.deflate(
+                subset, pdf.getCompressionPolicy(), CompressionPolicy.FONTS);
+
+        pdf.beginReservedObject(font.fileObjNumber);
+        pdf.append(Token.beginDictionary);
+        if (metadataObjNumber != -1) {
+            pdf.append("/Metadata ");
+            pdf.append(metadataObjNumber);
+            pdf.append(" 0 R\n");
+        }
+        pdf.append("/Filter /FlateDecode\n");
+        pdf.append("/Length ");
+        pdf.append(deflated.length);
+        pdf.append(Token.newline);
+        pdf.append("/Length1 ");
+        pdf.append(subset.length);
+        pdf.append(Token.newline);
+        pdf.append(Token.endDictionary);
+        pdf.append(Token.stream);
+        pdf.append(deflated, 0, deflated.length);
+        pdf.append(Token.endstream);
+        pdf.endobj();
+    }
+
+    private void addCIDFontDictionaryObject(PDF pdf) throws Exception {
+        pdf.beginReservedObject(font.cidFontDictObjNumber);
+        pdf.append("<<\n");
+        pdf.append("/Type /Font\n");
+        if (font.cff) {
+            pdf.append("/Subtype /CIDFontType0\n");
+        } else {
+            pdf.append("/Subtype /CIDFontType2\n");
+        }
+        pdf.append("/BaseFont /");
+        pdf.append(font.getBaseFont().getBytes("UTF-8"));
+        pdf.append('\n');
+        pdf.append("/CIDSystemInfo <</Registry (Adobe) /Ordering (Identity) /Supplement 0>>\n");
+        pdf.append("/FontDescriptor ");
+        pdf.append(font.fontDescriptorObjNumber);
+        pdf.append(" 0 R\n");
+
+        final float k = 1000.0f / Float.valueOf(font.unitsPerEm);
+        int[] widths = new int[font.advanceWidth.length];
+        for (int gid = 0; gid < widths.length; gid++) {
+            if (glyphs.get(gid)) {
+                widths[gid] = Math.round(k * Float.valueOf(font.advanceWidth[gid]));
+            }
+        }
+        pdf.append("/DW ");
+        pdf.append(widths[0]);
+        pdf.append('\n');
+
+        // One entry for each run of used glyphs that don't have the default width.
+        pdf.append("/W [\n");
+        int gid = 1;
+        while (gid < widths.length) {
+            if (!glyphs.get(gid) || widths[gid] == widths[0]) {
+                gid++;
+                continue;
+            }
+            pdf.append(gid);
+            pdf.append(" [");
+            while (gid < widths.length && glyphs.get(gid) && widths[gid] != widths[0]) {
+                pdf.append(widths[gid]);
+                pdf.append(' ');
+                gid++;
+            }
+            pdf.append("]\n");
+        }
+        pdf.append("]\n");
+
+        pdf.append("/CIDToGIDMap /Identity\n");
+        pdf.append(">>\n");
+        pdf.endobj();
+    }
+
+    private void addToUnicodeCMapObject(PDF pdf) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("/CIDInit /ProcSet findresource begin\n");
+        sb.append("12 dict begin\n");
+        sb.append("begincmap\n");
+        sb.append("/CIDSystemInfo <</Registry (Adobe) /Ordering (Identity) /Supplement 0>> def\n");
+        sb.append("/CMapName /Adobe-Identity def\n");
+        sb.append("/CMapType 2 def\n");
+
+        sb.append("1 begincodespacerange\n");
+        sb.append("<0000> <FFFF>\n");
+        sb.append("endcodespacerange\n");
+
+        // Consecutive glyphs that map to consecutive Unicode values become one bfrange.
+        // A range can't cross a change of the first byte of the glyph ID or the Unicode value.
+        // The code points outside the BMP are written as UTF-16 surrogate pairs.
+        List<String> chars = new ArrayList<String>();
+        List<String> ranges = new ArrayList<String>();
+        int gid = glyphs.nextSetBit(1);
+        while (gid != -1) {
+            int unicode = getUnicode(gid);
+            if (unicode == 0) {
+                String text = ligatures.get(gid);
+                if (text != null) {
+                    chars.add("<" + FontStream1.toHexString(gid) + "> <" + toUTF16Hex(text) + ">\n");
+                }
+                gid = glyphs.nextSetBit(gid + 1);
+                continue;
+            }
+            int last = gid;
+            if (unicode <= 0xFFFF) {
+                while (((last + 1) & 0xFF) != 0 &&
+                        getUnicode(last + 1) == getUnicode(last) + 1 &&
+                        (getUnicode(last + 1) & 0xFF) != 0) {
+                    last++;
+                }
+            }
+            if (last == gid) {
+                chars.add("<" + FontStream1.toHexString(gid) + "> <" +
+                        toUTF16Hex(unicode) + ">\n");
+            } else {
+                ranges.add("<" + FontStream1.toHexString(gid) + "> <" +
+                        FontStream1.toHexString(last) + "> <" +
+                        FontStream1.toHexString(unicode) + ">\n");
+            }
+            gid = glyphs.nextSetBit(last + 1);
+        }
+        writeListToBuffer(sb, chars, "bfchar");
+        writeListToBuffer(sb, ranges, "bfrange");
+
+        sb.append("endcmap\n");
+        sb.append("CMapName currentdict /CMap defineresource pop\n");
+        sb.append("end\nend");
+
+        byte[] deflated = Compressor.deflate(
+                sb.toString().getBytes("ISO-8859-1"),
+                pdf.getCompressionPolicy(),
+                CompressionPolicy.FONTS);
+        pdf.beginReservedObject(font.toUnicodeCMapObjNumber);
+        pdf.append(Token.beginDictionary);
+        pdf.append("/Filter /FlateDecode\n");
+        pdf.append("/Length ");
+        pdf.append(deflated.length);
+        pdf.append(Token.newline);
+        pdf.append(Token.endDictionary);
+        pdf.append(Token.stream);
+        pdf.append(deflated, 0, deflated.length);
+        pdf.append(Token.endstream);
+        pdf.endobj();
+    }
+
+    private int getUnicode(int gid) {
+        int[] block = toUnicode[gid >> 8];
+        return (block != null) ? block[gid & 0xFF] : 0;
+    }
+
+    private static String toUTF16Hex(int codePoint) {
+        if (codePoint <= 0xFFFF) {
+            return FontStream1.toHexString(codePoint);
+        }
+        return FontStream1.toHexString(Character.highSurrogate(codePoint)) +
+                FontStream1.toHexString(Character.lowSurrogate(codePoint));
+    }
+
+    private static String toUTF16Hex(String text) {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            buf.append(FontStream1.toHexString(text.charAt(i)));
+        }
+        return buf.toString();
+    }
+
+    // A CMap operator can have at most 100 entries.
+    private static void writeListToBuffer(StringBuilder sb, List<String> list, String operator) {
+        for (int i = 0; i < list.size(); i += 100) {
+            int n = Math.min(100, list.size() - i);
+            sb.append(n);
+            sb.append(" begin");
+            sb.append(operator);
+            sb.append('\n');
+            for (int j = i; j < i + n; j++) {
+                sb.append(list.get(j));
+            }
+            sb.append("end");
+            sb.append(operator);
+            sb.append('\n');
+        }
+    }
+
+    /**
+     *  Returns the font program with only the used glyphs.
+     *
+     *  @return the subset font program.
+     */
+    synchronized byte[] subset() throws IOException {
+        Map<String, int[]> tables = new HashMap<String, int[]>();
+        int numTables = getUInt16(program, 4);
+        for (int i = 0; i < numTables; i++) {
+            int off = 12 + 16*i;
+            String name = new String(program, off, 4, "ISO-8859-1");
+            tables.put(name, new int[] {getInt32(program, off + 8), getInt32(program, off + 12)});
+        }
+
+        int[] head = tables.get("head");
+        int[] maxp = tables.get("maxp");
+        int[] hhea = tables.get("hhea");
+        int[] glyf = tables.get("glyf");
+        int[] loca = tables.get("loca");
+        int numGlyphs = getUInt16(program, maxp[0] + 4);
+        boolean shortLoca = getUInt16(program, head[0] + 50) == 0;
+        int[] offsets = new int[numGlyphs + 1];
+        for (int i = 0; i <= numGlyphs; i++) {
+            offsets[i] = shortLoca ?
+                    2*getUInt16(program, loca[0] + 2*i) : getInt32(program, loca[0] + 4*i);
+        }
+
+        // Add the components of the composite glyphs.
+        boolean[] used = new boolean[numGlyphs];
+        Deque<Integer> stack = new ArrayDeque<Integer>();
+        for (int gid = 0; gid < numGlyphs; gid++) {
+            if (glyphs.get(gid)) {
+                used[gid] = true;
+                stack.push(gid);
+            }
+        }
+        while (!stack.isEmpty()) {
+            int gid = stack.pop();
+            int off = glyf[0] + offsets[gid];
+            if (offsets[gid + 1] > offsets[gid] && (short) getUInt16(program, off) < 0) {
+                off += 10;      // Skip the glyph header
+                int flags;
+                do {
+                    flags = getUInt16(program, off);
+                    int component = getUInt16(program, off + 2);
+                    off += 4;
+                    off += ((flags & ARG_1_AND_2_ARE_WORDS) != 0) ? 4 : 2;
+                    if ((flags & WE_HAVE_A_SCALE) != 0) {
+                        off += 2;
+                    } else if ((flags & WE_HAVE_AN_X_AND_Y_SCALE) != 0) {
+                        off += 4;
+                    } else if ((flags & WE_HAVE_A_TWO_BY_TWO) != 0) {
+                        off += 8;
+                    }
+                    if (component < numGlyphs && !used[component]) {
+                        used[component] = true;
+                        stack.push(component);
+                    }
+                } while ((flags & MORE_COMPONENTS) != 0);
+            }
+        }
+
+        int count = numGlyphs;
+        while (count > 1 && !used[count - 1]) {
+            count--;
+        }
+
+        // The new 'glyf' and 'loca' tables, the 'loca' table uses the long format.
+        ByteArrayOutputStream glyfTable = new ByteArrayOutputStream();
+        ByteArrayOutputStream locaTable = new ByteArrayOutputStream(4*(count + 1));
+        for (int gid = 0; gid < count; gid++) {
+            putInt32(locaTable, glyfTable.size());
+            int len = offsets[gid + 1] - offsets[gid];
+            if (used[gid] && len > 0) {
+                glyfTable.write(program, glyf[0] + offsets[gid], len);
+                while (glyfTable.size() % 4 != 0) {
+                    glyfTable.write(0);
+                }
+            }
+        }
+        putInt32(locaTable, glyfTable.size());
+
+        // The 'hmtx' table starts with the metrics of the glyphs we keep.
+        int numberOfHMetrics = Math.min(getUInt16(program, hhea[0] + 34), count);
+        int[] hmtx = tables.get("hmtx");
+        byte[] hmtxTable = Arrays.copyOfRange(
+                program, hmtx[0], hmtx[0] + 4*numberOfHMetrics + 2*(count - numberOfHMetrics));
+
+        byte[] headTable = copyTable(head);
+        putInt32(headTable, 8, 0);              // checkSumAdjustment
+        putUInt16(headTable, 50, 1);            // indexToLocFormat
+        byte[] hheaTable = copyTable(hhea);
+        putUInt16(hheaTable, 34, numberOfHMetrics);
+        byte[] maxpTable = copyTable(maxp);
+        putUInt16(maxpTable, 4, count);
+
+        Map<String, byte[]> subset = new TreeMap<String, byte[]>();
+        for (String name : TABLES) {
+            if (tables.containsKey(name)) {
+                subset.put(name, copyTable(tables.get(name)));
+            }
+        }
+        subset.put("glyf", glyfTable.toByteArray());
+        subset.put("loca", locaTable.toByteArray());
+        subset.put("hmtx", hmtxTable);
+        subset.put("head", headTable);
+        subset.put("hhea", hheaTable);
+        subset.put("maxp", maxpTable);
+
+        byte[] buf = writeFont(subset);
+        int[] headEntry = findTable(buf, "head");
+        putInt32(buf, headEntry[0] + 8, (int) (0xB1B0AFBAL - checkSum(buf, 0, buf.length)));
+        return buf;
+    }
+
+    private byte[] copyTable(int[] table) {
+        return Arrays.copyOfRange(program, table[0], table[0] + table[1]);
+    }
+
+    private static byte[] writeFont(Map<String, byte[]> tables) throws IOException {
+        int numTables = tables.size();
+        int entrySelector = 0;
+        while ((1 << (entrySelector + 1)) <= numTables) {
+            entrySelector++;
+        }
+        int searchRange = 16 * (1 << entrySelector);
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        putInt32(buf, 0x00010000);
+        putUInt16(buf, numTables);
+        putUInt16(buf, searchRange);
+        putUInt16(buf, entrySelector);
+        putUInt16(buf, 16*numTables - searchRange);
+
+        int offset = 12 + 16*numTables;
+        for (Map.Entry<String, byte[]> entry : tables.entrySet()) {
+            byte[] table = entry.getValue();
+            buf.write(entry.getKey().getBytes("ISO-8859-1"));
+            putInt32(buf, (int) checkSum(table, 0, table.length));
+            putInt32(buf, offset);
+            putInt32(buf, table.length);
+            offset += (table.length + 3) & ~3;
+        }
+        for (byte[] table : tables.values()) {
+            buf.write(table);
+            for (int i = table.length; i % 4 != 0; i++) {
+                buf.write(0);
+            }
+        }
+        return buf.toByteArray();
+    }
+
+    // Returns the offset and length of the table.
+    private static int[] findTable(byte[] buf, String name) throws IOException {
+        int numTables = getUInt16(buf, 4);
+        for (int i = 0; i < numTables; i++) {
+            int off = 12 + 16*i;
+            if (new String(buf, off, 4, "ISO-8859-1").equals(name)) {
+                return new int[] {getInt32(buf, off + 8), getInt32(buf, off + 12)};
+            }
+        }
+        return null;
+    }
+
+    private static long checkSum(byte[] buf, int off, int len) {
+        long sum = 0L;
+        for (int i = 0; i < len; i += 4) {
+            long value = 0L;
+            for (int j = 0; j < 4; j++) {
+                value <<= 8;
+                if (i + j < len) {
+                    value |= buf[off + i + j] & 0xFF;
+                }
+            }
+            sum += value;
+        }
+        return sum & 0xFFFFFFFFL;
+    }
+
+    private static int getUInt16(byte[] buf, int off) {
+        return (buf[off] & 0xFF) << 8 | (buf[off + 1] & 0xFF);
+    }
+
+    private static int getInt32(byte[] buf, int off) {
+        return (buf[off] & 0xFF) << 24 | (buf[off + 1] & 0xFF) << 16 |
+                (buf[off + 2] & 0xFF) << 8 | (buf[off + 3] & 0xFF);
+    }
+
+    private static void putUInt16(byte[] buf, int off, int value) {
+        buf[off] = (byte) (value >> 8);
+        buf[off + 1] = (byte) value;
+    }
+
+    private static void putInt32(byte[] buf, int off, int value) {
+        buf[off] = (byte) (value >> 24);
+        buf[off + 1] = (byte) (value >> 16);
+        buf[off + 2] = (byte) (value >> 8);
+        buf[off + 3] = (byte) value;
+    }
+
+    private static void putUInt16(ByteArrayOutputStream buf, int value) {
+        buf.write(value >> 8);
+        buf.write(value);
+    }
+
+    private static void putInt32(ByteArrayOutputStream buf, int value) {
+        buf.write(value >> 24);
+        buf.write(value >> 16);
+        buf.write(value >> 8);
+        buf.write(value);
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ *  GlyphRun.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+/**
+ *  The glyphs of a shaped string with their positions in font units.
+ *  The glyph at index i is drawn at the pen position plus the offsets and
+ *  then the pen moves by the advance. Each glyph maps to the characters
+ *  from start[i] to end[i] of the string, more than one for a ligature.
+ */
+final class GlyphRun {
+    int count;
+    int[] glyphs;
+    int[] start;
+    int[] end;
+    int[] advances;
+    int[] xOffsets;
+    int[] yOffsets;
+    int[] attachedTo;       // The index of the base glyph of a mark or -1
+
+    GlyphRun(int capacity) {
+        glyphs = new int[capacity];
+        start = new int[capacity];
+        end = new int[capacity];
+        advances = new int[capacity];
+        xOffsets = new int[capacity];
+        yOffsets = new int[capacity];
+        attachedTo = new int[capacity];
+    }
+
+    void add(int glyph, int start, int end) {
+        this.glyphs[count] = glyph;
+        this.start[count] = start;
+        this.end[count] = end;
+        this.attachedTo[count] = -1;
+        count++;
+    }
+
+    // Removes a ligature component, the positions are not set yet.
+    void remove(int index) {
+        int n = count - index - 1;
+        System.arraycopy(glyphs, index + 1, glyphs, index, n);
+        System.arraycopy(start, index + 1, start, index, n);
+        System.arraycopy(end, index + 1, end, index, n);
+        count--;
+    }
+
+    /**
+     *  Returns the sum of the advances in font units.
+     *
+     *  @return the width of the run.
+     */
+    int getAdvance() {
+        int width = 0;
+        for (int i = 0; i < count; i++) {
+            width += advances[i];
+        }
+        return width;
+    }
+}
@@ -25,6 +25,7 @@ package com.pdfjet;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  *  Used to create image objects and draw them on a page.
@@ -35,6 +36,12 @@ import java.util.*;
  */
 public class Image implements Drawable {
     protected int objNumber;
+    private int maskObjNumber = 0;      // The soft mask of the image, 0 if there is none
+    private ImageData data;             // Null after the image is written
+    private Future<ImageData> pending;  // The image data decoded on the image executor
+    private Image registered;           // The image that writes the objects of this image
+    private float drawnWidth;           // The largest size at which the image is drawn
+    private float drawnHeight;
 
     protected float x = 0f; // Position of the image on the page
     protected float y = 0f;
@@ -79,44 +86,31 @@ public class Image implements Drawable {
      *
      */
     public Image(PDF pdf, InputStream inputStream, int imageType) throws Exception {
-        byte[] data;
-        if (imageType == ImageType.JPG) {
-            JPGImage jpg = new JPGImage(inputStream);
-            data = jpg.getData();
-            w = jpg.getWidth();
-            h = jpg.getHeight();
-            if (jpg.getColorComponents() == 1) {
-                addImage(pdf, data, null, imageType, "DeviceGray", 8);
-            } else if (jpg.getColorComponents() == 3) {
-                addImage(pdf, data, null, imageType, "DeviceRGB", 8);
-            } else if (jpg.getColorComponents() == 4) {
-                addImage(pdf, data, null, imageType, "DeviceCMYK", 8);
-            }
-        } else if (imageType == ImageType.PNG) {
-            PNGImage png = new PNGImage(inputStream);
-            data = png.getData();
-            w = png.getWidth();
-            h = png.getHeight();
-            if (png.getColorType() == 0) {
-                addImage(pdf, data, null, imageType, "DeviceGray", png.getBitDepth());
-            } else {
-                if (png.getBitDepth() == 16) {
-                    addImage(pdf, data, null, imageType, "DeviceRGB", 16);
-                } else {
-                    addImage(pdf, data, png.getAlpha(), imageType, "DeviceRGB", 8);
-                }
-            }
-        } else if (imageType == ImageType.BMP) {
-            BMPImage bmp = new BMPImage(inputStream);
-            data = bmp.getData();
-            w = bmp.getWidth();
-            h = bmp.getHeight();
-            addImage(pdf, data, null, imageType, "DeviceRGB", 8);
-        } else if (imageType == ImageType.PNG_STREAM) {
-            addImage(pdf, inputStream);
+        byte[] buf = Contents.getFromStream(inputStream);
+        CompressionPolicy policy = pdf.getCompressionPolicy();
+        String cacheKey = ImageData.getKey(buf, imageType, policy);
+        if (pdf.getImageDecodingExecutor() != null) {
+            submit(pdf, buf, cacheKey, imageType);
+            return;
         }
+        ImageData data = ImageData.getCachedImageData(cacheKey);
+        if (data == null) {
+            data = ImageData.decode(buf, cacheKey, imageType, policy);
+        }
+        w = data.width;
+        h = data.height;
+        register(pdf, data, cacheKey);
+    }
 
-        inputStream.close();
+    /**
+     *  Sets the maximum total size of the encoded images kept in memory for reuse.
+     *  An image file added again, to the same or to another PDF, is then
+     *  not decoded and compressed again. The default size is 32 MB.
+     *
+     *  @param maxSize the size in bytes, 0 disables the cache.
+     */
+    public static void setCacheSize(long maxSize) {
+        ImageData.setMaxCacheSize(maxSize);
     }
 
     /**
@@ -149,6 +143,8 @@ public class Image implements Drawable {
             h = png.getHeight();
             if (png.getColorType() == 0) {
                 addImageToObjects(objects, data, null, imageType, "DeviceGray", png.getBitDepth());
+            } else if (png.getColorType() == 4) {
+                addImageToObjects(objects, data, png.getAlpha(), imageType, "DeviceGray", 8);
             } else {
                 if (png.getBitDepth() == 16) {
                     addImageToObjects(objects, data, null, imageType, "DeviceRGB", 16);
@@ -210,13 +206,14 @@ public class Image implements Drawable {
             pdf.append(imageMask);
             pdf.append("\n");
         }
+        byte[] stream = obj.getStream();
         pdf.append("/Length ");
-        pdf.append(obj.stream.length);
+        pdf.append(stream.length);
         pdf.append('\n');
         pdf.append(">>\n");
-        pdf.append("stream\n");
-        pdf.append(obj.stream, 0, obj.stream.length);
-        pdf.append("\nendstream\n");
+        pdf.append(Token.stream);
+        pdf.append(stream, 0, stream.length);
+        pdf.append(Token.endstream);
         pdf.endobj();
         pdf.images.add(this);
         objNumber = pdf.getObjNumber();
@@ -459,6 +456,11 @@ public class Image implements Drawable {
             page.append("1 0 0 -1 0 0 cm\n");
         }
 
+        page.imageObjNumbers.add(objNumber);
+        if (registered != null) {
+            registered.drawnWidth = Math.max(registered.drawnWidth, w);
+            registered.drawnHeight = Math.max(registered.drawnHeight, h);
+        }
         page.append("/Im");
         page.append(objNumber);
         page.append(" Do\n");
@@ -502,177 +504,199 @@ public class Image implements Drawable {
         return this.h;
     }
 
-    private void addSoftMask(
-            PDF pdf,
-            byte[] data,
-            String colorSpace,
-            int bitsPerComponent) throws Exception {
-        pdf.newobj();
-        pdf.append("<<\n");
-        pdf.append("/Type /XObject\n");
-        pdf.append("/Subtype /Image\n");
-        pdf.append("/Filter /FlateDecode\n");
-        pdf.append("/Width ");
-        pdf.append((int) w);
-        pdf.append('\n');
-        pdf.append("/Height ");
-        pdf.append((int) h);
-        pdf.append('\n');
-        pdf.append("/ColorSpace /");
-        pdf.append(colorSpace);
-        pdf.append('\n');
-        pdf.append("/BitsPerComponent ");
-        pdf.append(bitsPerComponent);
-        pdf.append('\n');
-        pdf.append("/Length ");
-        pdf.append(data.length);
-        pdf.append('\n');
-        pdf.append(">>\n");
-        pdf.append("stream\n");
-        pdf.append(data, 0, data.length);
-        pdf.append("\nendstream\n");
-        pdf.endobj();
-        objNumber = pdf.getObjNumber();
+    // The image is written when the PDF is completed, if it is drawn on a page.
+    // An image from the same file or with the same content as an image already
+    // added to the PDF uses the objects of that image.
+    private void register(PDF pdf, ImageData data, String cacheKey) throws Exception {
+        String fileKey = "file:" + cacheKey;
+        String digest = data.getDigest();
+        Image image = pdf.imagesByDigest.get(fileKey);
+        if (image == null) {
+            image = pdf.imagesByDigest.get(digest);
+        }
+        if (image != null) {
+            this.objNumber = image.objNumber;
+            this.registered = image;
+            pdf.imagesByDigest.put(fileKey, image);
+            return;
+        }
+        if (data.alpha != null) {
+            this.maskObjNumber = pdf.reserveObjNumber();
+        }
+        this.objNumber = pdf.reserveObjNumber();
+        this.data = data;
+        this.registered = this;
+        pdf.images.add(this);
+        pdf.imagesByDigest.put(digest, this);
+        pdf.imagesByDigest.put(fileKey, this);
     }
 
-    private void addImage(
+    // The size and the soft mask are read from the image header and the objects
+    // are reserved in the same order as by register. The image data is decoded
+    // on the image executor. The same image file added again uses the objects
+    // of the first image, before or after it is decoded.
+    private void submit(
             PDF pdf,
-            byte[] data,
-            byte[] alpha,
-            int imageType,
-            String colorSpace,
-            int bitsPerComponent) throws Exception {
-        if (alpha != null) {
-            addSoftMask(pdf, alpha, "DeviceGray", bitsPerComponent);
+            final byte[] buf,
+            final String cacheKey,
+            final int imageType) throws Exception {
+        final CompressionPolicy policy = pdf.getCompressionPolicy();
+        String fileKey = "file:" + cacheKey;
+        // The same file added before may be decoded and in the cache already,
+        // so the file key is looked up first.
+        Image image = pdf.imagesByDigest.get(fileKey);
+        ImageData cached = (image == null) ? ImageData.getCachedImageData(cacheKey) : null;
+        if (cached != null) {
+            w = cached.width;
+            h = cached.height;
+            register(pdf, cached, cacheKey);
+            return;
         }
-        pdf.newobj();
-        pdf.append("<<\n");
-        pdf.append("/Type /XObject\n");
-        pdf.append("/Subtype /Image\n");
-        if (imageType == ImageType.JPG) {
-            pdf.append("/Filter /DCTDecode\n");
-        } else if (imageType == ImageType.PNG || imageType == ImageType.BMP) {
-            pdf.append("/Filter /FlateDecode\n");
-            if (alpha != null) {
-                pdf.append("/SMask ");
-                pdf.append(objNumber);
-                pdf.append(" 0 R\n");
-            }
+        int[] info = ImageData.getInfo(buf, imageType);
+        w = info[0];
+        h = info[1];
+        if (image != null) {
+            this.objNumber = image.objNumber;
+            this.registered = image;
+            return;
         }
-        pdf.append("/Width ");
-        pdf.append((int) w);
-        pdf.append('\n');
-        pdf.append("/Height ");
-        pdf.append((int) h);
-        pdf.append('\n');
-        pdf.append("/ColorSpace /");
-        pdf.append(colorSpace);
-        pdf.append('\n');
-        pdf.append("/BitsPerComponent ");
-        pdf.append(bitsPerComponent);
-        pdf.append('\n');
-        if (colorSpace.equals("DeviceCMYK")) {
-            // If the image was created with Photoshop - invert the colors:
-            pdf.append("/Decode [1.0 0.0 1.0 0.0 1.0 0.0 1.0 0.0]\n");
+        if (info[2] == 1) {
+            this.maskObjNumber = pdf.reserveObjNumber();
         }
-        pdf.append("/Length ");
-        pdf.append(data.length);
-        pdf.append('\n');
-        pdf.append(">>\n");
-        pdf.append("stream\n");
-        pdf.append(data, 0, data.length);
-        pdf.append("\nendstream\n");
-        pdf.endobj();
+        this.objNumber = pdf.reserveObjNumber();
+        FutureTask<ImageData> task = new FutureTask<ImageData>(new Callable<ImageData>() {
+            public ImageData call() throws Exception {
+                return ImageData.decode(buf, cacheKey, imageType, policy);
+            }
+        });
+        try {
+            pdf.getImageDecodingExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();     // The executor was shut down or is saturated.
+        }
+        this.pending = task;
+        this.registered = this;
         pdf.images.add(this);
-        objNumber = pdf.getObjNumber();
+        pdf.imagesByDigest.put(fileKey, this);
     }
 
-    private void addImage(PDF pdf, InputStream inputStream) throws Exception {
-        w = getInt(inputStream);            // Width
-        h = getInt(inputStream);            // Height
-        byte c = (byte) inputStream.read(); // Color Space
-        byte a = (byte) inputStream.read(); // Alpha
-
-        if (a != 0) {
-            pdf.newobj();
-            pdf.append("<<\n");
-            pdf.append("/Type /XObject\n");
-            pdf.append("/Subtype /Image\n");
-            pdf.append("/Filter /FlateDecode\n");
-            pdf.append("/Width ");
-            pdf.append(w);
-            pdf.append('\n');
-            pdf.append("/Height ");
-            pdf.append(h);
-            pdf.append('\n');
-            pdf.append("/ColorSpace /DeviceGray\n");
-            pdf.append("/BitsPerComponent 8\n");
-            int length = getInt(inputStream);
-            pdf.append("/Length ");
-            pdf.append(length);
-            pdf.append('\n');
-            pdf.append(">>\n");
-            pdf.append("stream\n");
-            byte[] buf1 = new byte[length];
-            inputStream.read(buf1, 0, length);
-            pdf.append(buf1, 0, length);
-            pdf.append("\nendstream\n");
-            pdf.endobj();
-            objNumber = pdf.getObjNumber();
+    /**
+     *  Writes the image objects reserved when the image was added to the PDF.
+     *
+     *  @param pdf the PDF.
+     *  @throws Exception  If an input or output exception occurred
+     */
+    void embed(PDF pdf) throws Exception {
+        if (pending != null) {
+            try {
+                data = pending.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw (cause instanceof Exception) ? (Exception) cause : e;
+            }
+            pending = null;
+            if (data.alpha != null && maskObjNumber == 0) {
+                maskObjNumber = pdf.reserveObjNumber();
+            }
+        }
+        if (data == null) {
+            return;
         }
+        float resolution = pdf.getImageResolution();
+        if (resolution > 0f) {
+            downsample(resolution, pdf.getImageQuality(), pdf.getCompressionPolicy());
+        }
+        int softMask = 0;
+        if (data.alpha != null) {
+            addImageObject(pdf, maskObjNumber, "DeviceGray", data.alpha, 0, true);
+            softMask = maskObjNumber;
+        }
+        addImageObject(pdf, objNumber, data.colorSpace, data.data, softMask, false);
+        data = null;    // Release the image memory!
+    }
 
-        pdf.newobj();
+    // The images are resampled to the resolution for the largest size at which they
+    // are drawn, if the number of pixels is reduced by more than half.
+    private void downsample(
+            float resolution, int quality, CompressionPolicy policy) throws Exception {
+        int width = Math.min(data.width,
+                Math.max(1, (int) Math.ceil(drawnWidth * resolution / 72f)));
+        int height = Math.min(data.height,
+                Math.max(1, (int) Math.ceil(drawnHeight * resolution / 72f)));
+        if ((double) data.width * data.height > 2.25 * width * height) {
+            ImageData downsampled = data.getDownsampled(width, height, quality, policy);
+            if (downsampled != null) {
+                data = downsampled;
+            }
+        }
+    }
+
+    private void addImageObject(
+            PDF pdf,
+            int number,
+            String colorSpace,
+            byte[] stream,
+            int softMask,
+            boolean mask) throws Exception {
+        pdf.beginReservedObject(number);
         pdf.append("<<\n");
         pdf.append("/Type /XObject\n");
         pdf.append("/Subtype /Image\n");
-        pdf.append("/Filter /FlateDecode\n");
-        if (a != 0) {
+        pdf.append("/Filter /");
+        pdf.append(mask ? "FlateDecode" : data.filter);
+        pdf.append('\n');
+        if (softMask != 0) {
             pdf.append("/SMask ");
-            pdf.append(objNumber);
+            pdf.append(softMask);
             pdf.append(" 0 R\n");
         }
         pdf.append("/Width ");
-        pdf.append(w);
+        pdf.append(data.width);
         pdf.append('\n');
         pdf.append("/Height ");
-        pdf.append(h);
+        pdf.append(data.height);
         pdf.append('\n');
-        pdf.append("/ColorSpace /");
-        if (c == 1) {
-            pdf.append("DeviceGray");
-        } else if (c == 3 || c == 6) {
-            pdf.append("DeviceRGB");
+        if (!mask && data.palette != null) {
+            pdf.append("/ColorSpace [/Indexed /");
+            pdf.append(colorSpace);
+            pdf.append(' ');
+            pdf.append(data.palette.length / 3 - 1);
+            pdf.append(" <");
+            for (byte b : data.palette) {
+                pdf.append(Character.forDigit((b >> 4) & 0x0F, 16));
+                pdf.append(Character.forDigit(b & 0x0F, 16));
+            }
+            pdf.append(">]\n");
+        } else if (colorSpace != null) {
+            pdf.append("/ColorSpace /");
+            pdf.append(colorSpace);
+            pdf.append('\n');
         }
+        pdf.append("/BitsPerComponent ");
+        pdf.append(mask ? 8 : data.bitsPerComponent);
         pdf.append('\n');
-        pdf.append("/BitsPerComponent 8\n");
+        if (!mask && data.colors != 0) {
+            // The PNG predictors are applied to the image data.
+            pdf.append("/DecodeParms << /Predictor 15 /Colors ");
+            pdf.append(data.colors);
+            pdf.append(" /BitsPerComponent ");
+            pdf.append(data.bitsPerComponent);
+            pdf.append(" /Columns ");
+            pdf.append(data.width);
+            pdf.append(" >>\n");
+        }
+        if ("DeviceCMYK".equals(colorSpace)) {
+            // If the image was created with Photoshop - invert the colors:
+            pdf.append("/Decode [1.0 0.0 1.0 0.0 1.0 0.0 1.0 0.0]\n");
+        }
         pdf.append("/Length ");
-        pdf.append(getInt(inputStream));
+        pdf.append(stream.length);
         pdf.append('\n');
         pdf.append(">>\n");
-        pdf.append("stream\n");
-        byte[] buf2 = new byte[4096];
-        int count;
-        while ((count = inputStream.read(buf2, 0, buf2.length)) > 0) {
-            pdf.append(buf2, 0, count);
-        }
-        pdf.append("\nendstream\n");
+        pdf.append(Token.stream);
+        pdf.append(stream, 0, stream.length);
+        pdf.append(Token.endstream);
         pdf.endobj();
-        pdf.images.add(this);
-        objNumber = pdf.getObjNumber();
-    }
-
-    private int getInt(InputStream inputStream) throws Exception {
-        byte[] buf = new byte[4];
-        inputStream.read(buf, 0, 4);
-        int val = 0;
-        val |= buf[0] & 0xff;
-        val <<= 8;
-        val |= buf[1] & 0xff;
-        val <<= 8;
-        val |= buf[2] & 0xff;
-        val <<= 8;
-        val |= buf[3] & 0xff;
-        return val;
     }
 
     private void addSoftMask(
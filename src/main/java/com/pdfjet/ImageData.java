@@ -0,0 +1,464 @@
+/**
+ *  ImageData.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ *  The encoded image XObject: the dimensions, the color space, the filter,
+ *  the compressed image data and the soft mask. PNG image data can be
+ *  used as is, with the PNG predictors and the palette. Images with the same
+ *  content are identified by the SHA-256 digest of the encoded image.
+ *  The instances are immutable and can be shared between threads.
+ */
+final class ImageData {
+    // The encoded images are cached by the digest of the image file,
+    // only the most recently used are kept up to this total size in bytes.
+    private static long maxCacheSize = 32L * 1024 * 1024;
+    private static long cacheSize = 0L;
+
+    private static final Map<String, ImageData> cache =
+            new LinkedHashMap<String, ImageData>(16, 0.75f, true);
+
+    final int width;
+    final int height;
+    final String filter;            // DCTDecode or FlateDecode
+    final String colorSpace;
+    final int bitsPerComponent;
+    final byte[] data;
+    final byte[] alpha;             // The compressed soft mask or null
+    final int colors;               // The PNG predictor colors or 0
+    final byte[] palette;           // The RGB palette of indexed images or null
+
+    // Guarded by this
+    private String digest;
+    private String downsampledKey;
+    private ImageData downsampled;  // The last resampled image
+    private volatile long downsampledSize;
+
+    // Guarded by cache
+    private boolean cached;
+    private long cachedSize;        // The size counted in cacheSize
+
+    ImageData(
+            int width,
+            int height,
+            String filter,
+            String colorSpace,
+            int bitsPerComponent,
+            byte[] data,
+            byte[] alpha) {
+        this(width, height, filter, colorSpace, bitsPerComponent, data, alpha, 0, null);
+    }
+
+    ImageData(
+            int width,
+            int height,
+            String filter,
+            String colorSpace,
+            int bitsPerComponent,
+            byte[] data,
+            byte[] alpha,
+            int colors,
+            byte[] palette) {
+        this.width = width;
+        this.height = height;
+        this.filter = filter;
+        this.colorSpace = colorSpace;
+        this.bitsPerComponent = bitsPerComponent;
+        this.data = data;
+        this.alpha = alpha;
+        this.colors = colors;
+        this.palette = palette;
+    }
+
+    /**
+     *  Returns the encoded image read from the input stream.
+     *  A repeated image file is decoded and compressed only once.
+     *  The input stream is closed.
+     *
+     *  @param inputStream the input stream.
+     *  @param imageType ImageType.JPG, ImageType.PNG, ImageType.BMP or ImageType.PNG_STREAM.
+     *  @param policy the compression policy for the image data.
+     *  @return the encoded image.
+     *  @throws Exception  If an input or output exception occurred
+     */
+    static ImageData get(
+            InputStream inputStream,
+            int imageType,
+            CompressionPolicy policy) throws Exception {
+        byte[] buf = Contents.getFromStream(inputStream);
+        String key = getKey(buf, imageType, policy);
+        ImageData data = getCachedImageData(key);
+        if (data == null) {
+            data = decode(buf, key, imageType, policy);
+        }
+        return data;
+    }
+
+    /**
+     *  Returns the cache key of the image file.
+     *
+     *  @param buf the image file.
+     *  @param imageType ImageType.JPG, ImageType.PNG, ImageType.BMP or ImageType.PNG_STREAM.
+     *  @param policy the compression policy for the image data.
+     *  @return the key.
+     *  @throws NoSuchAlgorithmException  If SHA-256 is not available
+     */
+    static String getKey(
+            byte[] buf,
+            int imageType,
+            CompressionPolicy policy) throws NoSuchAlgorithmException {
+        return imageType + ":" +
+                policy.getLevel(CompressionPolicy.IMAGES) + ":" +
+                policy.getStrategy(CompressionPolicy.IMAGES) + ":" +
+                policy.isExhaustive(CompressionPolicy.IMAGES) + ":" + toHex(
+                        MessageDigest.getInstance("SHA-256").digest(buf));
+    }
+
+    /**
+     *  Decodes and compresses the image file and adds the result to the cache.
+     *  This method can be called on any thread.
+     *
+     *  @param buf the image file.
+     *  @param key the cache key of the image file.
+     *  @param imageType ImageType.JPG, ImageType.PNG, ImageType.BMP or ImageType.PNG_STREAM.
+     *  @param policy the compression policy for the image data.
+     *  @return the encoded image.
+     *  @throws Exception  If the image data is invalid.
+     */
+    static ImageData decode(
+            byte[] buf,
+            String key,
+            int imageType,
+            CompressionPolicy policy) throws Exception {
+        ImageData data = decode(new ByteArrayInputStream(buf), imageType, policy);
+        putCachedImageData(key, data);
+        return data;
+    }
+
+    /**
+     *  Reads the size of the image and whether the image has a soft mask
+     *  from the header of the image file, without decoding the image.
+     *
+     *  @param buf the image file.
+     *  @param imageType ImageType.JPG, ImageType.PNG, ImageType.BMP or ImageType.PNG_STREAM.
+     *  @return the width, the height and 1 if the image has a soft mask, 0 otherwise.
+     *  @throws Exception  If the image header is invalid.
+     */
+    static int[] getInfo(byte[] buf, int imageType) throws Exception {
+        if (imageType == ImageType.JPG) {
+            JPGImage jpg = new JPGImage(new ByteArrayInputStream(buf));
+            return new int[] {jpg.getWidth(), jpg.getHeight(), 0};
+        } else if (imageType == ImageType.PNG) {
+            if (buf.length < 33 || (buf[0] & 0xff) != 0x89 ||
+                    buf[1] != 'P' || buf[2] != 'N' || buf[3] != 'G') {
+                throw new Exception("Wrong PNG signature.");
+            }
+            // The IHDR chunk is first, the tRNS chunk precedes the IDAT chunks.
+            int colorType = buf[25];
+            boolean tRNS = false;
+            int off = 8;
+            while (off + 8 <= buf.length) {
+                String type = new String(buf, off + 4, 4, "ISO-8859-1");
+                if (type.equals("IDAT")) {
+                    break;
+                } else if (type.equals("tRNS")) {
+                    tRNS = true;
+                }
+                off += 12 + getInt(buf, off);
+            }
+            boolean alpha = colorType == 4 || colorType == 6 || (colorType == 3 && tRNS);
+            return new int[] {getInt(buf, 16), getInt(buf, 20), alpha ? 1 : 0};
+        } else if (imageType == ImageType.BMP) {
+            if (buf.length < 26) {
+                throw new Exception("BMP data could not be parsed!");
+            }
+            return new int[] {getIntLE(buf, 18), getIntLE(buf, 22), 0};
+        } else if (imageType == ImageType.PNG_STREAM) {
+            if (buf.length < 10) {
+                throw new EOFException("Unexpected end of the image stream.");
+            }
+            return new int[] {getInt(buf, 0), getInt(buf, 4), (buf[9] != 0) ? 1 : 0};
+        }
+        throw new Exception("Unsupported image type == " + imageType);
+    }
+
+    private static int getInt(byte[] buf, int off) {
+        return (buf[off] & 0xff) << 24 |
+                (buf[off + 1] & 0xff) << 16 |
+                (buf[off + 2] & 0xff) << 8 |
+                (buf[off + 3] & 0xff);
+    }
+
+    private static int getIntLE(byte[] buf, int off) {
+        return (buf[off + 3] & 0xff) << 24 |
+                (buf[off + 2] & 0xff) << 16 |
+                (buf[off + 1] & 0xff) << 8 |
+                (buf[off] & 0xff);
+    }
+
+    /**
+     *  Sets the maximum total size of the cached images.
+     *
+     *  @param maxSize the size in bytes, 0 disables the cache.
+     */
+    static void setMaxCacheSize(long maxSize) {
+        synchronized (cache) {
+            maxCacheSize = maxSize;
+            evict();
+        }
+    }
+
+    static long getMaxCacheSize() {
+        synchronized (cache) {
+            return maxCacheSize;
+        }
+    }
+
+    static ImageData getCachedImageData(String key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    private static void putCachedImageData(String key, ImageData data) {
+        synchronized (cache) {
+            if (data.size() > maxCacheSize) {
+                return;
+            }
+            ImageData previous = cache.put(key, data);
+            if (previous != null) {
+                cacheSize -= previous.cachedSize;
+                previous.cached = false;
+            }
+            data.cached = true;
+            data.cachedSize = data.size();
+            cacheSize += data.cachedSize;
+            evict();
+        }
+    }
+
+    // Removes the least recently used images.
+    private static void evict() {
+        Iterator<ImageData> iterator = cache.values().iterator();
+        while (cacheSize > maxCacheSize && iterator.hasNext()) {
+            ImageData data = iterator.next();
+            cacheSize -= data.cachedSize;
+            data.cached = false;
+            iterator.remove();
+        }
+    }
+
+    // Counts the resampled copy of a cached image in the size of the cache.
+    private void updateCacheSize() {
+        synchronized (cache) {
+            if (cached) {
+                long size = size();
+                cacheSize += size - cachedSize;
+                cachedSize = size;
+                evict();
+            }
+        }
+    }
+
+    private static ImageData decode(
+            InputStream inputStream,
+            int imageType,
+            CompressionPolicy policy) throws Exception {
+        if (imageType == ImageType.JPG) {
+            JPGImage jpg = new JPGImage(inputStream);
+            String colorSpace = null;
+            if (jpg.getColorComponents() == 1) {
+                colorSpace = "DeviceGray";
+            } else if (jpg.getColorComponents() == 3) {
+                colorSpace = "DeviceRGB";
+            } else if (jpg.getColorComponents() == 4) {
+                colorSpace = "DeviceCMYK";
+            }
+            return new ImageData(jpg.getWidth(), jpg.getHeight(),
+                    "DCTDecode", colorSpace, 8, jpg.getData(), null);
+        } else if (imageType == ImageType.PNG) {
+            PNGImage png = new PNGImage(inputStream, policy, true);
+            if (png.isPredicted()) {
+                String colorSpace = (png.getColorType() == 0) ? "DeviceGray" : "DeviceRGB";
+                return new ImageData(png.getWidth(), png.getHeight(),
+                        "FlateDecode", colorSpace, png.getBitDepth(),
+                        png.getData(), null, png.getColors(), png.getPalette());
+            } else if (png.getColorType() == 0) {
+                return new ImageData(png.getWidth(), png.getHeight(),
+                        "FlateDecode", "DeviceGray", png.getBitDepth(), png.getData(), null);
+            } else if (png.getColorType() == 4) {
+                return new ImageData(png.getWidth(), png.getHeight(),
+                        "FlateDecode", "DeviceGray", 8, png.getData(), png.getAlpha());
+            } else if (png.getBitDepth() == 16) {
+                return new ImageData(png.getWidth(), png.getHeight(),
+                        "FlateDecode", "DeviceRGB", 16, png.getData(), null);
+            }
+            return new ImageData(png.getWidth(), png.getHeight(),
+                    "FlateDecode", "DeviceRGB", 8, png.getData(), png.getAlpha());
+        } else if (imageType == ImageType.BMP) {
+            BMPImage bmp = new BMPImage(inputStream, policy);
+            return new ImageData(bmp.getWidth(), bmp.getHeight(),
+                    "FlateDecode", "DeviceRGB", 8, bmp.getData(), null);
+        } else if (imageType == ImageType.PNG_STREAM) {
+            return decodeStream(inputStream);
+        }
+        throw new Exception("Unsupported image type == " + imageType);
+    }
+
+    // The .png.stream images are created by OptimizePNG.
+    private static ImageData decodeStream(InputStream inputStream) throws Exception {
+        int w = getInt(inputStream);            // Width
+        int h = getInt(inputStream);            // Height
+        byte c = (byte) inputStream.read();     // Color Space
+        byte a = (byte) inputStream.read();     // Alpha
+
+        byte[] alpha = null;
+        if (a != 0) {
+            alpha = new byte[getInt(inputStream)];
+            readFully(inputStream, alpha);
+        }
+        byte[] data = new byte[getInt(inputStream)];
+        readFully(inputStream, data);
+
+        String colorSpace = null;
+        if (c == 1) {
+            colorSpace = "DeviceGray";
+        } else if (c == 3 || c == 6) {
+            colorSpace = "DeviceRGB";
+        }
+        return new ImageData(w, h, "FlateDecode", colorSpace, 8, data, alpha);
+    }
+
+    private static void readFully(InputStream inputStream, byte[] buf) throws Exception {
+        int off = 0;
+        while (off < buf.length) {
+            int count = inputStream.read(buf, off, buf.length - off);
+            if (count == -1) {
+                throw new EOFException("Unexpected end of the image stream.");
+            }
+            off += count;
+        }
+    }
+
+    private static int getInt(InputStream inputStream) throws Exception {
+        byte[] buf = new byte[4];
+        readFully(inputStream, buf);
+        int val = 0;
+        val |= buf[0] & 0xff;
+        val <<= 8;
+        val |= buf[1] & 0xff;
+        val <<= 8;
+        val |= buf[2] & 0xff;
+        val <<= 8;
+        val |= buf[3] & 0xff;
+        return val;
+    }
+
+    // The memory used by the cached image, including its resampled copy.
+    private long size() {
+        return data.length +
+                ((alpha != null) ? alpha.length : 0) +
+                ((palette != null) ? palette.length : 0) +
+                downsampledSize;
+    }
+
+    /**
+     *  Returns the image resampled to the specified size. The last result is kept,
+     *  so the image drawn at the same size in several documents is resampled once.
+     *
+     *  @param width the new width.
+     *  @param height the new height.
+     *  @param quality the JPEG quality for photos, or 0 to use Flate for all images.
+     *  @param policy the compression policy for the Flate encoded images.
+     *  @return the resampled image or null if the image can't be resampled.
+     *  @throws Exception  If the image data is invalid.
+     */
+    ImageData getDownsampled(
+            int width,
+            int height,
+            int quality,
+            CompressionPolicy policy) throws Exception {
+        String key = width + " " + height + " " + quality + " " +
+                policy.getLevel(CompressionPolicy.IMAGES) + " " +
+                policy.getStrategy(CompressionPolicy.IMAGES) + " " +
+                policy.isExhaustive(CompressionPolicy.IMAGES);
+        ImageData image;
+        boolean resampled = false;
+        synchronized (this) {
+            if (!key.equals(downsampledKey)) {
+                downsampled = ImageDownsampler.downsample(this, width, height, quality, policy);
+                downsampledKey = key;
+                downsampledSize = (downsampled != null) ? downsampled.size() : 0L;
+                resampled = true;
+            }
+            image = downsampled;
+        }
+        // The cache lock is never taken while holding the lock of an image.
+        if (resampled) {
+            updateCacheSize();
+        }
+        return image;
+    }
+
+    /**
+     *  Returns the digest of the encoded image, including the image dictionary.
+     *
+     *  @return the digest as a hex string.
+     *  @throws NoSuchAlgorithmException  If SHA-256 is not available
+     */
+    synchronized String getDigest() throws NoSuchAlgorithmException {
+        if (digest == null) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            String dict = width + " " + height + " " + filter + " " + colorSpace + " " +
+                    bitsPerComponent + " " + data.length + " " +
+                    ((alpha != null) ? alpha.length : -1) + " " + colors + " " +
+                    ((palette != null) ? palette.length : -1) + "\n";
+            for (int i = 0; i < dict.length(); i++) {
+                md.update((byte) dict.charAt(i));
+            }
+            md.update(data);
+            if (alpha != null) {
+                md.update(alpha);
+            }
+            if (palette != null) {
+                md.update(palette);
+            }
+            digest = toHex(md.digest());
+        }
+        return digest;
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0x0F, 16));
+            sb.append(Character.forDigit(b & 0x0F, 16));
+        }
+        return sb.toString();
+    }
+}
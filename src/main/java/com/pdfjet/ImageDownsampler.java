@@ -0,0 +1,234 @@
+/**
+ *  ImageDownsampler.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ *  Resamples the Flate encoded images to a lower resolution by averaging
+ *  the pixels covered by each new pixel. The images are read and written
+ *  one row at a time. Photos can be encoded with JPEG, the line art,
+ *  indexed images and images with fewer than 8 bits per component, with Flate.
+ *  JPEG images are not resampled because there is no JPEG decoder here.
+ */
+final class ImageDownsampler {
+
+    private ImageDownsampler() {
+    }
+
+    /**
+     *  Returns the image resampled to the specified size.
+     *
+     *  @param data the image.
+     *  @param width the new width, not more than the image width.
+     *  @param height the new height, not more than the image height.
+     *  @param quality the JPEG quality for photos, or 0 to use Flate for all images.
+     *  @param policy the compression policy for the Flate encoded images.
+     *  @return the resampled image or null if the image can't be resampled.
+     *  @throws Exception  If the image data is invalid.
+     */
+    static ImageData downsample(
+            ImageData data,
+            int width,
+            int height,
+            int quality,
+            CompressionPolicy policy) throws Exception {
+        if (!"FlateDecode".equals(data.filter)) {
+            return null;
+        }
+        int channels;
+        if (data.palette != null || "DeviceRGB".equals(data.colorSpace)) {
+            channels = 3;
+        } else if ("DeviceGray".equals(data.colorSpace)) {
+            channels = 1;
+        } else {
+            return null;
+        }
+        if (data.colors == 0 && data.bitsPerComponent != 8) {
+            return null;
+        }
+
+        boolean photo = quality > 0 && data.palette == null && data.bitsPerComponent >= 8;
+        Rows image = new Rows(data.data, data.width, channels,
+                data.colors, data.bitsPerComponent, data.palette);
+        byte[] imageData;
+        if (photo) {
+            JPGEncoder encoder = new JPGEncoder(width, height, channels, quality);
+            resample(image, data.width, data.height, channels, width, height, null, encoder);
+            imageData = encoder.finish();
+        } else {
+            StreamCompressor compressor =
+                    new StreamCompressor(policy, CompressionPolicy.IMAGES);
+            resample(image, data.width, data.height, channels, width, height, compressor, null);
+            imageData = compressor.finish();
+        }
+
+        byte[] alphaData = null;
+        if (data.alpha != null) {
+            Rows alpha = new Rows(data.alpha, data.width, 1, 0, 8, null);
+            StreamCompressor compressor =
+                    new StreamCompressor(policy, CompressionPolicy.IMAGES);
+            resample(alpha, data.width, data.height, 1, width, height, compressor, null);
+            alphaData = compressor.finish();
+        }
+
+        return new ImageData(width, height, photo ? "DCTDecode" : "FlateDecode",
+                (channels == 3) ? "DeviceRGB" : "DeviceGray", 8, imageData, alphaData);
+    }
+
+    // Each new pixel is the average of the pixels whose top left corner
+    // is inside the area of the new pixel.
+    private static void resample(
+            Rows rows,
+            int srcWidth,
+            int srcHeight,
+            int channels,
+            int width,
+            int height,
+            StreamCompressor compressor,
+            JPGEncoder encoder) throws Exception {
+        int[] column = new int[srcWidth];   // The new column of each column
+        int[] count = new int[width];       // The number of columns in each new column
+        for (int x = 0; x < srcWidth; x++) {
+            column[x] = (int) ((long) x * width / srcWidth);
+            count[column[x]]++;
+        }
+        int[] sum = new int[width * channels];
+        byte[] row = new byte[width * channels];
+        int srcY = 0;
+        for (int y = 0; y < height; y++) {
+            int nextY = (int) ((long) (y + 1) * srcHeight / height);
+            int rowCount = nextY - srcY;
+            Arrays.fill(sum, 0);
+            for (; srcY < nextY; srcY++) {
+                byte[] samples = rows.next();
+                int i = 0;
+                for (int x = 0; x < srcWidth; x++) {
+                    int j = column[x] * channels;
+                    for (int c = 0; c < channels; c++) {
+                        sum[j + c] += samples[i++] & 0xff;
+                    }
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                int n = count[x] * rowCount;
+                for (int c = 0; c < channels; c++) {
+                    int j = x * channels + c;
+                    row[j] = (byte) ((sum[j] + n / 2) / n);
+                }
+            }
+            if (encoder != null) {
+                encoder.write(row, 0, row.length);
+            } else {
+                compressor.write(row, 0, row.length);
+            }
+        }
+    }
+
+    // Reads the rows of the image as 8-bit gray or RGB samples.
+    private static final class Rows {
+        private final InputStream stream;
+        private final int width;
+        private final int colors;           // The PNG predictor colors or 0
+        private final int bitsPerComponent;
+        private final byte[] palette;
+        private final byte[] samples;
+        private byte[] row;
+        private byte[] prevRow;
+        private final int bytesPerPixel;
+
+        Rows(byte[] data,
+                int width,
+                int channels,
+                int colors,
+                int bitsPerComponent,
+                byte[] palette) {
+            this.stream = new InflaterInputStream(new ByteArrayInputStream(data));
+            this.width = width;
+            this.colors = colors;
+            this.bitsPerComponent = bitsPerComponent;
+            this.palette = palette;
+            this.samples = new byte[width * channels];
+            if (colors != 0) {
+                int bytesPerRow = (int) (((long) width * colors * bitsPerComponent + 7) / 8);
+                this.row = new byte[1 + bytesPerRow];
+                this.prevRow = new byte[1 + bytesPerRow];
+            }
+            this.bytesPerPixel = Math.max(1, colors * bitsPerComponent / 8);
+        }
+
+        byte[] next() throws Exception {
+            if (colors == 0) {
+                readFully(samples);
+                return samples;
+            }
+
+            readFully(row);
+            PNGImage.applyFilter(row, prevRow, bytesPerPixel);
+            if (bitsPerComponent == 16) {
+                // The most significant byte of each sample.
+                for (int i = 0; i < samples.length; i++) {
+                    samples[i] = row[1 + 2*i];
+                }
+            } else if (bitsPerComponent == 8 && palette == null) {
+                System.arraycopy(row, 1, samples, 0, samples.length);
+            } else {
+                int max = (1 << bitsPerComponent) - 1;
+                for (int x = 0; x < width; x++) {
+                    int bit = x * bitsPerComponent;
+                    int k = ((row[1 + (bit >> 3)] & 0xff) >>
+                            (8 - bitsPerComponent - (bit & 7))) & max;
+                    if (palette == null) {
+                        samples[x] = (byte) (k * 255 / max);
+                    } else if (3*k + 2 < palette.length) {
+                        samples[3*x] = palette[3*k];
+                        samples[3*x + 1] = palette[3*k + 1];
+                        samples[3*x + 2] = palette[3*k + 2];
+                    } else {
+                        samples[3*x] = 0;
+                        samples[3*x + 1] = 0;
+                        samples[3*x + 2] = 0;
+                    }
+                }
+            }
+            byte[] temp = prevRow;
+            prevRow = row;
+            row = temp;
+            return samples;
+        }
+
+        private void readFully(byte[] buf) throws Exception {
+            int off = 0;
+            while (off < buf.length) {
+                int count = stream.read(buf, off, buf.length - off);
+                if (count == -1) {
+                    throw new EOFException("Unexpected end of the image data.");
+                }
+                off += count;
+            }
+        }
+    }
+}   // End of ImageDownsampler.java
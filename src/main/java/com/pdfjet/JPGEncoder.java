@@ -0,0 +1,472 @@
+/**
+ *  JPGEncoder.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.io.*;
+
+/**
+ *  Baseline JPEG encoder for 8-bit grayscale and RGB images.
+ *  The image is written one row at a time and only one row of
+ *  8x8 blocks, 16 rows for color images, is held in memory.
+ *  The color images are encoded as YCbCr with 4:2:0 chroma subsampling,
+ *  using the quantization and the Huffman tables from Annex K of the JPEG standard.
+ */
+final class JPGEncoder {
+    // The natural order index of the coefficients in zigzag order.
+    private static final int[] ZIGZAG = {
+         0,  1,  8, 16,  9,  2,  3, 10, 17, 24, 32, 25, 18, 11,  4,  5,
+        12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13,  6,  7, 14, 21, 28,
+        35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+        58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    private static final int[] LUMINANCE_QUANTIZATION = {
+        16, 11, 10, 16,  24,  40,  51,  61,
+        12, 12, 14, 19,  26,  58,  60,  55,
+        14, 13, 16, 24,  40,  57,  69,  56,
+        14, 17, 22, 29,  51,  87,  80,  62,
+        18, 22, 37, 56,  68, 109, 103,  77,
+        24, 35, 55, 64,  81, 104, 113,  92,
+        49, 64, 78, 87, 103, 121, 120, 101,
+        72, 92, 95, 98, 112, 100, 103,  99
+    };
+
+    private static final int[] CHROMINANCE_QUANTIZATION = {
+        17, 18, 24, 47, 99, 99, 99, 99,
+        18, 21, 26, 66, 99, 99, 99, 99,
+        24, 26, 56, 99, 99, 99, 99, 99,
+        47, 66, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99,
+        99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    private static final int[] DC_LUMINANCE_BITS = {
+        0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static final int[] DC_CHROMINANCE_BITS = {
+        0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0
+    };
+
+    private static final int[] DC_VALUES = {
+        0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11
+    };
+
+    private static final int[] AC_LUMINANCE_BITS = {
+        0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d
+    };
+
+    private static final int[] AC_LUMINANCE_VALUES = {
+        0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+        0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+        0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+        0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+        0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+        0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+        0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+        0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+        0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+        0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+        0xf9, 0xfa
+    };
+
+    private static final int[] AC_CHROMINANCE_BITS = {
+        0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77
+    };
+
+    private static final int[] AC_CHROMINANCE_VALUES = {
+        0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+        0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+        0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+        0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+        0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+        0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+        0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+        0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+        0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+        0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+        0xf9, 0xfa
+    };
+
+    // The DCT basis: COS[u * 8 + x] = C(u) / 2 * cos((2x + 1) * u * PI / 16)
+    private static final float[] COS = new float[64];
+    static {
+        for (int u = 0; u < 8; u++) {
+            double c = (u == 0) ? Math.sqrt(0.5) : 1.0;
+            for (int x = 0; x < 8; x++) {
+                COS[u*8 + x] = (float) (c / 2.0 * Math.cos((2*x + 1) * u * Math.PI / 16.0));
+            }
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int components;       // 1 for grayscale, 3 for RGB
+    private final int mcuSize;          // 8 for grayscale, 16 for color
+
+    private final int[][] quantization = new int[2][64];
+    private final int[][] dcCodes = new int[2][];
+    private final int[][] dcSizes = new int[2][];
+    private final int[][] acCodes = new int[2][];
+    private final int[][] acSizes = new int[2][];
+
+    private final byte[][] rows;        // The rows of the current row of MCUs
+    private int rowCount;
+    private int encodedRows;
+    private final int[] lastDC = new int[3];
+
+    private final float[] block = new float[64];
+    private final float[] temp = new float[64];
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private int bitBuffer;
+    private int bitCount;
+
+    /**
+     *  Creates a JPEG encoder and writes the JPEG headers.
+     *
+     *  @param width the image width.
+     *  @param height the image height.
+     *  @param components 1 for grayscale, 3 for RGB images.
+     *  @param quality the quality between 1 and 100.
+     */
+    JPGEncoder(int width, int height, int components, int quality) {
+        if (components != 1 && components != 3) {
+            throw new IllegalArgumentException("Unsupported number of components: " + components);
+        }
+        if (width < 1 || height < 1 || width > 0xFFFF || height > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid image size.");
+        }
+        this.width = width;
+        this.height = height;
+        this.components = components;
+        this.mcuSize = (components == 1) ? 8 : 16;
+        this.rows = new byte[mcuSize][width * components];
+
+        quality = Math.max(1, Math.min(100, quality));
+        int scale = (quality < 50) ? 5000 / quality : 200 - 2 * quality;
+        for (int i = 0; i < 64; i++) {
+            quantization[0][i] = Math.max(1, Math.min(255,
+                    (LUMINANCE_QUANTIZATION[i] * scale + 50) / 100));
+            quantization[1][i] = Math.max(1, Math.min(255,
+                    (CHROMINANCE_QUANTIZATION[i] * scale + 50) / 100));
+        }
+        buildCodes(DC_LUMINANCE_BITS, DC_VALUES, 0, dcCodes, dcSizes);
+        buildCodes(DC_CHROMINANCE_BITS, DC_VALUES, 1, dcCodes, dcSizes);
+        buildCodes(AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES, 0, acCodes, acSizes);
+        buildCodes(AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES, 1, acCodes, acSizes);
+
+        writeHeaders();
+    }
+
+    /**
+     *  Encodes the next row of the image.
+     *
+     *  @param row the gray or the RGB samples.
+     *  @param off the offset of the row in the array.
+     *  @param len the length of the row, width * components.
+     */
+    void write(byte[] row, int off, int len) {
+        if (len != width * components) {
+            throw new IllegalArgumentException("Invalid row length: " + len);
+        }
+        System.arraycopy(row, off, rows[rowCount++], 0, len);
+        if (rowCount == mcuSize) {
+            encodeRowOfMCUs();
+        }
+    }
+
+    /**
+     *  Encodes the remaining rows and writes the end of the image.
+     *
+     *  @return the JPEG data.
+     */
+    byte[] finish() {
+        if (rowCount > 0) {
+            encodeRowOfMCUs();
+        }
+        if (encodedRows < height) {
+            throw new IllegalStateException("The image has " + encodedRows + " rows.");
+        }
+        if (bitCount > 0) {
+            // Pad the last byte with 1 bits.
+            writeBits(0xFF, 8 - bitCount);
+        }
+        writeMarker(0xD9);  // EOI
+        return out.toByteArray();
+    }
+
+    private static void buildCodes(
+            int[] bits, int[] values, int table, int[][] codes, int[][] sizes) {
+        codes[table] = new int[256];
+        sizes[table] = new int[256];
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= 16; length++) {
+            for (int i = 0; i < bits[length - 1]; i++) {
+                codes[table][values[k]] = code;
+                sizes[table][values[k]] = length;
+                code++;
+                k++;
+            }
+            code <<= 1;
+        }
+    }
+
+    private void writeHeaders() {
+        writeMarker(0xD8);  // SOI
+
+        int tables = (components == 1) ? 1 : 2;
+        writeMarker(0xDB);  // DQT
+        writeShort(2 + 65 * tables);
+        for (int t = 0; t < tables; t++) {
+            out.write(t);
+            for (int i = 0; i < 64; i++) {
+                out.write(quantization[t][ZIGZAG[i]]);
+            }
+        }
+
+        writeMarker(0xC0);  // SOF0
+        writeShort(8 + 3 * components);
+        out.write(8);
+        writeShort(height);
+        writeShort(width);
+        out.write(components);
+        if (components == 1) {
+            writeComponent(1, 0x11, 0);
+        } else {
+            writeComponent(1, 0x22, 0);
+            writeComponent(2, 0x11, 1);
+            writeComponent(3, 0x11, 1);
+        }
+
+        writeMarker(0xC4);  // DHT
+        int length = 2 + 2 * (17 + 12) + 17 + AC_LUMINANCE_VALUES.length;
+        if (components == 3) {
+            length += 17 + AC_CHROMINANCE_VALUES.length;
+        }
+        writeShort(length);
+        writeHuffmanTable(0x00, DC_LUMINANCE_BITS, DC_VALUES);
+        writeHuffmanTable(0x10, AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+        writeHuffmanTable(0x01, DC_CHROMINANCE_BITS, DC_VALUES);
+        if (components == 3) {
+            writeHuffmanTable(0x11, AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+        }
+
+        writeMarker(0xDA);  // SOS
+        writeShort(6 + 2 * components);
+        out.write(components);
+        out.write(1);
+        out.write(0x00);
+        if (components == 3) {
+            out.write(2);
+            out.write(0x11);
+            out.write(3);
+            out.write(0x11);
+        }
+        out.write(0);       // Spectral selection start
+        out.write(63);      // Spectral selection end
+        out.write(0);       // Successive approximation
+    }
+
+    private void writeComponent(int id, int sampling, int table) {
+        out.write(id);
+        out.write(sampling);
+        out.write(table);
+    }
+
+    private void writeHuffmanTable(int id, int[] bits, int[] values) {
+        out.write(id);
+        for (int b : bits) {
+            out.write(b);
+        }
+        for (int v : values) {
+            out.write(v);
+        }
+    }
+
+    private void writeMarker(int marker) {
+        out.write(0xFF);
+        out.write(marker);
+    }
+
+    private void writeShort(int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    // The rows below the image are copies of the last row.
+    private void encodeRowOfMCUs() {
+        int rowsInImage = rowCount;
+        for (int i = rowCount; i < mcuSize; i++) {
+            System.arraycopy(rows[rowCount - 1], 0, rows[i], 0, rows[i].length);
+        }
+        for (int mcu = 0; mcu < width; mcu += mcuSize) {
+            if (components == 1) {
+                loadGrayBlock(mcu, 0);
+                encodeBlock(0, 0);
+            } else {
+                for (int y = 0; y < 16; y += 8) {
+                    for (int x = 0; x < 16; x += 8) {
+                        loadLuminanceBlock(mcu + x, y);
+                        encodeBlock(0, 0);
+                    }
+                }
+                loadChrominanceBlock(mcu, 1);
+                encodeBlock(1, 1);
+                loadChrominanceBlock(mcu, 2);
+                encodeBlock(2, 1);
+            }
+        }
+        encodedRows += rowsInImage;
+        rowCount = 0;
+    }
+
+    // The columns right of the image are copies of the last column.
+    private int column(int x) {
+        return Math.min(x, width - 1);
+    }
+
+    private void loadGrayBlock(int x0, int y0) {
+        for (int y = 0; y < 8; y++) {
+            byte[] row = rows[y0 + y];
+            for (int x = 0; x < 8; x++) {
+                block[y*8 + x] = (row[column(x0 + x)] & 0xff) - 128f;
+            }
+        }
+    }
+
+    private void loadLuminanceBlock(int x0, int y0) {
+        for (int y = 0; y < 8; y++) {
+            byte[] row = rows[y0 + y];
+            for (int x = 0; x < 8; x++) {
+                int i = 3 * column(x0 + x);
+                block[y*8 + x] = 0.299f * (row[i] & 0xff) +
+                        0.587f * (row[i + 1] & 0xff) +
+                        0.114f * (row[i + 2] & 0xff) - 128f;
+            }
+        }
+    }
+
+    // Each chrominance sample is the average of 2x2 pixels.
+    private void loadChrominanceBlock(int x0, int component) {
+        for (int y = 0; y < 8; y++) {
+            byte[] row1 = rows[2*y];
+            byte[] row2 = rows[2*y + 1];
+            for (int x = 0; x < 8; x++) {
+                int i = 3 * column(x0 + 2*x);
+                int j = 3 * column(x0 + 2*x + 1);
+                float r = ((row1[i] & 0xff) + (row1[j] & 0xff) +
+                        (row2[i] & 0xff) + (row2[j] & 0xff)) / 4f;
+                float g = ((row1[i + 1] & 0xff) + (row1[j + 1] & 0xff) +
+                        (row2[i + 1] & 0xff) + (row2[j + 1] & 0xff)) / 4f;
+                float b = ((row1[i + 2] & 0xff) + (row1[j + 2] & 0xff) +
+                        (row2[i + 2] & 0xff) + (row2[j + 2] & 0xff)) / 4f;
+                if (component == 1) {
+                    block[y*8 + x] = -0.168736f * r - 0.331264f * g + 0.5f * b;
+                } else {
+                    block[y*8 + x] = 0.5f * r - 0.418688f * g - 0.081312f * b;
+                }
+            }
+        }
+    }
+
+    private void encodeBlock(int component, int table) {
+        // The forward DCT, first the rows and then the columns.
+        for (int y = 0; y < 8; y++) {
+            for (int u = 0; u < 8; u++) {
+                float sum = 0f;
+                for (int x = 0; x < 8; x++) {
+                    sum += COS[u*8 + x] * block[y*8 + x];
+                }
+                temp[y*8 + u] = sum;
+            }
+        }
+        for (int u = 0; u < 8; u++) {
+            for (int v = 0; v < 8; v++) {
+                float sum = 0f;
+                for (int y = 0; y < 8; y++) {
+                    sum += COS[v*8 + y] * temp[y*8 + u];
+                }
+                block[v*8 + u] = sum;
+            }
+        }
+
+        int[] q = quantization[table];
+        int dc = Math.round(block[0] / q[0]);
+        int diff = dc - lastDC[component];
+        lastDC[component] = dc;
+        int size = bitLength(diff);
+        writeBits(dcCodes[table][size], dcSizes[table][size]);
+        writeValue(diff, size);
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int i = ZIGZAG[k];
+            int ac = Math.round(block[i] / q[i]);
+            if (ac == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                writeBits(acCodes[table][0xF0], acSizes[table][0xF0]);     // ZRL
+                run -= 16;
+            }
+            size = bitLength(ac);
+            int symbol = (run << 4) | size;
+            writeBits(acCodes[table][symbol], acSizes[table][symbol]);
+            writeValue(ac, size);
+            run = 0;
+        }
+        if (run > 0) {
+            writeBits(acCodes[table][0x00], acSizes[table][0x00]);         // EOB
+        }
+    }
+
+    private static int bitLength(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    // Negative values are written as value - 1 in size bits.
+    private void writeValue(int value, int size) {
+        if (size > 0) {
+            writeBits((value < 0) ? value - 1 : value, size);
+        }
+    }
+
+    private void writeBits(int bits, int size) {
+        bitBuffer = (bitBuffer << size) | (bits & ((1 << size) - 1));
+        bitCount += size;
+        while (bitCount >= 8) {
+            int b = (bitBuffer >> (bitCount - 8)) & 0xFF;
+            out.write(b);
+            if (b == 0xFF) {
+                out.write(0);   // Byte stuffing
+            }
+            bitCount -= 8;
+        }
+    }
+}   // End of JPGEncoder.java
@@ -0,0 +1,107 @@
+/**
+ *  KernTable.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.util.*;
+
+/**
+ *  The kerning pairs of a core font in an open addressing hash table.
+ *  The AFM metrics list the pairs of each character in a row that has to be
+ *  scanned for every character pair, this table finds the kerning with one
+ *  or two probes. The table is built once for each core font and shared.
+ */
+final class KernTable {
+    private static final Map<int[][], KernTable> tables = new IdentityHashMap<>();
+
+    private final int[] keys;           // (c1 << 8) | c2, zero marks an empty slot
+    private final short[] values;
+    private final int shift;
+    private final int mask;
+
+    /**
+     *  Returns the kerning table for the specified core font metrics.
+     *
+     *  @param metrics the core font metrics.
+     *  @return the kerning table.
+     */
+    static synchronized KernTable of(int[][] metrics) {
+        KernTable table = tables.get(metrics);
+        if (table == null) {
+            table = new KernTable(metrics);
+            tables.put(metrics, table);
+        }
+        return table;
+    }
+
+    private KernTable(int[][] metrics) {
+        int count = 0;
+        for (int[] row : metrics) {
+            count += (row.length - 2) / 2;
+        }
+        int bits = 4;
+        while ((1 << bits) < 2 * count) {
+            bits++;
+        }
+        this.keys = new int[1 << bits];
+        this.values = new short[1 << bits];
+        this.shift = 32 - bits;
+        this.mask = (1 << bits) - 1;
+        for (int[] row : metrics) {
+            for (int j = 2; j < row.length; j += 2) {
+                int key = (row[0] << 8) | row[j];
+                int slot = slot(key);
+                while (keys[slot] != 0 && keys[slot] != key) {
+                    slot = (slot + 1) & mask;
+                }
+                if (keys[slot] == 0) {  // The first pair wins, like the row scan.
+                    keys[slot] = key;
+                    values[slot] = (short) row[j + 1];
+                }
+            }
+        }
+    }
+
+    private int slot(int key) {
+        return (key * 0x9E3779B1) >>> shift;
+    }
+
+    /**
+     *  Returns the kerning for the specified character pair.
+     *
+     *  @param c1 the first character.
+     *  @param c2 the second character.
+     *  @return the kerning in font units or zero if the pair is not kerned.
+     */
+    int get(int c1, int c2) {
+        int key = (c1 << 8) | c2;
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ *  Lexer.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.util.Arrays;
+
+/**
+ *  Splits a PDF object into typed tokens without creating any Strings.
+ *  Scanning stops after the "endobj", "stream" or "startxref" keyword.
+ *  See section 7.2 in PDF32000_2008.pdf
+ */
+final class Lexer {
+    private final ChunkedBuffer buf;
+    private final long start;
+    private final long end;
+    private long pos;
+
+    private byte[] types = new byte[64];
+    private int[] starts = new int[64];
+    private int[] lengths = new int[64];
+    private int count = 0;
+    private long streamOffset = 0L;
+
+    private Lexer(ChunkedBuffer buf, long off, long len) {
+        this.buf = buf;
+        this.start = off;
+        this.end = len;
+        this.pos = off;
+    }
+
+    /**
+     *  Returns the tokens of the object at the specified offset.
+     *
+     *  @param buf the buffer.
+     *  @param off the offset of the object.
+     *  @param len the offset where the scanning must stop.
+     *  @return the tokens.
+     */
+    static TokenBuffer tokenize(ChunkedBuffer buf, long off, long len) {
+        Lexer lexer = new Lexer(buf, off, len);
+        lexer.scan();
+        int size = (lexer.count == 0) ? 0 :
+                lexer.starts[lexer.count - 1] + lexer.lengths[lexer.count - 1];
+        byte[] text = new byte[size];
+        buf.get(off, text, 0, size);
+        return new TokenBuffer(
+                text,
+                lexer.types,
+                lexer.starts,
+                lexer.lengths,
+                lexer.count,
+                lexer.streamOffset);
+    }
+
+    private void scan() {
+        while (pos < end) {
+            int b = buf.get(pos) & 0xFF;
+            if (isWhitespace(b)) {
+                pos++;
+            } else if (b == '%') {
+                skipComment();
+            } else if (b == '/') {
+                long p = pos++;
+                skipRegular();
+                add(TokenBuffer.NAME, p);
+            } else if (b == '(') {
+                long p = pos;
+                skipLiteralString();
+                add(TokenBuffer.STRING, p);
+            } else if (b == '<') {
+                long p = pos++;
+                if (pos < end && buf.get(pos) == '<') {
+                    pos++;
+                    add(TokenBuffer.DICT_BEGIN, p);
+                } else {
+                    while (pos < end && buf.get(pos++) != '>') {
+                    }
+                    add(TokenBuffer.HEX_STRING, p);
+                }
+            } else if (b == '>') {
+                long p = pos++;
+                if (pos < end && buf.get(pos) == '>') {
+                    pos++;
+                    add(TokenBuffer.DICT_END, p);
+                } else {
+                    add(TokenBuffer.KEYWORD, p);
+                }
+            } else if (b == '[') {
+                add(TokenBuffer.ARRAY_BEGIN, pos++);
+            } else if (b == ']') {
+                add(TokenBuffer.ARRAY_END, pos++);
+            } else if (b == '{' || b == '}' || b == ')') {
+                add(TokenBuffer.KEYWORD, pos++);
+            } else {
+                long p = pos;
+                skipRegular();
+                if (isNumber(p)) {
+                    add(TokenBuffer.NUMBER, p);
+                } else {
+                    add(TokenBuffer.KEYWORD, p);
+                    if (isKeyword(p, "endobj") || isKeyword(p, "startxref")) {
+                        return;
+                    }
+                    if (isKeyword(p, "stream")) {
+                        // The keyword is followed by CRLF or LF
+                        if (pos < end && buf.get(pos) == '\r') {
+                            pos++;
+                        }
+                        if (pos < end && buf.get(pos) == '\n') {
+                            pos++;
+                        }
+                        streamOffset = pos;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(byte type, long p) {
+        if (count == types.length) {
+            types = Arrays.copyOf(types, 2*count);
+            starts = Arrays.copyOf(starts, 2*count);
+            lengths = Arrays.copyOf(lengths, 2*count);
+        }
+        types[count] = type;
+        starts[count] = (int) (p - start);
+        lengths[count] = (int) (pos - p);
+        count++;
+    }
+
+    private void skipComment() {
+        while (pos < end) {
+            byte b = buf.get(pos);
+            if (b == '\r' || b == '\n') {
+                break;
+            }
+            pos++;
+        }
+    }
+
+    private void skipRegular() {
+        while (pos < end) {
+            int b = buf.get(pos) & 0xFF;
+            if (isWhitespace(b) || isDelimiter(b)) {
+                break;
+            }
+            pos++;
+        }
+    }
+
+    private void skipLiteralString() {
+        int depth = 0;
+        while (pos < end) {
+            byte b = buf.get(pos++);
+            if (b == '\\') {
+                pos++;
+            } else if (b == '(') {
+                depth++;
+            } else if (b == ')') {
+                if (--depth == 0) {
+                    break;
+                }
+            }
+        }
+        if (pos > end) {
+            pos = end;
+        }
+    }
+
+    private boolean isNumber(long p) {
+        boolean digits = false;
+        for (long i = p; i < pos; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                digits = true;
+            } else if (b != '.' && !((b == '+' || b == '-') && i == p)) {
+                return false;
+            }
+        }
+        return digits;
+    }
+
+    private boolean isKeyword(long p, String keyword) {
+        if (pos - p != keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (buf.get(p + i) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == 0x00        // Null
+                || b == 0x09    // Horizontal Tab
+                || b == 0x0A    // Line Feed (LF)
+                || b == 0x0C    // Form Feed
+                || b == 0x0D    // Carriage Return (CR)
+                || b == 0x20;   // Space
+    }
+
+    private static boolean isDelimiter(int b) {
+        return b == '(' || b == ')' || b == '<' || b == '>' || b == '[' || b == ']'
+                || b == '{' || b == '}' || b == '/' || b == '%';
+    }
+}
@@ -0,0 +1,475 @@
+/**
+ *  MappedObjectList.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *  The objects of a memory mapped PDF file, in object number order.
+ *  Only the cross-reference index is read up front. The objects are parsed on first access,
+ *  and the streams are loaded when PDFobj.getData() is called.
+ *  New objects can be appended at the end of the list.
+ */
+final class MappedObjectList extends AbstractList<PDFobj> {
+    private static final byte UNUSED = 0;
+    private static final byte IN_FILE = 1;
+    private static final byte IN_OBJECT_STREAM = 2;
+    private static final byte FREE = 3;
+    private static final byte SKIPPED = 4;      // Object streams and cross-reference streams
+
+    private static final byte[] STREAM = "stream".getBytes();
+    private static final byte[] ENDOBJ = "endobj".getBytes();
+    private static final byte[] NULL = "null\n".getBytes();
+
+    private final PDF pdf;                      // Used to parse the objects
+    private final ChunkedBuffer buf;
+    private byte[] types = new byte[1024];
+    private long[] offsets = new long[1024];    // Offset or (object stream number << 32 | index)
+    private int count = 0;
+    private PDFobj[] objects;
+    private final List<PDFobj> added = new ArrayList<PDFobj>();
+    private int rootNumber = 0;
+    private long pos;
+
+    // The last object stream we used
+    private int objStmNumber = 0;
+    private ChunkedBuffer objStmData;
+    private int[] objStmOffsets;
+
+    MappedObjectList(PDF pdf, ChunkedBuffer buf) throws Exception {
+        this.pdf = pdf;
+        this.buf = buf;
+
+        List<Integer> xrefStreams = new ArrayList<Integer>();
+        Set<Long> visited = new HashSet<Long>();
+        long xref = pdf.getStartXRef(buf);
+        while (xref >= 0 && visited.add(xref)) {
+            PDFobj trailer;
+            if (startsWith(xref, "xref".getBytes())) {
+                trailer = readXRefTable(xref);
+            } else {
+                trailer = readXRefStream(xref);
+                xrefStreams.add(Integer.parseInt(trailer.dict.get(0)));
+            }
+            String root = trailer.getValue("/Root");
+            if (rootNumber == 0 && !root.equals("")) {
+                rootNumber = Integer.parseInt(root);
+            }
+            String prev = trailer.getValue("/Prev");
+            xref = prev.equals("") ? -1L : Long.parseLong(prev);
+        }
+
+        int size = count;
+        for (int i = 0; i < size; i++) {
+            if (types[i] == IN_OBJECT_STREAM) {
+                skip((int) (offsets[i] >>> 32));
+            }
+        }
+        for (Integer number : xrefStreams) {
+            skip(number);
+        }
+        count = 0;
+        for (int i = 0; i < size; i++) {
+            if (types[i] == IN_FILE || types[i] == IN_OBJECT_STREAM) {
+                count = i + 1;
+            }
+        }
+        objects = new PDFobj[count];
+    }
+
+    @Override
+    public int size() {
+        return count + added.size();
+    }
+
+    @Override
+    public PDFobj get(int index) {
+        if (index >= count) {
+            return added.get(index - count);
+        }
+        PDFobj obj = objects[index];
+        if (obj == null) {
+            obj = parseObject(index);
+            objects[index] = obj;
+        }
+        return obj;
+    }
+
+    @Override
+    public PDFobj set(int index, PDFobj obj) {
+        if (index >= count) {
+            return added.set(index - count, obj);
+        }
+        PDFobj prev = get(index);
+        objects[index] = obj;
+        return prev;
+    }
+
+    @Override
+    public void add(int index, PDFobj obj) {
+        if (index != size()) {
+            throw new UnsupportedOperationException("New objects can only be added at the end.");
+        }
+        added.add(obj);
+    }
+
+    int getRootNumber() {
+        return rootNumber;
+    }
+
+    boolean isLoaded(int index) {
+        return index >= count || objects[index] != null;
+    }
+
+    /**
+     *  Parses the object without keeping it in the list.
+     *
+     *  @param index the index of the object.
+     *  @return the object.
+     */
+    PDFobj parseObject(int index) {
+        int number = index + 1;
+        PDFobj obj;
+        if (types[index] == IN_FILE) {
+            obj = pdf.getObject(buf, offsets[index]);
+            obj.number = number;
+            if (obj.dict.contains("stream")) {
+                obj.source = buf;
+                obj.streamLength = getStreamLength(obj);
+            }
+        } else if (types[index] == IN_OBJECT_STREAM) {
+            int i = loadObjectStream(index);
+            obj = pdf.getObject(objStmData, objStmOffsets[i], objStmOffsets[i + 1]);
+            obj.number = number;
+            obj.dict.add(0, "obj");
+            obj.dict.add(0, "0");
+            obj.dict.add(0, String.valueOf(number));
+        } else {
+            // Free entries and the skipped streams are written as null objects.
+            obj = new PDFobj();
+            obj.number = number;
+            obj.dict.add("null");
+        }
+        return obj;
+    }
+
+    /**
+     *  Copies the object to the PDF without parsing it.
+     *
+     *  @param index the index of the object.
+     *  @param out the PDF to write to.
+     *  @return false if the object has a stream and must be parsed before it is written.
+     *  @throws IOException  If an input or output exception occurred
+     */
+    boolean copyObject(int index, PDF out) throws IOException {
+        int number = index + 1;
+        if (types[index] == IN_FILE) {
+            long start = offsets[index];
+            long end = findEndOfObject(start);
+            if (end < 0) {
+                return false;
+            }
+            copy(buf, start, end, out);
+            out.append(Token.newline);
+        } else if (types[index] == IN_OBJECT_STREAM) {
+            int i = loadObjectStream(index);
+            out.append(number);
+            out.append(Token.newobj);
+            copy(objStmData, objStmOffsets[i], objStmOffsets[i + 1], out);
+            out.append(Token.newline);
+            out.append(Token.endobj);
+        } else {
+            out.append(number);
+            out.append(Token.newobj);
+            out.append(NULL);
+            out.append(Token.endobj);
+        }
+        return true;
+    }
+
+    /**
+     *  Returns the generation number in the "N G obj" header of the object.
+     *  The objects in object streams and the free entries have generation 0.
+     *
+     *  @param index the index of the object.
+     *  @return the generation number.
+     */
+    int getGeneration(int index) {
+        if (index >= count || types[index] != IN_FILE) {
+            return 0;
+        }
+        pos = offsets[index];
+        readNumber();                           // Object number
+        return (int) readNumber();
+    }
+
+    private static void copy(
+            ChunkedBuffer src, long start, long end, PDF out) throws IOException {
+        byte[] tmp = new byte[(int) Math.min(8192L, end - start)];
+        while (start < end) {
+            int len = (int) Math.min(tmp.length, end - start);
+            src.get(start, tmp, 0, len);
+            out.append(tmp, 0, len);
+            start += len;
+        }
+    }
+
+    // Returns the offset just past the "endobj" keyword, or -1 if the object has a stream.
+    private long findEndOfObject(long start) {
+        long length = buf.length();
+        int depth = 0;      // Nesting of the literal strings
+        for (long p = start; p < length; p++) {
+            byte b = buf.get(p);
+            if (depth > 0) {
+                if (b == '\\') {
+                    p++;
+                } else if (b == '(') {
+                    depth++;
+                } else if (b == ')') {
+                    depth--;
+                }
+            } else if (b == '(') {
+                depth++;
+            } else if (b == 's' && isDelimiter(p - 1) && startsWith(p, STREAM)) {
+                return -1L;
+            } else if (b == 'e' && isDelimiter(p - 1) && startsWith(p, ENDOBJ)) {
+                return p + ENDOBJ.length;
+            }
+        }
+        return -1L;
+    }
+
+    private boolean isDelimiter(long p) {
+        byte b = buf.get(p);
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0 ||
+                b == '>' || b == ']' || b == ')' || b == '}';
+    }
+
+    private boolean startsWith(long p, byte[] keyword) {
+        if (p + keyword.length > buf.length()) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length; i++) {
+            if (buf.get(p + i) != keyword[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getStreamLength(PDFobj obj) {
+        List<String> dict = obj.dict;
+        for (int i = 0; i < dict.size(); i++) {
+            if (dict.get(i).equals("/Length")) {
+                int length = Integer.parseInt(dict.get(i + 1));
+                if (i + 3 < dict.size() && dict.get(i + 3).equals("R")) {
+                    return Integer.parseInt(get(length - 1).dict.get(3));
+                }
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    // Returns the index of the object in its object stream.
+    private int loadObjectStream(int index) {
+        int number = (int) (offsets[index] >>> 32);
+        if (number != objStmNumber) {
+            PDFobj stm = pdf.getObject(buf, offsets[number - 1]);
+            stm.source = buf;
+            stm.streamLength = getStreamLength(stm);
+            byte[] data = stm.getData();
+            int n = Integer.parseInt(stm.getValue("/N"));
+            int first = Integer.parseInt(stm.getValue("/First"));
+            objStmData = new ChunkedBuffer(data);
+            PDFobj header = pdf.getObject(objStmData, 0, first);
+            objStmOffsets = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                objStmOffsets[i] = first + Integer.parseInt(header.dict.get(2*i + 1));
+            }
+            objStmOffsets[n] = data.length;
+            objStmNumber = number;
+        }
+        return (int) offsets[index];
+    }
+
+    private void setEntry(long number, byte type, long offset) {
+        if (number <= 0 || number > Integer.MAX_VALUE) {
+            return;
+        }
+        int index = (int) number - 1;
+        if (index >= types.length) {
+            int capacity = Math.max(types.length * 2, index + 1);
+            types = Arrays.copyOf(types, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        // The newer cross-reference sections are read first.
+        if (types[index] == UNUSED) {
+            types[index] = type;
+            offsets[index] = offset;
+            count = Math.max(count, index + 1);
+        }
+    }
+
+    private void skip(int number) {
+        if (number > 0 && number <= count) {
+            types[number - 1] = SKIPPED;
+        }
+    }
+
+    private PDFobj readXRefTable(long off) {
+        pos = off + 4;      // Skip over "xref"
+        while (true) {
+            skipWhitespace();
+            if (buf.get(pos) == 't') {
+                break;      // The trailer
+            }
+            long start = readNumber();
+            long n = readNumber();
+            for (long j = 0; j < n; j++) {
+                long offset = readNumber();
+                readNumber();                   // Generation number
+                skipWhitespace();
+                byte status = buf.get(pos++);
+                setEntry(start + j, status == 'n' ? IN_FILE : FREE, offset);
+            }
+        }
+        return pdf.getObject(buf, pos);
+    }
+
+    private void skipWhitespace() {
+        while (buf.get(pos) <= ' ') {
+            pos++;
+        }
+    }
+
+    private long readNumber() {
+        skipWhitespace();
+        long value = 0L;
+        byte b;
+        while ((b = buf.get(pos)) >= '0' && b <= '9') {
+            value = 10*value + (b - '0');
+            pos++;
+        }
+        return value;
+    }
+
+    // See page 50 in PDF32000_2008.pdf
+    private PDFobj readXRefStream(long off) throws Exception {
+        PDFobj obj = pdf.getObject(buf, off);
+        obj.source = buf;
+        obj.streamLength = Integer.parseInt(obj.getValue("/Length"));
+        byte[] data = obj.getData();
+
+        int[] w = new int[3];
+        int predictor = 0;
+        int columns = 1;
+        List<Long> index = new ArrayList<Long>();
+        List<String> dict = obj.dict;
+        for (int i = 0; i < dict.size(); i++) {
+            String token = dict.get(i);
+            if (token.equals("/W")) {
+                for (int j = 0; j < 3; j++) {
+                    w[j] = Integer.parseInt(dict.get(i + 2 + j));
+                }
+            } else if (token.equals("/Index")) {
+                for (int j = i + 2; !dict.get(j).equals("]"); j++) {
+                    index.add(Long.parseLong(dict.get(j)));
+                }
+            } else if (token.equals("/Predictor")) {
+                predictor = Integer.parseInt(dict.get(i + 1));
+            } else if (token.equals("/Columns")) {
+                columns = Integer.parseInt(dict.get(i + 1));
+            }
+        }
+        if (index.isEmpty()) {
+            index.add(0L);
+            index.add(Long.parseLong(obj.getValue("/Size")));
+        }
+        if (predictor >= 10) {
+            data = undoPredictor(data, columns);
+        }
+
+        int p = 0;
+        for (int i = 0; i < index.size(); i += 2) {
+            long start = index.get(i);
+            long n = index.get(i + 1);
+            for (long j = 0; j < n && p < data.length; j++) {
+                long type = (w[0] == 0) ? 1 : toLong(data, p, w[0]);
+                long field2 = toLong(data, p + w[0], w[1]);
+                long field3 = toLong(data, p + w[0] + w[1], w[2]);
+                p += w[0] + w[1] + w[2];
+                if (type == 1) {
+                    setEntry(start + j, IN_FILE, field2);
+                } else if (type == 2) {
+                    setEntry(start + j, IN_OBJECT_STREAM, (field2 << 32) | field3);
+                } else {
+                    setEntry(start + j, FREE, 0L);
+                }
+            }
+        }
+        return obj;
+    }
+
+    // Reverses the PNG predictors, each row starts with the filter type byte.
+    private static byte[] undoPredictor(byte[] data, int columns) {
+        int rows = data.length / (columns + 1);
+        byte[] out = new byte[rows * columns];
+        for (int r = 0; r < rows; r++) {
+            int filter = data[r * (columns + 1)];
+            int src = r * (columns + 1) + 1;
+            int dst = r * columns;
+            for (int i = 0; i < columns; i++) {
+                int a = (i > 0) ? out[dst + i - 1] & 0xFF : 0;
+                int b = (r > 0) ? out[dst - columns + i] & 0xFF : 0;
+                int c = (i > 0 && r > 0) ? out[dst - columns + i - 1] & 0xFF : 0;
+                int x = data[src + i] & 0xFF;
+                if (filter == 1) {          // Sub
+                    x += a;
+                } else if (filter == 2) {   // Up
+                    x += b;
+                } else if (filter == 3) {   // Average
+                    x += (a + b) / 2;
+                } else if (filter == 4) {   // Paeth
+                    int p = a + b - c;
+                    int pa = Math.abs(p - a);
+                    int pb = Math.abs(p - b);
+                    int pc = Math.abs(p - c);
+                    x += (pa <= pb && pa <= pc) ? a : (pb <= pc) ? b : c;
+                }
+                out[dst + i] = (byte) x;
+            }
+        }
+        return out;
+    }
+
+    private static long toLong(byte[] buf, int off, int len) {
+        long value = 0L;
+        for (int i = 0; i < len; i++) {
+            value = (value << 8) | (buf[off + i] & 0xFF);
+        }
+        return value;
+    }
+}
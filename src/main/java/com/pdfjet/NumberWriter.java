@@ -0,0 +1,166 @@
+/**
+ *  NumberWriter.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.text.*;
+import java.util.*;
+
+/**
+ *  Writes int and float values as ASCII digits directly into a byte array.
+ *
+ *  The float output is identical to DecimalFormat("0.###") with the default
+ *  HALF_EVEN rounding, but no String or char[] is created on the way.
+ *  The class has no mutable state, so it can be used from many threads at once
+ *  as long as every thread supplies its own destination buffer.
+ */
+final class NumberWriter {
+    /** The maximum number of bytes written by a single call. */
+    static final int MAX_LENGTH = 48;
+
+    // Above this limit DecimalFormat switches to the shortest round-trip digits
+    // of the double value and pads with zeros, so we let it do the work.
+    private static final float LIMIT = 1.0e15f;
+
+    private static final byte[] DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9'
+    };
+
+    private NumberWriter() {
+    }
+
+    /**
+     *  Writes the specified int value into the buffer.
+     *
+     *  @param val the value.
+     *  @param buf the destination buffer.
+     *  @param off the offset to start writing at.
+     *  @return the offset just past the last written byte.
+     */
+    static int write(int val, byte[] buf, int off) {
+        if (val < 0) {
+            buf[off++] = '-';
+            return writeDigits(-((long) val), buf, off);
+        }
+        return writeDigits(val, buf, off);
+    }
+
+    /**
+     *  Writes the specified long value into the buffer.
+     *
+     *  @param val the value.
+     *  @param buf the destination buffer.
+     *  @param off the offset to start writing at.
+     *  @return the offset just past the last written byte.
+     */
+    static int write(long val, byte[] buf, int off) {
+        if (val < 0) {
+            if (val == Long.MIN_VALUE) {
+                String str = Long.toString(val);
+                for (int i = 0; i < str.length(); i++) {
+                    buf[off++] = (byte) str.charAt(i);
+                }
+                return off;
+            }
+            buf[off++] = '-';
+            return writeDigits(-val, buf, off);
+        }
+        return writeDigits(val, buf, off);
+    }
+
+    /**
+     *  Writes the specified float value into the buffer using up to 3 decimal places.
+     *
+     *  @param val the value.
+     *  @param buf the destination buffer.
+     *  @param off the offset to start writing at.
+     *  @return the offset just past the last written byte.
+     */
+    static int write(float val, byte[] buf, int off) {
+        if (!(val > -LIMIT && val < LIMIT)) {
+            // NaN, infinity and very large values - rare enough to allocate.
+            DecimalFormat df = new DecimalFormat("0.###", new DecimalFormatSymbols(Locale.US));
+            String str = df.format(val);
+            for (int i = 0; i < str.length(); i++) {
+                buf[off++] = (byte) str.charAt(i);
+            }
+            return off;
+        }
+
+        // Every float has at most 24 significant bits, so the product below
+        // fits in the 53 bit mantissa of a double and is exact.
+        double scaled = ((double) val) * 1000.0;
+        if (Float.floatToRawIntBits(val) < 0) {
+            // DecimalFormat keeps the sign of negative values that round to zero.
+            buf[off++] = '-';
+            scaled = -scaled;
+        }
+        long n = (long) scaled;
+        double fraction = scaled - n;
+        if (fraction > 0.5 || (fraction == 0.5 && (n & 1L) != 0L)) {
+            n += 1;
+        }
+
+        off = writeDigits(n / 1000, buf, off);
+        int decimals = (int) (n % 1000);
+        if (decimals != 0) {
+            buf[off++] = '.';
+            buf[off++] = DIGITS[decimals / 100];
+            decimals %= 100;
+            if (decimals != 0) {
+                buf[off++] = DIGITS[decimals / 10];
+                decimals %= 10;
+                if (decimals != 0) {
+                    buf[off++] = DIGITS[decimals];
+                }
+            }
+        }
+        return off;
+    }
+
+    /**
+     *  Returns the float value formatted as an array of ASCII bytes.
+     *
+     *  @param val the value.
+     *  @return the formatted value.
+     */
+    static byte[] toBytes(float val) {
+        byte[] buf = new byte[MAX_LENGTH];
+        int len = write(val, buf, 0);
+        return Arrays.copyOf(buf, len);
+    }
+
+    private static int writeDigits(long val, byte[] buf, int off) {
+        int len = 1;
+        for (long n = val / 10; n != 0; n /= 10) {
+            len++;
+        }
+        int end = off + len;
+        int i = end;
+        do {
+            buf[--i] = DIGITS[(int) (val % 10)];
+            val /= 10;
+        } while (val != 0);
+        return end;
+    }
+}
@@ -33,7 +33,6 @@ import java.util.zip.*;
 public class OTF {
     String fontName;
     String fontInfo;
-    ByteArrayOutputStream baos;
     int unitsPerEm;
     short bBoxLLx;
     short bBoxLLy;
@@ -45,7 +44,7 @@ public class OTF {
     int firstChar;
     int lastChar;
     short capHeight;
-    int[] glyphWidth;
+    CodePointTable glyphWidth;
     long postVersion;
     long italicAngle;
     short underlinePosition;
@@ -54,7 +53,8 @@ public class OTF {
     boolean cff = false;
     int cffOff;
     int cffLen;
-    int[] unicodeToGID = new int[0x10000];
+    CodePointTable unicodeToGID;
+    OpenTypeLayout layout;
     int index = 0;
 
     /**
@@ -83,6 +83,9 @@ public class OTF {
         int rangeShift    = readUInt16();
 
         FontTable cmapTable = null;
+        int gdefOffset = 0;     // The layout table offsets, 0 if the table is missing
+        int gsubOffset = 0;
+        int gposOffset = 0;
         for (int i = 0; i < numOfTables; i++) {
             byte[] name = new byte[4];
             for (int j = 0; j < 4; j++) {
@@ -103,20 +106,16 @@ public class OTF {
             else if (table.name.equals("post")) { post(table); }
             else if (table.name.equals("CFF ")) { CFF_(table); }
             else if (table.name.equals("cmap")) { cmapTable = table; }
+            else if (table.name.equals("GDEF")) { gdefOffset = table.offset; }
+            else if (table.name.equals("GSUB")) { gsubOffset = table.offset; }
+            else if (table.name.equals("GPOS")) { gposOffset = table.offset; }
             index = k;      // Restore the index
         }
 
         // This table must be processed last
         cmap(cmapTable);
-        baos = new ByteArrayOutputStream();
-        DeflaterOutputStream dos =
-                new DeflaterOutputStream(baos, new Deflater(Deflater.BEST_SPEED));
-        if (cff) {
-            dos.write(buf, cffOff, cffLen);
-        } else {
-            dos.write(buf, 0, buf.length);
-        }
-        dos.finish();
+
+        layout = OpenTypeLayout.create(buf, gdefOffset, gsubOffset, gposOffset);
     }
 
     private void head(FontTable table) {
@@ -194,23 +193,35 @@ public class OTF {
         int numRecords = readUInt16();
 
         // Process the encoding records
-        boolean format4subtable = false;
-        int subtableOffset = 0;
+        int format4Offset = -1;         // Unicode BMP
+        int format12Offset = -1;        // Unicode full repertoire
         for (int i = 0; i < numRecords; i++) {
             int platformID = readUInt16();
             int encodingID = readUInt16();
-            subtableOffset = (int) readUInt32();
-            if (platformID == 3 && encodingID == 1) {
-                format4subtable = true;
-                break;
+            int subtableOffset = (int) readUInt32();
+            if (platformID == 3 && encodingID == 1 && format4Offset == -1) {
+                format4Offset = subtableOffset;
+            } else if (platformID == 3 && encodingID == 10 && format12Offset == -1) {
+                format12Offset = subtableOffset;
             }
         }
-        if (!format4subtable) {
+        if (format4Offset == -1) {
             throw new Exception("Format 4 subtable not found in this font.");
         }
 
-        index = tableOffset + subtableOffset;
+        unicodeToGID = new CodePointTable(0);
+        glyphWidth = new CodePointTable(advanceWidth[0]);
+        format4(tableOffset + format4Offset);
+        if (format12Offset != -1) {
+            index = tableOffset + format12Offset;
+            if (readUInt16() == 12) {
+                format12(tableOffset + format12Offset);
+            }
+        }
+    }
 
+    private void format4(int subtableOffset) {
+        index = subtableOffset;
         int format   = readUInt16();
         int tableLen = readUInt16();
         int language = readUInt16();
@@ -243,12 +254,11 @@ public class OTF {
             glyphIdArray[i] = readUInt16();
         }
 
-        glyphWidth = new int[lastChar + 1];
-        Arrays.fill(glyphWidth, advanceWidth[0]);
-
-        for (int ch = firstChar; ch <= lastChar; ch++) {
-            int seg = getSegmentFor(ch, startCount, endCount, segCount);
-            if (seg != -1) {
+        // The segments are sorted and don't overlap.
+        for (int seg = 0; seg < segCount; seg++) {
+            int first = Math.max(startCount[seg], firstChar);
+            int last = Math.min(endCount[seg], lastChar);
+            for (int ch = first; ch <= last; ch++) {
                 int gid;
                 int offset = idRangeOffset[seg];
                 if (offset == 0) {
@@ -261,14 +271,34 @@ public class OTF {
                         gid += idDelta[seg] % 65536;
                     }
                 }
-                if (gid < advanceWidth.length) {
-                    glyphWidth[ch] = advanceWidth[gid];
-                }
-                unicodeToGID[ch] = gid;
+                addGlyph(ch, gid);
+            }
+        }
+    }
+
+    // Only the code points outside the BMP are taken from this subtable.
+    private void format12(int subtableOffset) {
+        index = subtableOffset + 12;
+        long numGroups = readUInt32();
+        for (long i = 0; i < numGroups; i++) {
+            long startCharCode = readUInt32();
+            long endCharCode = readUInt32();
+            long startGlyphID = readUInt32();
+            long first = Math.max(startCharCode, 0x10000L);
+            long last = Math.min(endCharCode, 0x10FFFFL);
+            for (long ch = first; ch <= last; ch++) {
+                addGlyph((int) ch, (int) (startGlyphID + (ch - startCharCode)));
             }
         }
     }
 
+    private void addGlyph(int ch, int gid) {
+        if (gid < advanceWidth.length) {
+            glyphWidth.put(ch, advanceWidth[gid]);
+        }
+        unicodeToGID.put(ch, gid);
+    }
+
     private void hmtx(FontTable table) {
         index = table.offset;
         for (int j = 0; j < advanceWidth.length; j++) {
@@ -291,18 +321,6 @@ public class OTF {
         this.cffLen = table.length;
     }
 
-    private int getSegmentFor(
-            int ch, int[] startCount, int[] endCount, int segCount) {
-        int segment = -1;
-        for (int i = 0; i < segCount; i++) {
-            if (ch <= endCount[i] && ch >= startCount[i]) {
-                segment = i;
-                break;
-            }
-        }
-        return segment;
-    }
-
     private byte readByte() {
         return buf[index++];
     }
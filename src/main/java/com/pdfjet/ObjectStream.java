@@ -0,0 +1,81 @@
+/**
+ *  ObjectStream.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.io.*;
+
+/**
+ *  Collects the dictionary objects that are written to one compressed object stream.
+ *  See section 7.5.7 in PDF32000_2008.pdf
+ */
+final class ObjectStream {
+    static final int MAX_OBJECTS = 100;
+
+    int objNumber;
+    private final StringBuilder offsets = new StringBuilder();
+    private ByteArrayOutputStream objects = new ByteArrayOutputStream();
+    private int count = 0;
+    private int first = 0;
+    private byte[] deflated = null;
+
+    void add(int number, ByteArrayOutputStream obj) throws IOException {
+        if (count > 0) {
+            offsets.append(' ');
+        }
+        offsets.append(number);
+        offsets.append(' ');
+        offsets.append(objects.size());
+        obj.writeTo(objects);
+        count++;
+    }
+
+    boolean isFull() {
+        return count == MAX_OBJECTS;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getFirst() {
+        return first;
+    }
+
+    byte[] getData() {
+        return deflated;
+    }
+
+    // Compresses the object stream and releases the uncompressed objects.
+    void finish() throws IOException {
+        offsets.append('\n');
+        byte[] header = offsets.toString().getBytes("ISO-8859-1");
+        first = header.length;
+        ByteArrayOutputStream buf =
+                new ByteArrayOutputStream(header.length + objects.size());
+        buf.write(header);
+        objects.writeTo(buf);
+        objects = null;
+        deflated = Compressor.deflate(buf.toByteArray());
+    }
+}
@@ -0,0 +1,609 @@
+/**
+ *  OpenTypeLayout.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.util.*;
+
+/**
+ *  Shapes text with the OpenType layout tables of a font: the ligatures
+ *  from the GSUB table and the pair kerning and mark positioning from the
+ *  GPOS table. The tables are read in place from the font file. The lookups
+ *  used for a script are found when the script is first used and cached with
+ *  copies of their coverage and class tables, the instances can be shared
+ *  between threads.
+ *  See the OpenType Layout Common Table Formats, GSUB, GPOS and GDEF specifications.
+ */
+final class OpenTypeLayout {
+    private static final String[] SUBSTITUTION_FEATURES = {"liga", "clig", "rlig"};
+    private static final String[] POSITIONING_FEATURES = {"kern", "mark", "mkmk"};
+
+    // Lookup types
+    private static final int LIGATURE_SUBST = 4;
+    private static final int EXTENSION_SUBST = 7;
+    private static final int PAIR_POS = 2;
+    private static final int MARK_TO_BASE_POS = 4;
+    private static final int MARK_TO_MARK_POS = 6;
+    private static final int EXTENSION_POS = 9;
+
+    // Lookup flags
+    private static final int IGNORE_BASE_GLYPHS = 0x0002;
+    private static final int IGNORE_LIGATURES = 0x0004;
+    private static final int IGNORE_MARKS = 0x0008;
+
+    // Value record formats
+    private static final int X_PLACEMENT = 0x0001;
+    private static final int Y_PLACEMENT = 0x0002;
+    private static final int X_ADVANCE = 0x0004;
+
+    // GDEF glyph classes
+    private static final int BASE_GLYPH = 1;
+    private static final int LIGATURE_GLYPH = 2;
+    private static final int MARK_GLYPH = 3;
+
+    private final byte[] buf;
+    private final int gsub;                 // The table offsets, 0 if the table is missing
+    private final int gpos;
+    private final CodePointTable glyphClasses;      // Indexed by the glyph ID
+    private final CodePointTable markAttachClasses;
+
+    // The substitution and the positioning lookups for each script, guarded by this.
+    private final Map<String, Lookup[][]> plans = new HashMap<String, Lookup[][]>();
+
+    // A lookup with the extension subtables resolved. The glyphs covered by the
+    // subtables are in a bit set, so most glyphs are rejected with one test.
+    // The coverage and class tables used for each glyph are copied into
+    // lookup tables, the coverage tables have the coverage index plus one.
+    private static final class Lookup {
+        int type;
+        int flag;
+        int[] subtables;
+        CodePointTable[] coverages;
+        CodePointTable[] secondCoverages;     // Mark to base and mark to mark
+        CodePointTable[] firstClasses;        // Pair adjustment format 2
+        CodePointTable[] secondClasses;
+        final BitSet coverage = new BitSet();
+    }
+
+    /**
+     *  Returns the layout of the font or null if the font has no GSUB and GPOS tables.
+     *
+     *  @param buf the font file.
+     *  @param gdef the offset of the GDEF table, 0 if the font has no GDEF table.
+     *  @param gsub the offset of the GSUB table, 0 if the font has no GSUB table.
+     *  @param gpos the offset of the GPOS table, 0 if the font has no GPOS table.
+     *  @return the layout or null.
+     */
+    static OpenTypeLayout create(byte[] buf, int gdef, int gsub, int gpos) {
+        if (gsub == 0 && gpos == 0) {
+            return null;
+        }
+        return new OpenTypeLayout(buf, gdef, gsub, gpos);
+    }
+
+    private OpenTypeLayout(byte[] buf, int gdef, int gsub, int gpos) {
+        this.buf = buf;
+        this.gsub = gsub;
+        this.gpos = gpos;
+        if (gdef != 0) {
+            this.glyphClasses = getClasses(getOffset(gdef, gdef + 4));
+            this.markAttachClasses = getClasses(getOffset(gdef, gdef + 10));
+        } else {
+            this.glyphClasses = new CodePointTable(0);
+            this.markAttachClasses = new CodePointTable(0);
+        }
+    }
+
+    /**
+     *  Maps the string to glyphs and applies the ligatures, kerning and mark positioning.
+     *  The characters that are not in the font are mapped like in Page.drawString.
+     *
+     *  @param font the font.
+     *  @param str the string.
+     *  @return the shaped glyphs.
+     */
+    GlyphRun shape(Font font, String str) {
+        GlyphRun run = new GlyphRun(str.length());
+        boolean marks = false;
+        int i = 0;
+        while (i < str.length()) {
+            int c1 = str.codePointAt(i);
+            int n = Character.charCount(c1);
+            if (c1 != 0xFEFF) {         // BOM marker
+                int gid = font.unicodeToGID.get(c1);
+                if (c1 < font.firstChar || (c1 > font.lastChar && gid == 0)) {
+                    gid = font.unicodeToGID.get(0x0020);
+                }
+                run.add(gid, i, i + n);
+                marks |= (glyphClasses.get(gid) == MARK_GLYPH);
+            }
+            i += n;
+        }
+
+        Lookup[][] plan = getPlan(getScript(str));
+        for (Lookup lookup : plan[0]) {
+            substitute(run, lookup);
+        }
+        for (int j = 0; j < run.count; j++) {
+            int gid = run.glyphs[j];
+            run.advances[j] = (gid < font.advanceWidth.length) ?
+                    font.advanceWidth[gid] : font.advanceWidth[0];
+        }
+        for (Lookup lookup : plan[1]) {
+            if (lookup.type == PAIR_POS || marks) {
+                position(run, lookup);
+            }
+        }
+
+        // The marks are placed relative to their base glyph,
+        // after the advances of the glyphs in between are final.
+        for (int j = 0; j < run.count; j++) {
+            int base = run.attachedTo[j];
+            if (base != -1) {
+                run.xOffsets[j] += run.xOffsets[base];
+                run.yOffsets[j] += run.yOffsets[base];
+                for (int k = base; k < j; k++) {
+                    run.xOffsets[j] -= run.advances[k];
+                }
+            }
+        }
+        return run;
+    }
+
+    // The OpenType script tag of the first character that belongs to a script.
+    private static String getScript(String str) {
+        int i = 0;
+        while (i < str.length()) {
+            int c1 = str.codePointAt(i);
+            if (c1 < 0x80) {
+                if ((c1 >= 'A' && c1 <= 'Z') || (c1 >= 'a' && c1 <= 'z')) {
+                    return "latn";
+                }
+                i++;
+                continue;
+            }
+            switch (Character.UnicodeScript.of(c1)) {
+                case LATIN: return "latn";
+                case GREEK: return "grek";
+                case CYRILLIC: return "cyrl";
+                case ARMENIAN: return "armn";
+                case GEORGIAN: return "geor";
+                case HEBREW: return "hebr";
+                case ARABIC: return "arab";
+                case THAI: return "thai";
+                case COMMON: case INHERITED: break;
+                default: return "DFLT";
+            }
+            i += Character.charCount(c1);
+        }
+        return "DFLT";
+    }
+
+    private synchronized Lookup[][] getPlan(String script) {
+        Lookup[][] plan = plans.get(script);
+        if (plan == null) {
+            plan = new Lookup[][] {
+                getLookups(gsub, script, SUBSTITUTION_FEATURES, EXTENSION_SUBST),
+                getLookups(gpos, script, POSITIONING_FEATURES, EXTENSION_POS)
+            };
+            plans.put(script, plan);
+        }
+        return plan;
+    }
+
+    // Returns the lookups of the features in the order of the lookup list,
+    // the lookups with types that are not supported are left out.
+    private Lookup[] getLookups(
+            int table, String script, String[] features, int extensionType) {
+        if (table == 0) {
+            return new Lookup[0];
+        }
+        int scriptList = getOffset(table, table + 4);
+        int featureList = getOffset(table, table + 6);
+        int lookupList = getOffset(table, table + 8);
+        int langSys = getLangSys(scriptList, script);
+        if (langSys == 0) {
+            langSys = getLangSys(scriptList, "DFLT");
+        }
+        if (langSys == 0) {
+            langSys = getLangSys(scriptList, "latn");
+        }
+        if (langSys == 0) {
+            return new Lookup[0];
+        }
+
+        int featureCount = getUInt16(featureList);
+        int lookupCount = getUInt16(lookupList);
+        SortedSet<Integer> indices = new TreeSet<Integer>();
+        int count = getUInt16(langSys + 4);
+        for (int i = -1; i < count; i++) {
+            // The required feature is first
+            int featureIndex = getUInt16((i == -1) ? langSys + 2 : langSys + 6 + 2*i);
+            if (featureIndex >= featureCount) {
+                continue;
+            }
+            int record = featureList + 2 + 6*featureIndex;
+            String tag = new String(buf, record, 4);
+            if (!Arrays.asList(features).contains(tag)) {
+                continue;
+            }
+            int feature = getOffset(featureList, record + 4);
+            int n = getUInt16(feature + 2);
+            for (int j = 0; j < n; j++) {
+                int lookupIndex = getUInt16(feature + 4 + 2*j);
+                if (lookupIndex < lookupCount) {
+                    indices.add(lookupIndex);
+                }
+            }
+        }
+
+        List<Lookup> lookups = new ArrayList<Lookup>();
+        for (int lookupIndex : indices) {
+            Lookup lookup = getLookup(
+                    getOffset(lookupList, lookupList + 2 + 2*lookupIndex), extensionType);
+            if (lookup.type == LIGATURE_SUBST && table == gsub ||
+                    (lookup.type == PAIR_POS ||
+                    lookup.type == MARK_TO_BASE_POS ||
+                    lookup.type == MARK_TO_MARK_POS) && table == gpos) {
+                lookups.add(lookup);
+            }
+        }
+        return lookups.toArray(new Lookup[lookups.size()]);
+    }
+
+    private Lookup getLookup(int offset, int extensionType) {
+        Lookup lookup = new Lookup();
+        lookup.type = getUInt16(offset);
+        lookup.flag = getUInt16(offset + 2);
+        boolean extension = (lookup.type == extensionType);
+        lookup.subtables = new int[getUInt16(offset + 4)];
+        for (int i = 0; i < lookup.subtables.length; i++) {
+            int subtable = getOffset(offset, offset + 6 + 2*i);
+            if (extension) {
+                lookup.type = getUInt16(subtable + 2);
+                subtable += getInt32(subtable + 4);
+            }
+            lookup.subtables[i] = subtable;
+        }
+        if (lookup.type != LIGATURE_SUBST && lookup.type != PAIR_POS &&
+                lookup.type != MARK_TO_BASE_POS && lookup.type != MARK_TO_MARK_POS) {
+            return lookup;
+        }
+
+        // All the supported subtable formats start with the coverage of the first glyph.
+        int n = lookup.subtables.length;
+        lookup.coverages = new CodePointTable[n];
+        lookup.secondCoverages = new CodePointTable[n];
+        lookup.firstClasses = new CodePointTable[n];
+        lookup.secondClasses = new CodePointTable[n];
+        for (int i = 0; i < n; i++) {
+            int subtable = lookup.subtables[i];
+            lookup.coverages[i] = getCoverage(getOffset(subtable, subtable + 2), lookup.coverage);
+            if (lookup.type == PAIR_POS && getUInt16(subtable) == 2) {
+                lookup.firstClasses[i] = getClasses(getOffset(subtable, subtable + 8));
+                lookup.secondClasses[i] = getClasses(getOffset(subtable, subtable + 10));
+            } else if (lookup.type == MARK_TO_BASE_POS || lookup.type == MARK_TO_MARK_POS) {
+                lookup.secondCoverages[i] =
+                        getCoverage(getOffset(subtable, subtable + 4), new BitSet());
+            }
+        }
+        return lookup;
+    }
+
+    // Returns the default language system of the script.
+    private int getLangSys(int scriptList, String script) {
+        int count = getUInt16(scriptList);
+        for (int i = 0; i < count; i++) {
+            int record = scriptList + 2 + 6*i;
+            if (script.equals(new String(buf, record, 4))) {
+                int scriptTable = getOffset(scriptList, record + 4);
+                return getOffset(scriptTable, scriptTable);
+            }
+        }
+        return 0;
+    }
+
+    private void substitute(GlyphRun run, Lookup lookup) {
+        for (int i = 0; i < run.count; i++) {
+            if (!lookup.coverage.get(run.glyphs[i]) || skip(run.glyphs[i], lookup.flag)) {
+                continue;
+            }
+            for (int j = 0; j < lookup.subtables.length; j++) {
+                if (ligature(run, i, lookup, j)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // Replaces the glyph and the following components with the ligature glyph.
+    private boolean ligature(GlyphRun run, int i, Lookup lookup, int subtableIndex) {
+        int subtable = lookup.subtables[subtableIndex];
+        int flag = lookup.flag;
+        int index = lookup.coverages[subtableIndex].get(run.glyphs[i]) - 1;
+        if (index == -1 || index >= getUInt16(subtable + 4)) {
+            return false;
+        }
+        int ligatureSet = getOffset(subtable, subtable + 6 + 2*index);
+        int ligatureCount = getUInt16(ligatureSet);
+        for (int j = 0; j < ligatureCount; j++) {
+            int ligature = getOffset(ligatureSet, ligatureSet + 2 + 2*j);
+            int componentCount = getUInt16(ligature + 2);
+            int k = i;
+            int n = 1;
+            while (n < componentCount) {
+                k = next(run, k, flag);
+                if (k == -1 || run.glyphs[k] != getUInt16(ligature + 4 + 2*(n - 1))) {
+                    break;
+                }
+                n++;
+            }
+            if (n == componentCount) {
+                run.glyphs[i] = getUInt16(ligature);
+                for (n = 1; n < componentCount; n++) {
+                    k = next(run, i, flag);
+                    run.end[i] = run.end[k];
+                    run.remove(k);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void position(GlyphRun run, Lookup lookup) {
+        for (int i = 0; i < run.count; i++) {
+            if (!lookup.coverage.get(run.glyphs[i]) || skip(run.glyphs[i], lookup.flag)) {
+                continue;
+            }
+            for (int j = 0; j < lookup.subtables.length; j++) {
+                boolean applied = false;
+                if (lookup.type == PAIR_POS) {
+                    applied = pair(run, i, lookup, j);
+                } else if (lookup.type == MARK_TO_BASE_POS) {
+                    applied = mark(run, i, previousBase(run, i), lookup, j);
+                } else if (lookup.type == MARK_TO_MARK_POS) {
+                    applied = mark(run, i, previous(run, i, lookup.flag), lookup, j);
+                }
+                if (applied) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean pair(GlyphRun run, int i, Lookup lookup, int subtableIndex) {
+        int subtable = lookup.subtables[subtableIndex];
+        int format = getUInt16(subtable);
+        int index = lookup.coverages[subtableIndex].get(run.glyphs[i]) - 1;
+        int j = next(run, i, lookup.flag);
+        if (index == -1 || j == -1) {
+            return false;
+        }
+        int valueFormat1 = getUInt16(subtable + 4);
+        int valueFormat2 = getUInt16(subtable + 6);
+        int size1 = 2*Integer.bitCount(valueFormat1);
+        int size2 = 2*Integer.bitCount(valueFormat2);
+        int record = 0;
+        if (format == 1) {
+            if (index >= getUInt16(subtable + 8)) {
+                return false;
+            }
+            int pairSet = getOffset(subtable, subtable + 10 + 2*index);
+            int recordSize = 2 + size1 + size2;
+            int lo = 0;
+            int hi = getUInt16(pairSet) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int glyph = getUInt16(pairSet + 2 + mid*recordSize);
+                if (glyph < run.glyphs[j]) {
+                    lo = mid + 1;
+                } else if (glyph > run.glyphs[j]) {
+                    hi = mid - 1;
+                } else {
+                    record = pairSet + 2 + mid*recordSize + 2;
+                    break;
+                }
+            }
+        } else if (format == 2) {
+            int class1 = lookup.firstClasses[subtableIndex].get(run.glyphs[i]);
+            int class2 = lookup.secondClasses[subtableIndex].get(run.glyphs[j]);
+            int class1Count = getUInt16(subtable + 12);
+            int class2Count = getUInt16(subtable + 14);
+            if (class1 < class1Count && class2 < class2Count) {
+                record = subtable + 16 + (class1*class2Count + class2)*(size1 + size2);
+            }
+        }
+        if (record == 0) {
+            return false;
+        }
+        applyValue(run, i, record, valueFormat1);
+        applyValue(run, j, record + size1, valueFormat2);
+        return true;
+    }
+
+    // Only the horizontal advance can be changed in a PDF text string.
+    private void applyValue(GlyphRun run, int i, int record, int format) {
+        if ((format & X_PLACEMENT) != 0) {
+            run.xOffsets[i] += getInt16(record);
+            record += 2;
+        }
+        if ((format & Y_PLACEMENT) != 0) {
+            run.yOffsets[i] += getInt16(record);
+            record += 2;
+        }
+        if ((format & X_ADVANCE) != 0) {
+            run.advances[i] += getInt16(record);
+        }
+    }
+
+    // The mark to base and the mark to mark subtables have the same format.
+    private boolean mark(GlyphRun run, int i, int base, Lookup lookup, int subtableIndex) {
+        if (base == -1) {
+            return false;
+        }
+        int subtable = lookup.subtables[subtableIndex];
+        int markIndex = lookup.coverages[subtableIndex].get(run.glyphs[i]) - 1;
+        int baseIndex = lookup.secondCoverages[subtableIndex].get(run.glyphs[base]) - 1;
+        if (markIndex == -1 || baseIndex == -1) {
+            return false;
+        }
+        int classCount = getUInt16(subtable + 6);
+        int markArray = getOffset(subtable, subtable + 8);
+        int baseArray = getOffset(subtable, subtable + 10);
+        if (markIndex >= getUInt16(markArray) || baseIndex >= getUInt16(baseArray)) {
+            return false;
+        }
+        int markRecord = markArray + 2 + 4*markIndex;
+        int markClass = getUInt16(markRecord);
+        if (markClass >= classCount) {
+            return false;
+        }
+        int markAnchor = getOffset(markArray, markRecord + 2);
+        int baseAnchor = getOffset(baseArray, baseArray + 2 + 2*(baseIndex*classCount + markClass));
+        if (markAnchor == 0 || baseAnchor == 0) {
+            return false;
+        }
+        // The x and y coordinates are at the same place in all anchor formats.
+        run.xOffsets[i] = getInt16(baseAnchor + 2) - getInt16(markAnchor + 2);
+        run.yOffsets[i] = getInt16(baseAnchor + 4) - getInt16(markAnchor + 4);
+        run.advances[i] = 0;
+        run.attachedTo[i] = base;
+        return true;
+    }
+
+    private int next(GlyphRun run, int i, int flag) {
+        for (int j = i + 1; j < run.count; j++) {
+            if (!skip(run.glyphs[j], flag)) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    private int previous(GlyphRun run, int i, int flag) {
+        for (int j = i - 1; j >= 0; j--) {
+            if (!skip(run.glyphs[j], flag)) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    private int previousBase(GlyphRun run, int i) {
+        for (int j = i - 1; j >= 0; j--) {
+            if (glyphClasses.get(run.glyphs[j]) != MARK_GLYPH) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    private boolean skip(int glyph, int flag) {
+        if ((flag & (IGNORE_BASE_GLYPHS | IGNORE_LIGATURES | IGNORE_MARKS | 0xFF00)) == 0) {
+            return false;
+        }
+        int glyphClass = glyphClasses.get(glyph);
+        if (glyphClass == BASE_GLYPH) {
+            return (flag & IGNORE_BASE_GLYPHS) != 0;
+        }
+        if (glyphClass == LIGATURE_GLYPH) {
+            return (flag & IGNORE_LIGATURES) != 0;
+        }
+        if (glyphClass == MARK_GLYPH) {
+            if ((flag & IGNORE_MARKS) != 0) {
+                return true;
+            }
+            int markAttachmentType = flag >>> 8;
+            return markAttachmentType != 0 &&
+                    markAttachClasses.get(glyph) != markAttachmentType;
+        }
+        return false;
+    }
+
+    // Returns the coverage index plus one of each glyph and adds the glyphs to the set.
+    private CodePointTable getCoverage(int coverage, BitSet glyphs) {
+        CodePointTable indices = new CodePointTable(0);
+        int format = getUInt16(coverage);
+        int count = getUInt16(coverage + 2);
+        for (int i = 0; i < count; i++) {
+            if (format == 1) {
+                int glyph = getUInt16(coverage + 4 + 2*i);
+                indices.put(glyph, i + 1);
+                glyphs.set(glyph);
+            } else if (format == 2) {
+                int range = coverage + 4 + 6*i;
+                int startGlyph = getUInt16(range);
+                int endGlyph = getUInt16(range + 2);
+                int startIndex = getUInt16(range + 4);
+                for (int glyph = startGlyph; glyph <= endGlyph; glyph++) {
+                    indices.put(glyph, startIndex + glyph - startGlyph + 1);
+                }
+                glyphs.set(startGlyph, endGlyph + 1);
+            }
+        }
+        return indices;
+    }
+
+    private CodePointTable getClasses(int classDef) {
+        CodePointTable classes = new CodePointTable(0);
+        if (classDef == 0) {
+            return classes;
+        }
+        int format = getUInt16(classDef);
+        if (format == 1) {
+            int startGlyph = getUInt16(classDef + 2);
+            int glyphCount = getUInt16(classDef + 4);
+            for (int i = 0; i < glyphCount; i++) {
+                classes.put(startGlyph + i, getUInt16(classDef + 6 + 2*i));
+            }
+        } else if (format == 2) {
+            int count = getUInt16(classDef + 2);
+            for (int i = 0; i < count; i++) {
+                int range = classDef + 4 + 6*i;
+                for (int glyph = getUInt16(range); glyph <= getUInt16(range + 2); glyph++) {
+                    classes.put(glyph, getUInt16(range + 4));
+                }
+            }
+        }
+        return classes;
+    }
+
+    // Returns the table at the offset stored at the position or 0 for a null offset.
+    private int getOffset(int base, int position) {
+        int offset = getUInt16(position);
+        return (offset != 0) ? base + offset : 0;
+    }
+
+    private int getUInt16(int off) {
+        return ((buf[off] & 0xFF) << 8) | (buf[off + 1] & 0xFF);
+    }
+
+    private int getInt16(int off) {
+        return (short) getUInt16(off);
+    }
+
+    private int getInt32(int off) {
+        return (getUInt16(off) << 16) | getUInt16(off + 2);
+    }
+}
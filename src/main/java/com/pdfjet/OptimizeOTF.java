@@ -38,98 +38,97 @@ public class OptimizeOTF {
 
     /**
      * Converts font TTF or OTF file to .ttf.stream .otf.stream
+     * See FontData for the layout of the .stream files.
      *
      * @param fileName the file name
      * @throws Exception if the font file is not found
      */
     public static void convertFontFile(String fileName) throws Exception {
-        BufferedOutputStream fos =
-                new BufferedOutputStream(new FileOutputStream(fileName + ".stream"));
+        convertFontFile(fileName, OptimizeOTF.useZopfli);
+    }
 
+    // The tests use the Deflater, they can't depend on the zopfli executable.
+    static void convertFontFile(String fileName, boolean zopfli) throws Exception {
         OTF otf = new OTF(new FileInputStream(fileName));
-        byte[] name = otf.fontName.getBytes("UTF8");
-        fos.write(name.length);
-        fos.write(name);
-
-        byte[] info = otf.fontInfo.getBytes("UTF8");
-        writeInt24(info.length, fos);
-        fos.write(info);
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(32768);
-        writeInt32(otf.unitsPerEm, baos);
-        writeInt32(otf.bBoxLLx, baos);
-        writeInt32(otf.bBoxLLy, baos);
-        writeInt32(otf.bBoxURx, baos);
-        writeInt32(otf.bBoxURy, baos);
-        writeInt32(otf.ascent, baos);
-        writeInt32(otf.descent, baos);
-        writeInt32(otf.firstChar, baos);
-        writeInt32(otf.lastChar, baos);
-        writeInt32(otf.capHeight, baos);
-        writeInt32(otf.underlinePosition, baos);
-        writeInt32(otf.underlineThickness, baos);
-
-        writeInt32(otf.advanceWidth.length, baos);
-        for (int i = 0; i < otf.advanceWidth.length; i++) {
-            writeInt16(otf.advanceWidth[i], baos);
-        }
 
-        writeInt32(otf.glyphWidth.length, baos);
-        for (int i = 0; i < otf.glyphWidth.length; i++) {
-            writeInt16(otf.glyphWidth[i], baos);
+        byte[] program = otf.buf;
+        if (otf.cff) {
+            program = new byte[otf.cffLen];
+            System.arraycopy(otf.buf, otf.cffOff, program, 0, otf.cffLen);
         }
 
-        writeInt32(otf.unicodeToGID.length, baos);
-        for (int i = 0; i < otf.unicodeToGID.length; i++) {
-            writeInt16(otf.unicodeToGID[i], baos);
-        }
+        byte[][] sections = new byte[FontData.SECTIONS][];
+        sections[FontData.NAME] = otf.fontName.getBytes("UTF8");
+        sections[FontData.INFO] = otf.fontInfo.getBytes("UTF8");
 
-        byte[] buf1 = baos.toByteArray();
-        if (OptimizeOTF.useZopfli) {
-            compressWithZopfli(fileName, fos, buf1, false);
-        } else {
-            ByteArrayOutputStream buf2 = new ByteArrayOutputStream(0xFFFF);
-            DeflaterOutputStream dos1 =
-                    new DeflaterOutputStream(
-                            buf2, new Deflater(Deflater.BEST_COMPRESSION));
-            dos1.write(buf1, 0, buf1.length);
-            dos1.finish();
-            writeInt32(buf2.size(), fos);
-            buf2.writeTo(fos);
-        }
-
-        byte[] buf3 = otf.buf;
-        if (otf.cff == true) {
-            fos.write('Y');
-            buf3 = new byte[otf.cffLen];
-            for (int i = 0; i < otf.cffLen; i++) {
-                buf3[i] = otf.buf[otf.cffOff + i];
-            }
-        } else {
-            fos.write('N');
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(2*otf.advanceWidth.length);
+        for (int i = 0; i < otf.advanceWidth.length; i++) {
+            writeInt16(otf.advanceWidth[i], baos);
         }
+        sections[FontData.ADVANCE_WIDTHS] = baos.toByteArray();
+        sections[FontData.GLYPH_WIDTHS] = toByteArray(otf.glyphWidth);
+        sections[FontData.GLYPH_IDS] = toByteArray(otf.unicodeToGID);
 
-        if (OptimizeOTF.useZopfli) {
-            compressWithZopfli(fileName, fos, buf3, true);
+        if (zopfli) {
+            sections[FontData.PROGRAM] = compressWithZopfli(fileName, program);
         } else {
-            ByteArrayOutputStream buf4 = new ByteArrayOutputStream(0xFFFF);
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(0xFFFF);
             DeflaterOutputStream dos =
-                    new DeflaterOutputStream(buf4,
+                    new DeflaterOutputStream(buf,
                             new Deflater(Deflater.BEST_COMPRESSION));
-            dos.write(buf3, 0, buf3.length);
+            dos.write(program, 0, program.length);
             dos.finish();
-            writeInt32(buf3.length, fos);   // Uncompressed font size
-            writeInt32(buf4.size(), fos);   // Compressed font size
-            buf4.writeTo(fos);
+            sections[FontData.PROGRAM] = buf.toByteArray();
+        }
+
+        BufferedOutputStream fos =
+                new BufferedOutputStream(new FileOutputStream(fileName + ".stream"));
+        writeInt32(FontData.STREAM_MAGIC, fos);
+        writeInt32(FontData.STREAM_VERSION, fos);
+        writeInt32(otf.unitsPerEm, fos);
+        writeInt32(otf.bBoxLLx, fos);
+        writeInt32(otf.bBoxLLy, fos);
+        writeInt32(otf.bBoxURx, fos);
+        writeInt32(otf.bBoxURy, fos);
+        writeInt32(otf.ascent, fos);
+        writeInt32(otf.descent, fos);
+        writeInt32(otf.firstChar, fos);
+        writeInt32(otf.lastChar, fos);
+        writeInt32(otf.capHeight, fos);
+        writeInt32(otf.underlinePosition, fos);
+        writeInt32(otf.underlineThickness, fos);
+        writeInt32(otf.cff ? FontData.STREAM_CFF : 0, fos);
+        writeInt32(program.length, fos);    // Uncompressed font size
+
+        int offset = FontData.STREAM_HEADER_SIZE;
+        for (byte[] section : sections) {
+            writeInt32(offset, fos);
+            writeInt32(section.length, fos);
+            offset += align(section.length);
+        }
+        for (byte[] section : sections) {
+            fos.write(section);
+            for (int i = section.length; i < align(section.length); i++) {
+                fos.write(0);
+            }
         }
         fos.close();
     }
 
-    private static void compressWithZopfli(
-            String fileName,
-            BufferedOutputStream fos,
-            byte[] buf3,
-            boolean uncompressed) throws IOException {
+    private static int align(int length) {
+        return (length + 3) & ~3;
+    }
+
+    private static byte[] toByteArray(CodePointTable table) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+        DataOutputStream stream = new DataOutputStream(baos);
+        table.write(stream);
+        stream.flush();
+        return baos.toByteArray();
+    }
+
+    private static byte[] compressWithZopfli(
+            String fileName, byte[] buf3) throws IOException {
         BufferedOutputStream fos4 =
                 new BufferedOutputStream(new FileOutputStream(fileName + ".tmp"));
         fos4.write(buf3, 0, buf3.length);
@@ -148,12 +147,8 @@ public class OptimizeOTF {
         while ((len = input.read(buf)) != -1) {
             buf5.write(buf, 0, len);
         }
-        if (uncompressed) {
-            writeInt32(buf3.length, fos);   // Uncompressed font size
-        }
-        writeInt32(buf5.size(), fos);       // Compressed font size
-        buf5.writeTo(fos);
         new File(fileName + ".tmp").delete();
+        return buf5.toByteArray();
     }
 
     private static void writeInt16(int i, OutputStream stream) throws IOException {
@@ -161,12 +156,6 @@ public class OptimizeOTF {
         stream.write((i >>  0) & 0xff);
     }
 
-    private static void writeInt24(int i, OutputStream stream) throws IOException {
-        stream.write((i >> 16) & 0xff);
-        stream.write((i >>  8) & 0xff);
-        stream.write((i >>  0) & 0xff);
-    }
-
     private static void writeInt32(int i, OutputStream stream) throws IOException {
         stream.write((i >> 24) & 0xff);
         stream.write((i >> 16) & 0xff);
@@ -124,6 +124,7 @@ public class OptionalContentGroup {
 
             objNumber = page.pdf.getObjNumber();
 
+            page.ocgNumbers.add(ocgNumber);
             page.append("/OC /OC");
             page.append(ocgNumber);
             page.append(" BDC\n");
@@ -26,6 +26,7 @@ package com.pdfjet;
 import java.io.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 
 /**
@@ -39,15 +40,18 @@ public class PDF {
     protected int outputIntentObjNumber = 0;
     protected List<Font> fonts = new ArrayList<Font>();
     protected List<Image> images = new ArrayList<Image>();
+    protected Map<String, Font> fontsByKey = new HashMap<String, Font>();
+    protected Map<String, Image> imagesByDigest = new HashMap<String, Image>();
+    protected Set<Integer> usedObjNumbers = null;   // The fonts and images used on the pages
     protected List<Page> pages = new ArrayList<Page>();
     protected Map<String, Destination> destinations = new HashMap<String, Destination>();
     protected List<OptionalContentGroup> groups = new ArrayList<OptionalContentGroup>();
     protected Map<String, Integer> states = new HashMap<String, Integer>();
-    protected static final DecimalFormat df = new DecimalFormat("0.###", new DecimalFormatSymbols(Locale.US));
     protected int compliance = 0;
 
     private OutputStream os = null;
-    private final List<Integer> objOffset = new ArrayList<Integer>();
+    private final List<Long> objOffset = new ArrayList<Long>();
+    private final Map<Integer, Integer> objGeneration = new HashMap<Integer, Integer>();
     private String title = "";
     private String author = "";
     private String subject = "";
@@ -56,7 +60,26 @@ public class PDF {
     private String creator = producer;
     private String createDate;      // XMP metadata
     private String creationDate;    // PDF Info Object
-    private int byteCount = 0;
+    private long byteCount = 0L;
+    private final byte[] numBuf = new byte[NumberWriter.MAX_LENGTH];
+    private Deflater deflater = null;
+    private CompressionPolicy compressionPolicy = new CompressionPolicy();
+    private Executor executor = null;
+    private int maxPendingPages = 0;
+    private final LinkedList<PendingPage> pendingPages = new LinkedList<PendingPage>();
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private boolean useObjectStreams = false;
+    private boolean fontSubsetting = true;
+    private float imageResolution = 0f;
+    private int imageQuality = 0;
+    private Executor imageExecutor = null;
+    private OutputStream docOs = null;          // The document output while an object is captured
+    private ByteArrayOutputStream objBuf = null;
+    private long objStart = 0L;
+    private int compressedObjects = 0;
+    private int capturedObjNumber = 0;
+    private ObjectStream objectStream = null;
+    private final List<ObjectStream> objectStreams = new ArrayList<ObjectStream>();
     private int pagesObjNumber = 0;
     private String pageLayout = null;
     private String pageMode = null;
@@ -86,15 +109,15 @@ public class PDF {
 
     // Here is the layout of the PDF document:
     //
-    // Metadata Object
-    // Output Intent Object
-    // Fonts
-    // Images
-    // Resources Object
     // Content1
     // Content2
     // ...
     // ContentN
+    // Fonts
+    // Images
+    // Metadata Object
+    // Output Intent Object
+    // Resources Objects
     // Annot1
     // Annot2
     // ...
@@ -113,6 +136,11 @@ public class PDF {
     // Root
     // xref table
     // Trailer
+    //
+    // The object numbers of the fonts and images are reserved when they are created,
+    // the unused ones are free entries in the xref table.
+    // With object streams the dictionaries are written in ObjStm objects after the Root,
+    // followed by the XRef stream that replaces the xref table and the trailer.
     /**
      *  Creates a PDF object that represents a PDF document.
      *  Use this constructor to create PDF/A compliant PDF documents.
@@ -150,20 +178,105 @@ public class PDF {
     }
 
     protected void newobj() throws IOException {
+        writePendingPages(0);
+        if (canCaptureObjects()) {
+            objOffset.add(0L);
+            captureObject(objOffset.size());
+        } else {
+            beginObject();
+        }
+    }
+
+    private boolean canCaptureObjects() {
+        return useObjectStreams &&
+                compliance != Compliance.PDF_A_1A &&
+                compliance != Compliance.PDF_A_1B;
+    }
+
+    private void beginObject() throws IOException {
         objOffset.add(byteCount);
         append(objOffset.size());
         append(Token.newobj);
     }
 
     protected void endobj() throws IOException {
+        if (docOs != null) {
+            // The object has no stream, add it to the current object stream.
+            os = docOs;
+            docOs = null;
+            byteCount = objStart;
+            if (objectStream == null) {
+                objectStream = new ObjectStream();
+            }
+            objectStream.add(capturedObjNumber, objBuf);
+            if (objectStream.isFull()) {
+                objectStream.finish();
+                objectStreams.add(objectStream);
+                objectStream = null;
+            }
+            return;
+        }
         append(Token.endobj);
     }
 
-    protected int getObjNumber() {
+    // Writes the next object to memory until we know if it can go in an object stream.
+    // The negative offset -(n + 1) marks the n-th compressed object.
+    private void captureObject(int number) {
+        if (objBuf == null) {
+            objBuf = new ByteArrayOutputStream(1024);
+        }
+        objBuf.reset();
+        objStart = byteCount;
+        docOs = os;
+        os = objBuf;
+        compressedObjects++;
+        capturedObjNumber = number;
+        objOffset.set(number - 1, (long) -compressedObjects);
+    }
+
+    // Stream objects can't be compressed, so write the captured object to the document.
+    private void writeCapturedObject() throws IOException {
+        os = docOs;
+        docOs = null;
+        byteCount = objStart;
+        compressedObjects--;
+        objOffset.set(capturedObjNumber - 1, byteCount);
+        append(capturedObjNumber);
+        append(Token.newobj);
+        append(objBuf);
+    }
+
+    // Reserves an object number for an object that is written later with beginReservedObject.
+    // The numbers of the objects that are never written become free entries in the xref.
+    protected int reserveObjNumber() throws IOException {
+        writePendingPages(0);
+        objOffset.add(0L);
         return objOffset.size();
     }
 
+    protected void beginReservedObject(int number) throws IOException {
+        if (canCaptureObjects()) {
+            captureObject(number);
+            return;
+        }
+        objOffset.set(number - 1, byteCount);
+        append(number);
+        append(Token.newobj);
+    }
+
+    protected int getObjNumber() {
+        // Every pending page becomes one content object before the next object is written.
+        return objOffset.size() + pendingPages.size();
+    }
+
     protected int addMetadataObject(String notice, boolean fontMetadataObject) throws Exception {
+        int number = reserveObjNumber();
+        addMetadataObject(number, notice, fontMetadataObject);
+        return number;
+    }
+
+    protected void addMetadataObject(
+            int number, String notice, boolean fontMetadataObject) throws Exception {
         StringBuilder sb = new StringBuilder();
         sb.append("<?xpacket id=\"W5M0MpCehiHzreSzNTczkc9d\"?>\n");
         sb.append("<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"\n");
@@ -268,7 +381,7 @@ public class PDF {
         byte[] xml = sb.toString().getBytes("UTF-8");
 
         // This is the metadata object
-        newobj();
+        beginReservedObject(number);
         append(Token.beginDictionary);
         append("/Type /Metadata\n");
         append("/Subtype /XML\n");
@@ -280,8 +393,6 @@ public class PDF {
         append(xml, 0, xml.length);
         append(Token.endstream);
         endobj();
-
-        return getObjNumber();
     }
 
     protected int addOutputIntentObject() throws Exception {
@@ -317,13 +428,55 @@ public class PDF {
         return getObjNumber();
     }
 
-    private int addResourcesObject() throws Exception {
+    // The fonts and images are written after the page content,
+    // only the ones drawn on at least one page are added to the document.
+    private void addFontAndImageObjects() throws Exception {
+        usedObjNumbers = new HashSet<Integer>();
+        for (Page page : pages) {
+            usedObjNumbers.addAll(page.fontObjNumbers);
+            usedObjNumbers.addAll(page.imageObjNumbers);
+        }
+        for (Font font : fonts) {
+            if (usedObjNumbers.contains(font.objNumber)) {
+                font.embed(this);
+            }
+        }
+        for (Image image : images) {
+            if (usedObjNumbers.contains(image.objNumber)) {
+                image.embed(this);
+            }
+        }
+    }
+
+    // Each page gets a Resources dictionary with the fonts, images, optional content
+    // groups and graphics states drawn on the page. Pages that use the same resources
+    // share the dictionary. The resources imported from other PDFs are in every dictionary.
+    private void addResourcesObjects() throws Exception {
+        String[] gsStates = new String[states.size() + 1];
+        for (Map.Entry<String, Integer> entry : states.entrySet()) {
+            gsStates[entry.getValue()] = entry.getKey();
+        }
+        Map<String, Integer> dictionaries = new HashMap<String, Integer>();
+        for (Page page : pages) {
+            String key = page.fontObjNumbers + " " + page.imageObjNumbers + " " +
+                    page.ocgNumbers + " " + page.gsNumbers;
+            Integer number = dictionaries.get(key);
+            if (number == null) {
+                addResourcesObject(page, gsStates);
+                number = getObjNumber();
+                dictionaries.put(key, number);
+            }
+            page.resObjNumber = number;
+        }
+    }
+
+    private void addResourcesObject(Page page, String[] gsStates) throws Exception {
         newobj();
         append(Token.beginDictionary);
         if (!extGState.equals("")) {
             append(extGState);
         }
-        if (fonts.size() > 0 || importedFonts.size() > 0) {
+        if (page.fontObjNumbers.size() > 0 || importedFonts.size() > 0) {
             append("/Font\n");
             append(Token.beginDictionary);
             for (String token : importedFonts) {
@@ -334,55 +487,53 @@ public class PDF {
                     append(Token.space);
                 }
             }
-            for (Font font : fonts) {
+            for (Integer objNumber : page.fontObjNumbers) {
                 append("/F");
-                append(font.objNumber);
+                append(objNumber);
                 append(Token.space);
-                append(font.objNumber);
+                append(objNumber);
                 append(Token.objRef);
             }
             append(Token.endDictionary);
         }
-        if (images.size() > 0) {
+        if (page.imageObjNumbers.size() > 0) {
             append("/XObject\n");
             append(Token.beginDictionary);
-            for (Image image : images) {
+            for (Integer objNumber : page.imageObjNumbers) {
                 append("/Im");
-                append(image.objNumber);
+                append(objNumber);
                 append(Token.space);
-                append(image.objNumber);
+                append(objNumber);
                 append(Token.objRef);
             }
             append(Token.endDictionary);
         }
-        if (groups.size() > 0) {
+        if (page.ocgNumbers.size() > 0) {
             append("/Properties\n");
             append(Token.beginDictionary);
-            for (int i = 0; i < groups.size(); i++) {
-                OptionalContentGroup ocg = groups.get(i);
+            for (Integer ocgNumber : page.ocgNumbers) {
                 append("/OC");
-                append(i + 1);
+                append(ocgNumber);
                 append(Token.space);
-                append(ocg.objNumber);
+                append(groups.get(ocgNumber - 1).objNumber);
                 append(Token.objRef);
             }
             append(Token.endDictionary);
         }
         // String state = "/CA 0.5 /ca 0.5";
-        if (states.size() > 0) {
+        if (page.gsNumbers.size() > 0) {
             append("/ExtGState <<\n");
-            for (String state : states.keySet()) {
+            for (Integer gsNumber : page.gsNumbers) {
                 append("/GS");
-                append(states.get(state));
+                append(gsNumber);
                 append(" <<");
-                append(state);
+                append(gsStates[gsNumber]);
                 append(Token.endDictionary);
             }
             append(Token.endDictionary);
         }
         append(Token.endDictionary);
         endobj();
-        return getObjNumber();
     }
 
     private int addPagesObject() throws Exception {
@@ -652,7 +803,9 @@ public class PDF {
 
         append("/Pages ");
         append(pagesObjNumber);
-        append(Token.objRef);
+        append(Token.space);
+        append(getGeneration(pagesObjNumber));
+        append(" R\n");
 
         if (compliance == Compliance.PDF_UA ||
                 compliance == Compliance.PDF_A_1A ||
@@ -710,7 +863,7 @@ public class PDF {
         }
     }
 
-    private void addAllPages(int resObjNumber) throws Exception {
+    private void addAllPages() throws Exception {
         setDestinationObjNumbers();
         addAnnotDictionaries();
 
@@ -747,7 +900,7 @@ public class PDF {
             }
 
             append("/Resources ");
-            append(resObjNumber);
+            append(page.resObjNumber);
             append(Token.objRef);
 
             append("/Contents [ ");
@@ -784,10 +937,33 @@ public class PDF {
     }
 
     private void addPageContent(Page page) throws Exception {
+        addEvalMessage(page);
+        ContentBuffer content = page.takeContent();
+        int length = content.finish(getDeflater());
+        deflater.reset();
+        writePageContent(page, content, length);
+    }
+
+    private void writePageContent(
+            Page page, ContentBuffer content, int length) throws IOException {
+        beginObject();    // Must not write the other pending pages first
+        append(Token.beginDictionary);
+        append("/Filter /FlateDecode\n");
+        append(Token.length);
+        append(length);
+        append(Token.newline);
+        append(Token.endDictionary);
+        append(Token.stream);
+        content.writeCompressedTo(os);
+        byteCount += length;
+        append(Token.endstream);
+        endobj();
+        page.contents.add(objOffset.size());
+    }
+
+    private void addEvalMessage(Page page) throws Exception {
         if (eval && fonts.size() > 0) {
-            Font f1 = fonts.get(0);
-            float fontSize = f1.getSize();
-            f1.setSize(8.0f);
+            Font f1 = fonts.get(0).withSize(8.0f);
             float[] tm = page.tm;
             float[] brushColor = page.getBrushColor();
 
@@ -809,30 +985,79 @@ public class PDF {
                     20.0f);
 
             // Revert back to the original values:
-            f1.setSize(fontSize);
             page.tm = tm;
             page.setBrushColor(brushColor);
         }
+    }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DeflaterOutputStream dos = new DeflaterOutputStream(baos, new Deflater());
-        byte[] buf = page.buf.toByteArray();
-        dos.write(buf, 0, buf.length);
-        dos.finish();
-        page.buf = null;    // Release the page content memory!
+    // Hands the content of a completed page to the executor for compression.
+    // The compressed pages are written in page order, before any other object.
+    private void submitPageContent(Page page) throws Exception {
+        addEvalMessage(page);
+        final ContentBuffer content = page.takeContent();
+        if (content.isCompressed()) {
+            // The page was started before the executor was set.
+            writePendingPages(0);
+            int length = content.finish(null);
+            deflater.reset();
+            writePageContent(page, content, length);
+            return;
+        }
+
+        writePendingPages(maxPendingPages - 1);
+        final int level = compressionPolicy.getLevel(CompressionPolicy.CONTENT);
+        final int strategy = compressionPolicy.getStrategy(CompressionPolicy.CONTENT);
+        FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+            public Integer call() {
+                Deflater pageDeflater = deflaters.poll();
+                if (pageDeflater == null) {
+                    pageDeflater = new Deflater();
+                }
+                pageDeflater.setLevel(level);
+                pageDeflater.setStrategy(strategy);
+                try {
+                    return content.finish(pageDeflater);
+                } finally {
+                    pageDeflater.reset();
+                    deflaters.offer(pageDeflater);
+                }
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();     // The executor was shut down or is saturated.
+        }
+        pendingPages.add(new PendingPage(page, content, task));
+    }
+
+    // Writes the oldest pending pages until no more than maxPending are left.
+    private void writePendingPages(int maxPending) throws IOException {
+        while (pendingPages.size() > maxPending) {
+            PendingPage pending = pendingPages.removeFirst();
+            int length;
+            try {
+                length = pending.task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while compressing the page content.");
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to compress the page content.", e.getCause());
+            }
+            writePageContent(pending.page, pending.content, length);
+        }
+    }
 
-        newobj();
-        append(Token.beginDictionary);
-        append("/Filter /FlateDecode\n");
-        append(Token.length);
-        append(baos.size());
-        append(Token.newline);
-        append(Token.endDictionary);
-        append(Token.stream);
-        append(baos);
-        append(Token.endstream);
-        endobj();
-        page.contents.add(getObjNumber());
+    private static class PendingPage {
+        private final Page page;
+        private final ContentBuffer content;
+        private final FutureTask<Integer> task;
+
+        PendingPage(Page page, ContentBuffer content, FutureTask<Integer> task) {
+            this.page = page;
+            this.content = content;
+            this.task = task;
+        }
     }
 /*
     // Use this method on systems that don't have Deflater stream or when troubleshooting.
@@ -991,10 +1216,163 @@ public class PDF {
         }
     }
 
+    /**
+     *  Returns the deflater shared by the pages of this PDF.
+     *  Only the last page added to the PDF streams its content through the deflater,
+     *  so it is released as soon as the next page is added.
+     *
+     *  @return the deflater.
+     */
+    protected Deflater getDeflater() {
+        if (deflater == null) {
+            deflater = new Deflater();
+        }
+        return deflater;
+    }
+
+    /**
+     *  Creates the content buffer for a page that is added to this PDF.
+     *
+     *  @return the content buffer.
+     */
+    protected ContentBuffer newPageContent() {
+        int bufferSize = compressionPolicy.getBufferSize(CompressionPolicy.CONTENT);
+        if (executor != null) {
+            // Compressed later on the executor.
+            return new ContentBuffer(null, bufferSize);
+        }
+        Deflater pageDeflater = getDeflater();
+        compressionPolicy.configure(pageDeflater, CompressionPolicy.CONTENT);
+        return new ContentBuffer(pageDeflater, bufferSize);
+    }
+
+    /**
+     *  Sets the compression policy used for the streams created after this call.
+     *  The content of the current page is compressed with the previous settings.
+     *
+     *  @param compressionPolicy the compression policy.
+     */
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        if (compressionPolicy == null) {
+            throw new IllegalArgumentException("The compression policy must not be null.");
+        }
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     *  Returns the compression policy of this PDF.
+     *
+     *  @return the compression policy.
+     */
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     *  Writes the dictionary objects created after this call in compressed object streams,
+     *  and the cross-reference table as a cross-reference stream.
+     *  Reduces the size of documents with many fonts, annotations, pages and
+     *  structure elements. The output requires a PDF 1.5 or newer reader.
+     *  Ignored for PDF/A-1 documents, which don't allow object streams.
+     *
+     *  @param useObjectStreams true to use object streams.
+     */
+    public void setObjectStreams(boolean useObjectStreams) {
+        this.useObjectStreams = useObjectStreams;
+    }
+
+    /**
+     *  Embeds only the glyphs used in the document for the TrueType fonts
+     *  added after this call. The font programs are written when the PDF is completed.
+     *  Subsetting is on by default. CFF based OpenType fonts are always embedded in full.
+     *
+     *  @param fontSubsetting false to embed the complete font programs.
+     */
+    public void setFontSubsetting(boolean fontSubsetting) {
+        this.fontSubsetting = fontSubsetting;
+    }
+
+    protected boolean getFontSubsetting() {
+        return fontSubsetting;
+    }
+
+    /**
+     *  Downsamples the images that are drawn with a higher resolution than the specified
+     *  resolution. The images are resampled for the largest size at which they are drawn
+     *  and are written when the PDF is completed. JPEG images are not resampled.
+     *  Downsampling is off by default.
+     *
+     *  @param resolution the resolution in pixels per inch, or 0 to turn off downsampling.
+     *  @param jpegQuality the JPEG quality between 1 and 100 used for truecolor and
+     *                     8-bit grayscale images, or 0 to use the lossless
+     *                     Flate compression for all images.
+     */
+    public void setImageDownsampling(float resolution, int jpegQuality) {
+        if (resolution < 0f) {
+            throw new IllegalArgumentException("The resolution must not be negative.");
+        }
+        if (jpegQuality < 0 || jpegQuality > 100) {
+            throw new IllegalArgumentException("Invalid JPEG quality: " + jpegQuality);
+        }
+        this.imageResolution = resolution;
+        this.imageQuality = jpegQuality;
+    }
+
+    protected float getImageResolution() {
+        return imageResolution;
+    }
+
+    protected int getImageQuality() {
+        return imageQuality;
+    }
+
+    /**
+     *  Decodes and compresses the images added after this call on the specified executor.
+     *  Only the image header is read on the calling thread, the image can be drawn
+     *  on pages right away and its objects are written when the PDF is completed.
+     *  The output is identical to the output produced without an executor.
+     *  The executor is not shut down by this PDF.
+     *
+     *  @param executor the executor to use, or null to decode the images on the calling thread.
+     */
+    public void setImageDecodingExecutor(Executor executor) {
+        this.imageExecutor = executor;
+    }
+
+    protected Executor getImageDecodingExecutor() {
+        return imageExecutor;
+    }
+
+    /**
+     *  Compresses the content of completed pages on the specified executor,
+     *  while the next pages are being drawn on the calling thread.
+     *  The compressed pages are written in page order and the output is identical
+     *  to the output produced without an executor.
+     *  The executor is not shut down by this PDF.
+     *
+     *  @param executor the executor to use, or null to compress the pages on the calling thread.
+     *  @param maxPendingPages the maximum number of completed pages held in memory
+     *                         while they wait to be compressed and written.
+     *  @throws Exception  If an input or output exception occurred
+     */
+    public void setPageCompressionExecutor(
+            Executor executor, int maxPendingPages) throws Exception {
+        if (executor != null && maxPendingPages < 1) {
+            throw new IllegalArgumentException("maxPendingPages must be at least 1.");
+        }
+        writePendingPages(0);
+        this.executor = executor;
+        this.maxPendingPages = maxPendingPages;
+    }
+
     public void addPage(Page page) throws Exception {
         pages.add(page);
         if (prevPage != null) {
-            addPageContent(prevPage);
+            if (executor != null) {
+                submitPageContent(prevPage);
+            } else {
+                addPageContent(prevPage);
+            }
         }
         prevPage = page;
     }
@@ -1006,8 +1384,14 @@ public class PDF {
      */
     public void complete() throws Exception {
         if (prevPage != null) {
-            addPageContent(prevPage);
+            if (executor != null) {
+                submitPageContent(prevPage);
+            } else {
+                addPageContent(prevPage);
+            }
         }
+        writePendingPages(0);
+        addFontAndImageObjects();
         if (compliance == Compliance.PDF_UA ||
                 compliance == Compliance.PDF_A_1A ||
                 compliance == Compliance.PDF_A_1B ||
@@ -1020,7 +1404,8 @@ public class PDF {
         }
 
         if (pagesObjNumber == 0) {
-            addAllPages(addResourcesObject());
+            addResourcesObjects();
+            addAllPages();
             addPagesObject();
         }
 
@@ -1051,22 +1436,56 @@ public class PDF {
         int infoObjNumber = addInfoObject();
         int rootObjNumber = addRootObject(structTreeRootObjNumber, outlineDictNum);
 
-        int startxref = byteCount;
+        // The offsets in the xref table are limited to 10 digits.
+        if (useObjectStreams || compressedObjects > 0 || byteCount > 9999999999L) {
+            addObjectStreams();
+            addXRefStream(infoObjNumber, rootObjNumber);
+        } else {
+            addXRefTable(infoObjNumber, rootObjNumber);
+        }
+        append("%%EOF\n");
+
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        Deflater pooled;
+        while ((pooled = deflaters.poll()) != null) {
+            pooled.end();
+        }
+
+        os.close();
+    }
+
+    private void addXRefTable(int infoObjNumber, int rootObjNumber) throws Exception {
+        long startxref = byteCount;
 
         // Create the xref table
         append("xref\n");
         append("0 ");
         append(rootObjNumber + 1);
         append('\n');
-        append("0000000000 65535 f \n");
-        for (int i = 0; i < objOffset.size(); i++) {
-            int offset = objOffset.get(i);
-            String str = Integer.toString(offset);
+        int[] nextFree = getFreeList();
+        for (int i = 0; i <= objOffset.size(); i++) {
+            boolean free = (i == 0 || objOffset.get(i - 1) == 0L);
+            String str = Long.toString(free ? nextFree[i] : objOffset.get(i - 1));
             for (int j = 0; j < 10 - str.length(); j++) {
                 append('0');
             }
             append(str);
-            append(" 00000 n \n");
+            if (i == 0) {
+                append(" 65535 f \n");
+            } else if (free) {
+                append(" 00000 f \n");
+            } else {
+                str = Integer.toString(getGeneration(i));
+                append(Token.space);
+                for (int j = 0; j < 5 - str.length(); j++) {
+                    append('0');
+                }
+                append(str);
+                append(" n \n");
+            }
         }
         append("trailer\n");
         append(Token.beginDictionary);
@@ -1092,9 +1511,161 @@ public class PDF {
         append("startxref\n");
         append(startxref);
         append('\n');
-        append("%%EOF\n");
+    }
 
-        os.close();
+    // The copied objects keep the generation numbers they have in the source PDF,
+    // so the references to them stay valid.
+    private void setGeneration(int number, int generation) {
+        if (generation != 0) {
+            objGeneration.put(number, generation);
+        }
+    }
+
+    private int getGeneration(int number) {
+        Integer generation = objGeneration.get(number);
+        return (generation == null) ? 0 : generation;
+    }
+
+    // The free entries are linked, the entry of object 0 is the head of the list.
+    // The reserved objects of the unused fonts and images are never written.
+    private int[] getFreeList() {
+        int[] nextFree = new int[objOffset.size() + 1];
+        int last = 0;
+        for (int i = 1; i <= objOffset.size(); i++) {
+            if (objOffset.get(i - 1) == 0L) {
+                nextFree[last] = i;
+                last = i;
+            }
+        }
+        return nextFree;
+    }
+
+    private void addObjectStreams() throws Exception {
+        if (objectStream != null) {
+            objectStream.finish();
+            objectStreams.add(objectStream);
+            objectStream = null;
+        }
+        for (ObjectStream stream : objectStreams) {
+            beginObject();
+            stream.objNumber = objOffset.size();
+            byte[] data = stream.getData();
+            append(Token.beginDictionary);
+            append("/Type /ObjStm\n");
+            append("/N ");
+            append(stream.getCount());
+            append(Token.newline);
+            append("/First ");
+            append(stream.getFirst());
+            append(Token.newline);
+            append("/Filter /FlateDecode\n");
+            append(Token.length);
+            append(data.length);
+            append(Token.newline);
+            append(Token.endDictionary);
+            append(Token.stream);
+            append(data, 0, data.length);
+            append(Token.endstream);
+            endobj();
+        }
+    }
+
+    // See section 7.5.8 in PDF32000_2008.pdf
+    // Each entry is: type (1 byte), offset or object stream number (4 to 8 bytes),
+    // generation or index in the object stream (2 bytes).
+    // The entries are encoded with the PNG 'Up' predictor.
+    private void addXRefStream(int infoObjNumber, int rootObjNumber) throws Exception {
+        long startxref = byteCount;
+        objOffset.add(startxref);
+        int size = objOffset.size() + 1;
+
+        int w2 = 4;
+        while (w2 < 8 && (startxref >>> (8 * w2)) != 0) {
+            w2++;
+        }
+        int columns = w2 + 3;
+        int[] nextFree = getFreeList();
+        byte[] entries = new byte[size * (columns + 1)];
+        byte[] prev = new byte[columns];
+        byte[] entry = new byte[columns];
+        for (int i = 0; i < size; i++) {
+            if (i == 0) {
+                setXRefEntry(entry, w2, 0, nextFree[0], 65535);
+            } else {
+                long offset = objOffset.get(i - 1);
+                if (offset == 0L) {
+                    setXRefEntry(entry, w2, 0, nextFree[i], 0);
+                } else if (offset > 0) {
+                    setXRefEntry(entry, w2, 1, offset, getGeneration(i));
+                } else {
+                    int n = (int) (-offset - 1);
+                    ObjectStream stream = objectStreams.get(n / ObjectStream.MAX_OBJECTS);
+                    setXRefEntry(entry, w2, 2, stream.objNumber, n % ObjectStream.MAX_OBJECTS);
+                }
+            }
+            int j = i * (columns + 1);
+            entries[j] = 2;     // The 'Up' filter
+            for (int k = 0; k < columns; k++) {
+                entries[j + k + 1] = (byte) (entry[k] - prev[k]);
+            }
+            byte[] temp = prev;
+            prev = entry;
+            entry = temp;
+        }
+        byte[] data = Compressor.deflate(entries);
+
+        append(objOffset.size());
+        append(Token.newobj);
+        append(Token.beginDictionary);
+        append("/Type /XRef\n");
+        append("/Size ");
+        append(size);
+        append(Token.newline);
+        append("/W [1 ");
+        append(w2);
+        append(" 2]\n");
+
+        append("/ID[<");
+        append(uuid);
+        append("><");
+        append(uuid);
+        append(">]\n");
+
+        append("/Info ");
+        append(infoObjNumber);
+        append(" 0 R\n");
+
+        append("/Root ");
+        append(rootObjNumber);
+        append(" 0 R\n");
+
+        append("/Filter /FlateDecode\n");
+        append("/DecodeParms <</Columns ");
+        append(columns);
+        append(" /Predictor 12>>\n");
+        append(Token.length);
+        append(data.length);
+        append(Token.newline);
+        append(Token.endDictionary);
+        append(Token.stream);
+        append(data, 0, data.length);
+        append(Token.endstream);
+        endobj();
+
+        append("startxref\n");
+        append(startxref);
+        append('\n');
+    }
+
+    private static void setXRefEntry(
+            byte[] entry, int w2, int type, long field2, int field3) {
+        entry[0] = (byte) type;
+        for (int i = w2; i > 0; i--) {
+            entry[i] = (byte) field2;
+            field2 >>>= 8;
+        }
+        entry[w2 + 1] = (byte) (field3 >>> 8);
+        entry[w2 + 2] = (byte) field3;
     }
 
     /**
@@ -1146,11 +1717,15 @@ public class PDF {
     }
 
     protected void append(int num) throws IOException {
-        append(Integer.toString(num));
+        append(numBuf, 0, NumberWriter.write(num, numBuf, 0));
+    }
+
+    protected void append(long num) throws IOException {
+        append(numBuf, 0, NumberWriter.write(num, numBuf, 0));
     }
 
     protected void append(float val) throws IOException {
-        append(PDF.df.format(val));
+        append(numBuf, 0, NumberWriter.write(val, numBuf, 0));
     }
 
     protected void append(String str) throws IOException {
@@ -1171,6 +1746,9 @@ public class PDF {
     }
 
     protected void append(byte[] buf) throws IOException {
+        if (buf == Token.stream && docOs != null) {
+            writeCapturedObject();
+        }
         os.write(buf, 0, buf.length);
         byteCount += buf.length;
     }
@@ -1217,10 +1795,34 @@ public class PDF {
      *  @throws Exception  If an input or output exception occurred
      */
     public List<PDFobj> read(InputStream inputStream) throws Exception {
-        byte[] buf = Contents.getFromStream(inputStream);
+        return read(new ChunkedBuffer(Contents.getFromStream(inputStream)));
+    }
 
+    /**
+     *  Returns a list of objects of type PDFobj read from the specified file.
+     *  The file is memory mapped, so files larger than 2 GB can be read.
+     *  Only the cross-reference index is read up front. The objects are parsed
+     *  when they are first accessed in the list, and their streams are loaded and
+     *  decompressed when getData() is first called. The objects that are never
+     *  accessed are copied to the new PDF without being parsed.
+     *
+     *  @param fileName the name of the PDF file.
+     *
+     *  @return the list of PDF objects.
+     *  @throws Exception  If an input or output exception occurred
+     */
+    public List<PDFobj> read(String fileName) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            return new MappedObjectList(this, ChunkedBuffer.map(file.getChannel()));
+        } finally {
+            file.close();
+        }
+    }
+
+    private List<PDFobj> read(ChunkedBuffer buf) throws Exception {
         List<PDFobj> objects1 = new ArrayList<PDFobj>();
-        int xref = getStartXRef(buf);
+        long xref = getStartXRef(buf);
         PDFobj obj1 = getObject(buf, xref);
         if (obj1.dict.get(0).equals("xref")) {
             // Get the objects using xref table
@@ -1230,15 +1832,27 @@ public class PDF {
             getObjects2(buf, obj1, objects1);
         }
 
+        // Index the objects by object number, the newest version of an object is found first.
+        List<PDFobj> index = new ArrayList<PDFobj>();
+        for (PDFobj obj : objects1) {
+            while (index.size() < obj.number) {
+                index.add(null);
+            }
+            if (obj.number > 0 && index.get(obj.number - 1) == null) {
+                index.set(obj.number - 1, obj);
+            }
+        }
+
         List<PDFobj> objects2 = new ArrayList<PDFobj>();
         for (PDFobj obj : objects1) {
             if (obj.dict.contains("stream")) {
-                obj.setStreamAndData(buf, obj.getLength(objects1));
+                obj.setStreamAndData(buf, obj.getLength(index));
             }
 
             if (obj.getValue("/Type").equals("/ObjStm")) {
                 int first = Integer.parseInt(obj.getValue("/First"));
-                PDFobj o2 = getObject(obj.data, 0, first);
+                ChunkedBuffer data = new ChunkedBuffer(obj.data);
+                PDFobj o2 = getObject(data, 0, first);
                 int count = o2.dict.size();
                 for (int i = 0; i < count; i += 2) {
                     String num = o2.dict.get(i);
@@ -1247,7 +1861,7 @@ public class PDF {
                     if (i <= count - 4) {
                         end = first + Integer.parseInt(o2.dict.get(i + 3));
                     }
-                    PDFobj o3 = getObject(obj.data, first + off, end);
+                    PDFobj o3 = getObject(data, first + off, end);
                     o3.setNumber(Integer.parseInt(num));
                     o3.dict.add(0, "obj");
                     o3.dict.add(0, "0");
@@ -1264,125 +1878,26 @@ public class PDF {
         return getSortedObjects(objects2);
     }
 
-    private boolean process(
-            PDFobj obj, StringBuilder sb1, byte[] buf, int off) {
-        String str = sb1.toString().trim();
-        if (!str.equals("")) {
-            obj.dict.add(str);
-        }
-        sb1.setLength(0);
-        if (str.equals("endobj")) {
-            return true;
-        } else if (str.equals("stream")) {
-            obj.streamOffset = off;
-            if (buf[off] == '\n') {
-                obj.streamOffset += 1;
-            }
-            return true;
-        } else if (str.equals("startxref")) {
-            return true;
-        }
-        return false;
-    }
-
-    private PDFobj getObject(byte[] buf, int off) {
-        return getObject(buf, off, buf.length);
+    PDFobj getObject(ChunkedBuffer buf, long off) {
+        return getObject(buf, off, buf.length());
     }
 
-    private PDFobj getObject(byte[] buf, int off, int len) {
+    PDFobj getObject(ChunkedBuffer buf, long off, long len) {
         PDFobj obj = new PDFobj();
         obj.offset = off;
-        StringBuilder token = new StringBuilder();
-
-        int p = 0;
-        char c1 = ' ';
-        boolean done = false;
-        while (!done && off < len) {
-            char c2 = (char) buf[off++];
-            if (c1 == '\\') {
-                token.append(c2);
-                c1 = c2;
-                continue;
-            }
-
-            if (c2 == '(') {
-                if (p == 0) {
-                    done = process(obj, token, buf, off);
-                }
-                if (!done) {
-                    token.append(c2);
-                    c1 = c2;
-                    ++p;
-                }
-            } else if (c2 == ')') {
-                token.append(c2);
-                c1 = c2;
-                --p;
-                if (p == 0) {
-                    done = process(obj, token, buf, off);
-                }
-            } else if (c2 == 0x00         // Null
-                    || c2 == 0x09       // Horizontal Tab
-                    || c2 == 0x0A       // Line Feed (LF)
-                    || c2 == 0x0C       // Form Feed
-                    || c2 == 0x0D       // Carriage Return (CR)
-                    || c2 == 0x20) {    // Space
-                done = process(obj, token, buf, off);
-                if (!done) {
-                    c1 = ' ';
-                }
-            } else if (c2 == '/') {
-                done = process(obj, token, buf, off);
-                if (!done) {
-                    token.append(c2);
-                    c1 = c2;
-                }
-            } else if (c2 == '<' || c2 == '>' || c2 == '%') {
-                if (p > 0) {
-                    token.append(c2);
-                    c1 = c2;
-                } else {
-                    if (c2 != c1) {
-                        done = process(obj, token, buf, off);
-                        if (!done) {
-                            token.append(c2);
-                            c1 = c2;
-                        }
-                    } else {
-                        token.append(c2);
-                        done = process(obj, token, buf, off);
-                        if (!done) {
-                            c1 = ' ';
-                        }
-                    }
-                }
-            } else if (c2 == '[' || c2 == ']' || c2 == '{' || c2 == '}') {
-                if (p > 0) {
-                    token.append(c2);
-                    c1 = c2;
-                } else {
-                    done = process(obj, token, buf, off);
-                    if (!done) {
-                        obj.dict.add(String.valueOf(c2));
-                        c1 = c2;
-                    }
-                }
-            } else {
-                token.append(c2);
-                c1 = c2;
-            }
-        }
-
+        TokenList dict = new TokenList(Lexer.tokenize(buf, off, len));
+        obj.dict = dict;
+        obj.streamOffset = dict.getTokens().getStreamOffset();
         return obj;
     }
 
     /**
-     * Converts an array of bytes to an integer.
+     * Converts an array of bytes to a long.
      * @param buf byte[]
-     * @return int
+     * @return long
      */
-    private int toInt(byte[] buf, int off, int len) {
-        int i = 0;
+    private long toLong(byte[] buf, int off, int len) {
+        long i = 0L;
         for (int j = 0; j < len; j++) {
             i |= buf[off + j] & 0xFF;
             if (j < len - 1) {
@@ -1393,7 +1908,7 @@ public class PDF {
     }
 
     private void getObjects1(
-            byte[] buf,
+            ChunkedBuffer buf,
             PDFobj obj,
             List<PDFobj> objects) {
 
@@ -1401,7 +1916,7 @@ public class PDF {
         if (!xref.equals("")) {
             getObjects1(
                     buf,
-                    getObject(buf, Integer.parseInt(xref)),
+                    getObject(buf, Long.parseLong(xref)),
                     objects);
         }
 
@@ -1418,7 +1933,7 @@ public class PDF {
                 String number = obj.dict.get(i++);          // Generation number
                 String status = obj.dict.get(i++);          // Status keyword
                 if (!status.equals("f")) {
-                    PDFobj o2 = getObject(buf, Integer.parseInt(offset));
+                    PDFobj o2 = getObject(buf, Long.parseLong(offset));
                     // Avoid: java.lang.NumberFormatException: Invalid int: "%PDF-1.3"
                     if (o2.dict.get(0).startsWith("%PDF")) {
                         continue;
@@ -1432,7 +1947,7 @@ public class PDF {
     }
 
     private void getObjects2(
-            byte[] buf,
+            ChunkedBuffer buf,
             PDFobj obj,
             List<PDFobj> objects) throws Exception {
 
@@ -1440,7 +1955,7 @@ public class PDF {
         if (!prev.equals("")) {
             getObjects2(
                     buf,
-                    getObject(buf, Integer.parseInt(prev)),
+                    getObject(buf, Long.parseLong(prev)),
                     objects);
         }
 
@@ -1487,13 +2002,13 @@ public class PDF {
             // Page 51 in PDF32000_2008.pdf
             if (predictor > 0) {
                 if (entry[1] == 1) {    // Type 1 entry
-                    PDFobj o2 = getObject(buf, toInt(entry, 1 + n1, n2));
+                    PDFobj o2 = getObject(buf, toLong(entry, 1 + n1, n2));
                     o2.number = Integer.parseInt(o2.dict.get(0));
                     objects.add(o2);
                 }
             } else {
                 if (entry[0] == 1) {    // Type 1 entry
-                    PDFobj o2 = getObject(buf, toInt(entry, n1, n2));
+                    PDFobj o2 = getObject(buf, toLong(entry, n1, n2));
                     o2.number = Integer.parseInt(o2.dict.get(0));
                     objects.add(o2);
                 }
@@ -1501,30 +2016,30 @@ public class PDF {
         }
     }
 
-    private int getStartXRef(byte[] buf) {
+    long getStartXRef(ChunkedBuffer buf) {
         StringBuilder sb = new StringBuilder();
-        for (int i = (buf.length - 10); i > 10; i--) {
-            if (buf[i] == 's' &&
-                    buf[i + 1] == 't' &&
-                    buf[i + 2] == 'a' &&
-                    buf[i + 3] == 'r' &&
-                    buf[i + 4] == 't' &&
-                    buf[i + 5] == 'x' &&
-                    buf[i + 6] == 'r' &&
-                    buf[i + 7] == 'e' &&
-                    buf[i + 8] == 'f') {
+        for (long i = (buf.length() - 10); i > 10; i--) {
+            if (buf.get(i) == 's' &&
+                    buf.get(i + 1) == 't' &&
+                    buf.get(i + 2) == 'a' &&
+                    buf.get(i + 3) == 'r' &&
+                    buf.get(i + 4) == 't' &&
+                    buf.get(i + 5) == 'x' &&
+                    buf.get(i + 6) == 'r' &&
+                    buf.get(i + 7) == 'e' &&
+                    buf.get(i + 8) == 'f') {
                 i += 10;                // Skip over "startxref" and the first EOL character
-                while (buf[i] < 0x30) { // Skip over possible second EOL character and spaces
+                while (buf.get(i) < 0x30) { // Skip over possible second EOL character and spaces
                     i += 1;
                 }
-                while (Character.isDigit((char) buf[i])) {
-                    sb.append((char) buf[i]);
+                while (Character.isDigit((char) buf.get(i))) {
+                    sb.append((char) buf.get(i));
                     i += 1;
                 }
                 break;
             }
         }
-        return Integer.parseInt(sb.toString());
+        return Long.parseLong(sb.toString());
     }
 
     public int addOutlineDict(Bookmark toc) throws Exception {
@@ -1618,6 +2133,12 @@ public class PDF {
     }
 
     public PDFobj getPagesObject(List<PDFobj> objects) {
+        if (objects instanceof MappedObjectList) {
+            // Don't parse every object, follow the reference from the catalog.
+            int root = ((MappedObjectList) objects).getRootNumber();
+            List<Integer> pages = objects.get(root - 1).getObjectNumbers("/Pages");
+            return objects.get(pages.get(0) - 1);
+        }
         for (PDFobj obj : objects) {
             if (obj.getValue("/Type").equals("/Pages") && obj.getValue("/Parent").equals("")) {
                 return obj;
@@ -1723,12 +2244,11 @@ public class PDF {
     private List<PDFobj> getDescendantFonts(PDFobj font, List<PDFobj> objects) {
         List<PDFobj> descendantFonts = new ArrayList<PDFobj>();
         List<String> dict = font.getDict();
-        for (int i = 0; i < dict.size(); i++) {
-            if (dict.get(i).equals("/DescendantFonts")) {
-                String token = dict.get(i + 2);
-                if (!token.equals("]")) {
-                    descendantFonts.add(objects.get(Integer.parseInt(token) - 1));
-                }
+        int i = dict.indexOf("/DescendantFonts");
+        if (i != -1) {
+            String token = dict.get(i + 2);
+            if (!token.equals("]")) {
+                descendantFonts.add(objects.get(Integer.parseInt(token) - 1));
             }
         }
         return descendantFonts;
@@ -1736,11 +2256,10 @@ public class PDF {
 
     private PDFobj getObject(String name, PDFobj obj, List<PDFobj> objects) {
         List<String> dict = obj.getDict();
-        for (int i = 0; i < dict.size(); i++) {
-            if (dict.get(i).equals(name)) {
-                String token = dict.get(i + 1);
-                return objects.get(Integer.parseInt(token) - 1);
-            }
+        int i = dict.indexOf(name);
+        if (i != -1) {
+            String token = dict.get(i + 1);
+            return objects.get(Integer.parseInt(token) - 1);
         }
         return null;
     }
@@ -1785,60 +2304,79 @@ public class PDF {
     }
 
     private void addObjectsToPDF(List<PDFobj> objects) throws Exception {
-        for (PDFobj obj : objects) {
-            if (obj.offset == 0) {
-                // Create new object.
-                objOffset.add(byteCount);
-                append(obj.number);
-                append(Token.newobj);
-                if (obj.dict != null) {
-                    for (int i = 0; i < obj.dict.size(); i++) {
-                        append(obj.dict.get(i));
-                        append(Token.space);
-                    }
-                }
-                if (obj.stream != null) {
-                    if (obj.dict.size() == 0) {
-                        append("<< /Length ");
-                        append(obj.stream.length);
-                        append(" >>");
-                    }
-                    append(Token.newline);
-                    append(Token.stream);
-                    append(obj.stream, 0, obj.stream.length);
-                    append(Token.endstream);
-                }
-                append("endobj\n");
-            } else {
-                objOffset.add(byteCount);
-                // Uncomment to see the format of the objects.
-                // System.out.println(obj.dict);
-                boolean link = false;
-                int n = obj.dict.size();
-                String token = null;
-                for (int i = 0; i < n; i++) {
-                    token = obj.dict.get(i);
-                    append(token);
-                    if (token.startsWith("(http:")) {
-                        link = true;
-                    } else if (link && token.endsWith(")")) {
-                        link = false;
-                    }
-                    if (i < (n - 1)) {
-                        if (!link) {
-                            append(Token.space);
-                        }
+        writePendingPages(0);
+        if (objects instanceof MappedObjectList) {
+            MappedObjectList mapped = (MappedObjectList) objects;
+            for (int i = 0; i < mapped.size(); i++) {
+                if (mapped.isLoaded(i)) {
+                    addObjectToPDF(mapped.get(i));
+                } else {
+                    // Copy the objects we didn't touch without caching them.
+                    long offset = byteCount;
+                    if (mapped.copyObject(i, this)) {
+                        objOffset.add(offset);
+                        setGeneration(objOffset.size(), mapped.getGeneration(i));
                     } else {
-                        append(Token.newline);
+                        addObjectToPDF(mapped.parseObject(i));
                     }
                 }
-                if (obj.stream != null) {
-                    append(obj.stream, 0, obj.stream.length);
-                    append(Token.endstream);
+            }
+            return;
+        }
+        for (PDFobj obj : objects) {
+            addObjectToPDF(obj);
+        }
+    }
+
+    private void addObjectToPDF(PDFobj obj) throws Exception {
+        byte[] stream = obj.getStream();
+        if (obj.offset == 0) {
+            // Create new object.
+            objOffset.add(byteCount);
+            append(obj.number);
+            append(Token.newobj);
+            if (obj.dict != null) {
+                for (int i = 0; i < obj.dict.size(); i++) {
+                    append(obj.dict.get(i));
+                    append(Token.space);
                 }
-                if (!token.equals("endobj")) {
-                    append(Token.endobj);
+            }
+            if (stream != null) {
+                if (obj.dict.size() == 0) {
+                    append("<< /Length ");
+                    append(stream.length);
+                    append(" >>");
                 }
+                append(Token.newline);
+                append(Token.stream);
+                append(stream, 0, stream.length);
+                append(Token.endstream);
+            }
+            append("endobj\n");
+        } else {
+            objOffset.add(byteCount);
+            if (obj.dict.size() > 2 && obj.dict.get(2).equals("obj")) {
+                setGeneration(objOffset.size(), Integer.parseInt(obj.dict.get(1)));
+            }
+            // Uncomment to see the format of the objects.
+            // System.out.println(obj.dict);
+            int n = obj.dict.size();
+            String token = null;
+            for (int i = 0; i < n; i++) {
+                token = obj.dict.get(i);
+                append(token);
+                if (i < (n - 1)) {
+                    append(Token.space);
+                } else {
+                    append(Token.newline);
+                }
+            }
+            if (stream != null) {
+                append(stream, 0, stream.length);
+                append(Token.endstream);
+            }
+            if (!token.equals("endobj")) {
+                append(Token.endobj);
             }
         }
     }
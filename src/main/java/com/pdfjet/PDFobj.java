@@ -34,11 +34,13 @@ import java.util.List;
  */
 public class PDFobj {
     protected int number;           // The object number
-    protected int offset;           // The object offset
+    protected long offset;          // The object offset
     protected List<String> dict;
-    protected int streamOffset;
+    protected long streamOffset;
     protected byte[] stream;        // The compressed stream
     protected byte[] data;          // The decompressed data
+    protected ChunkedBuffer source; // The file the stream is loaded from on first access
+    protected int streamLength;
     protected int gsNumber = -1;
 
     /**
@@ -47,7 +49,7 @@ public class PDFobj {
      *  Also see Example_19.
      */
     protected PDFobj() {
-        this.dict = new ArrayList<String>();
+        this.dict = new TokenList();
     }
 
     public int getNumber() {
@@ -69,13 +71,39 @@ public class PDFobj {
      *  @return the uncompressed stream data.
      */
     public byte[] getData() {
+        if (this.data == null && this.source != null) {
+            byte[] stream = getStream();
+            try {
+                if (getValue("/Filter").equals("/FlateDecode")) {
+                    this.data = Decompressor.inflate(stream);
+                } else {
+                    this.data = stream;
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(
+                        "Could not decompress the stream of object " + number, e);
+            }
+        }
         return this.data;
     }
 
-    protected void setStreamAndData(byte[] buf, int length) throws Exception {
+    /**
+     *  Returns the compressed stream, loading it from the file if needed.
+     *
+     *  @return the stream or null if this is not a stream object.
+     */
+    protected byte[] getStream() {
+        if (this.stream == null && this.source != null) {
+            this.stream = new byte[streamLength];
+            source.get(streamOffset, stream, 0, streamLength);
+        }
+        return this.stream;
+    }
+
+    protected void setStreamAndData(ChunkedBuffer buf, int length) throws Exception {
         if (this.stream == null) {
             this.stream = new byte[length];
-            System.arraycopy(buf, streamOffset, stream, 0, length);
+            buf.get(streamOffset, stream, 0, length);
             if (getValue("/Filter").equals("/FlateDecode")) {
                 this.data = Decompressor.inflate(stream);
             } else {
@@ -102,92 +130,90 @@ public class PDFobj {
      *  @return the value.
      */
     public String getValue(String key) {
-        for (int i = 0; i < dict.size(); i++) {
-            if (dict.get(i).equals(key)) {
-                String token = dict.get(i + 1);
-                if (token.equals("<<")) {
-                    StringBuilder buffer = new StringBuilder();
-                    buffer.append("<< ");
-                    i += 2;
-                    while (!dict.get(i).equals(">>")) {
-                        buffer.append(dict.get(i));
-                        buffer.append(" ");
-                        i += 1;
-                    }
-                    buffer.append(">>");
-                    return buffer.toString();
-                } else if (token.equals("[")) {
-                    StringBuilder buffer = new StringBuilder();
-                    buffer.append("[ ");
-                    i += 2;
-                    while (!dict.get(i).equals("]")) {
-                        buffer.append(dict.get(i));
-                        buffer.append(" ");
-                        i += 1;
-                    }
-                    buffer.append("]");
-                    return buffer.toString();
-                } else {
-                    return token;
-                }
+        int i = dict.indexOf(key);
+        if (i == -1) {
+            return "";
+        }
+        String token = dict.get(i + 1);
+        if (token.equals("<<")) {
+            StringBuilder buffer = new StringBuilder();
+            buffer.append("<< ");
+            i += 2;
+            while (!dict.get(i).equals(">>")) {
+                buffer.append(dict.get(i));
+                buffer.append(" ");
+                i += 1;
+            }
+            buffer.append(">>");
+            return buffer.toString();
+        } else if (token.equals("[")) {
+            StringBuilder buffer = new StringBuilder();
+            buffer.append("[ ");
+            i += 2;
+            while (!dict.get(i).equals("]")) {
+                buffer.append(dict.get(i));
+                buffer.append(" ");
+                i += 1;
             }
+            buffer.append("]");
+            return buffer.toString();
         }
-        return "";
+        return token;
     }
 
     protected List<Integer> getObjectNumbers(String key) {
         List<Integer> numbers = new ArrayList<Integer>();
-        for (int i = 0; i < dict.size(); i++) {
-            String token = dict.get(i);
-            if (token.equals(key)) {
-                String str = dict.get(++i);
-                if (str.equals("[")) {
-                    while (true) {
-                        str = dict.get(++i);
-                        if (str.equals("]")) {
-                            break;
-                        }
-                        numbers.add(Integer.valueOf(str));
-                        ++i;    // 0
-                        ++i;    // R
+        int i = dict.indexOf(key);
+        if (i != -1) {
+            String str = dict.get(++i);
+            if (str.equals("[")) {
+                while (true) {
+                    str = dict.get(++i);
+                    if (str.equals("]")) {
+                        break;
                     }
-                } else {
                     numbers.add(Integer.valueOf(str));
+                    ++i;    // 0
+                    ++i;    // R
                 }
-                break;
+            } else {
+                numbers.add(Integer.valueOf(str));
             }
         }
         return numbers;
     }
 
     public float[] getPageSize() {
-        for (int i = 0; i < dict.size(); i++) {
-            if (dict.get(i).equals("/MediaBox")) {
-                return new float[] {
-                        Float.parseFloat(dict.get(i + 4)),
-                        Float.parseFloat(dict.get(i + 5)) };
-            }
+        int i = dict.indexOf("/MediaBox");
+        if (i != -1) {
+            return new float[] {
+                    Float.parseFloat(dict.get(i + 4)),
+                    Float.parseFloat(dict.get(i + 5)) };
         }
         return Letter.PORTRAIT;
     }
 
     protected int getLength(List<PDFobj> objects) {
-        for (int i = 0; i < dict.size(); i++) {
-            String token = dict.get(i);
-            if (token.equals("/Length")) {
-                int number = Integer.parseInt(dict.get(i + 1));
-                if (dict.get(i + 2).equals("0") &&
-                        dict.get(i + 3).equals("R")) {
-                    return getLength(objects, number);
-                } else {
-                    return number;
-                }
+        int i = dict.indexOf("/Length");
+        if (i != -1) {
+            int number = Integer.parseInt(dict.get(i + 1));
+            if (dict.get(i + 2).equals("0") &&
+                    dict.get(i + 3).equals("R")) {
+                return getLength(objects, number);
             }
+            return number;
         }
         return 0;
     }
 
     protected int getLength(List<PDFobj> objects, int number) {
+        // The objects are usually sorted by object number.
+        if (number > 0 && number <= objects.size()) {
+            PDFobj obj = objects.get(number - 1);
+            if (obj != null && obj.number == number) {
+                return Integer.parseInt(obj.dict.get(3));
+            }
+        }
         for (PDFobj obj : objects) {
             if (obj.number == number) {
                 return Integer.parseInt(obj.dict.get(3));
@@ -197,29 +223,27 @@ public class PDFobj {
     }
 
     public PDFobj getContentsObject(List<PDFobj> objects) {
-        for (int i = 0; i < dict.size(); i++) {
-            if (dict.get(i).equals("/Contents")) {
-                if (dict.get(i + 1).equals("[")) {
-                    String token = dict.get(i + 2);
-                    return objects.get(Integer.parseInt(token) - 1);
-                } else {
-                    String token = dict.get(i + 1);
-                    return objects.get(Integer.parseInt(token) - 1);
-                }
+        int i = dict.indexOf("/Contents");
+        if (i != -1) {
+            if (dict.get(i + 1).equals("[")) {
+                String token = dict.get(i + 2);
+                return objects.get(Integer.parseInt(token) - 1);
+            } else {
+                String token = dict.get(i + 1);
+                return objects.get(Integer.parseInt(token) - 1);
             }
         }
         return null;
     }
 
     public PDFobj getResourcesObject(List<PDFobj> objects) {
-        for (int i = 0; i < dict.size(); i++) {
-            if (dict.get(i).equals("/Resources")) {
-                String token = dict.get(i + 1);
-                if (token.equals("<<")) {
-                    return this;
-                }
-                return objects.get(Integer.parseInt(token) - 1);
+        int i = dict.indexOf("/Resources");
+        if (i != -1) {
+            String token = dict.get(i + 1);
+            if (token.equals("<<")) {
+                return this;
             }
+            return objects.get(Integer.parseInt(token) - 1);
         }
         return null;
     }
@@ -411,7 +435,7 @@ public class PDFobj {
                 } else {
                     // Single content object
                     PDFobj obj2 = objects.get(Integer.parseInt(token) - 1);
-                    if (obj2.data == null && obj2.stream == null) {
+                    if (obj2.getStream() == null) {
                         // This is not a stream object!
                         for (int j = 0; j < obj2.dict.size(); j++) {
                             if (obj2.dict.get(j).equals("]")) {
@@ -462,7 +486,7 @@ public class PDFobj {
                 } else {
                     // Single content object
                     PDFobj obj2 = objects.get(Integer.parseInt(token) - 1);
-                    if (obj2.data == null && obj2.stream == null) {
+                    if (obj2.getStream() == null) {
                         // This is not a stream object!
                         for (int j = 0; j < obj2.dict.size(); j++) {
                             if (obj2.dict.get(j).equals("[")) {
@@ -24,7 +24,6 @@ SOFTWARE.
 package com.pdfjet;
 
 import java.io.*;
-import java.util.*;
 import java.util.zip.*;
 
 /**
@@ -42,7 +41,7 @@ public class PNGImage {
     int w;                      // Image width in pixels
     int h;                      // Image height in pixels
 
-    byte[] iDAT;                // The compressed data in the IDAT chunks
+    byte[] iDAT;                // The compressed data in the IDAT chunks if used as is
     byte[] pLTE;                // The palette data
     byte[] tRNS;                // The alpha for the palette data
 
@@ -51,6 +50,22 @@ public class PNGImage {
 
     private byte bitDepth = 8;
     private byte colorType = 0;
+    private byte interlace = 0;
+    private boolean predicted;  // The IDAT data is used as is
+    private CompressionPolicy policy;
+
+    // The IDAT data is inflated and decoded one row at a time.
+    // Only the current row and the previous row are held in memory.
+    private Inflater inflater;
+    private byte[] row;         // The filter type followed by the row data
+    private byte[] prevRow;     // The previous row after the filter is reversed
+    private int rowLength;      // The number of bytes inflated into the row
+    private int rowCount;       // The number of decoded rows
+    private int bytesPerPixel;
+    private byte[] colorRow;    // The color data for indexed images and images with alpha
+    private byte[] alphaRow;
+    private StreamCompressor imageCompressor;
+    private StreamCompressor alphaCompressor;
 
     /**
      * Used to embed PNG images in the PDF document.
@@ -59,98 +74,92 @@ public class PNGImage {
      * @throws Exception  If an input or output exception occurred.
      */
     public PNGImage(InputStream inputStream) throws Exception {
+        this(inputStream, new CompressionPolicy());
+    }
+
+    /**
+     * Used to embed PNG images in the PDF document.
+     *
+     * @param inputStream the inputStream.
+     * @param policy the compression policy for the image data.
+     * @throws Exception  If an input or output exception occurred.
+     */
+    public PNGImage(InputStream inputStream, CompressionPolicy policy) throws Exception {
+        this(inputStream, policy, false);
+    }
+
+    /**
+     * Used to embed PNG images in the PDF document.
+     * When passthrough is true and the PDF FlateDecode filter can reverse the
+     * PNG predictors, the IDAT data is not decoded and getData() returns it as is.
+     *
+     * @param inputStream the inputStream.
+     * @param policy the compression policy for the image data.
+     * @param passthrough use the IDAT data without decoding it when possible.
+     * @throws Exception  If an input or output exception occurred.
+     */
+    PNGImage(
+            InputStream inputStream,
+            CompressionPolicy policy,
+            boolean passthrough) throws Exception {
+        this.policy = policy;
         validatePNG(inputStream);
 
-        List<Chunk> chunks = processPNG(inputStream);
-        for (int i = 0; i < chunks.size(); i++) {
-            Chunk chunk = chunks.get(i);
-            String chunkType = new String(chunk.type);
-            if (chunkType.equals("IHDR")) {
-                this.w = toIntValue(chunk.getData(), 0);    // Width
-                this.h = toIntValue(chunk.getData(), 4);    // Height
-                this.bitDepth = chunk.getData()[8];         // Bit Depth
-                this.colorType = chunk.getData()[9];        // Color Type
-                // System.out.println(
-                //         "Bit Depth == " + chunk.getData()[8]);
-                // System.out.println(
-                //         "Color Type == " + chunk.getData()[9]);
-                // System.out.println(chunk.getData()[10]);
-                // System.out.println(chunk.getData()[11]);
-                // System.out.println(chunk.getData()[12]);
-                if (chunk.getData()[12] == 1) {
-                    System.out.println("Interlaced PNG images are not supported.\nConvert the image using OptiPNG:\noptipng -i0 -o7 myimage.png\n");
-                }
-            } else if (chunkType.equals("IDAT")) {
-                iDAT = appendIdatChunk(iDAT, chunk.getData());
-            } else if (chunkType.equals("PLTE")) {
-                pLTE = chunk.getData();
-                if (pLTE.length % 3 != 0) {
-                    throw new Exception("Incorrect palette length.");
-                }
-            } else if (chunkType.equals("gAMA")) {
-                // System.out.println("gAMA chunk found!");
-            } else if (chunkType.equals("tRNS")) {
-                if (colorType == 3) {
-                    tRNS = chunk.getData();
+        ByteArrayOutputStream predictedData = null;
+        try {
+            while (true) {
+                Chunk chunk = getChunk(inputStream);
+                String chunkType = new String(chunk.type);
+                if (chunkType.equals("IEND")) {
+                    break;
+                } else if (chunkType.equals("IHDR")) {
+                    this.w = toIntValue(chunk.getData(), 0);    // Width
+                    this.h = toIntValue(chunk.getData(), 4);    // Height
+                    this.bitDepth = chunk.getData()[8];         // Bit Depth
+                    this.colorType = chunk.getData()[9];        // Color Type
+                    this.interlace = chunk.getData()[12];       // Interlace Method
+                    if (this.interlace == 1) {
+                        System.out.println("Interlaced PNG images are not supported.\nConvert the image using OptiPNG:\noptipng -i0 -o7 myimage.png\n");
+                    }
+                } else if (chunkType.equals("IDAT")) {
+                    // The IHDR, PLTE and tRNS chunks precede the first IDAT chunk.
+                    if (predictedData == null && inflater == null) {
+                        if (passthrough && isPredictable()) {
+                            predictedData = new ByteArrayOutputStream();
+                        } else {
+                            startDecoding();
+                        }
+                    }
+                    if (predictedData != null) {
+                        predictedData.write(chunk.getData());
+                    } else {
+                        decode(chunk.getData());
+                    }
+                } else if (chunkType.equals("PLTE")) {
+                    pLTE = chunk.getData();
+                    if (pLTE.length % 3 != 0) {
+                        throw new Exception("Incorrect palette length.");
+                    }
+                } else if (chunkType.equals("tRNS")) {
+                    if (colorType == 3) {
+                        tRNS = chunk.getData();
+                    }
                 }
-            } else if (chunkType.equals("cHRM")) {
-                // System.out.println("cHRM chunk found!");
-            } else if (chunkType.equals("sBIT")) {
-                // System.out.println("sBIT chunk found!");
-            } else if (chunkType.equals("bKGD")) {
-                // System.out.println("bKGD chunk found!");
             }
-        }
 
-        byte[] inflatedImageData = Decompressor.inflate(iDAT);
-        byte[] image;
-        if (colorType == 0) {
-            // Grayscale Image
-            if (bitDepth == 16) {
-                image = getImageColorType0BitDepth16(inflatedImageData);
-            } else if (bitDepth == 8) {
-                image = getImageColorType0BitDepth8(inflatedImageData);
-            } else if (bitDepth == 4) {
-                image = getImageColorType0BitDepth4(inflatedImageData);
-            } else if (bitDepth == 2) {
-                image = getImageColorType0BitDepth2(inflatedImageData);
-            } else if (bitDepth == 1) {
-                image = getImageColorType0BitDepth1(inflatedImageData);
-            } else {
-                throw new Exception("Image with unsupported bit depth == " + bitDepth);
-            }
-        } else if (colorType == 6) {
-            if (bitDepth == 8) {
-                image = getImageColorType6BitDepth8(inflatedImageData);
+            if (predictedData != null) {
+                // The PNG predictors are reversed by the PDF viewer.
+                iDAT = predictedData.toByteArray();
+                deflatedImageData = iDAT;
+                predicted = true;
+            } else if (inflater != null) {
+                finishDecoding();
             } else {
-                throw new Exception("Image with unsupported bit depth == " + bitDepth);
-            }
-        } else {
-            // Color Image
-            if (pLTE == null) {
-                // Trucolor Image
-                if (bitDepth == 16) {
-                    image = getImageColorType2BitDepth16(inflatedImageData);
-                } else {
-                    image = getImageColorType2BitDepth8(inflatedImageData);
-                }
-            } else {
-                // Indexed Image
-                if (bitDepth == 8) {
-                    image = getImageColorType3BitDepth8(inflatedImageData);
-                } else if (bitDepth == 4) {
-                    image = getImageColorType3BitDepth4(inflatedImageData);
-                } else if (bitDepth == 2) {
-                    image = getImageColorType3BitDepth2(inflatedImageData);
-                } else if (bitDepth == 1) {
-                    image = getImageColorType3BitDepth1(inflatedImageData);
-                } else {
-                    throw new Exception("Image with unsupported bit depth == " + bitDepth);
-                }
+                throw new Exception("The image has no IDAT chunks.");
             }
+        } finally {
+            endDecoding();
         }
-
-        deflatedImageData = Compressor.deflate(image);
     }
 
     public int getWidth() {
@@ -177,483 +186,304 @@ public class PNGImage {
         return this.deflatedAlphaData;
     }
 
-    private List<Chunk> processPNG(InputStream inputStream) throws Exception {
-        List<Chunk> chunks = new ArrayList<Chunk>();
-        while (true) {
-            Chunk chunk = getChunk(inputStream);
-            if ((new String(chunk.type)).equals("IEND")) {
-                break;
-            }
-            chunks.add(chunk);
-        }
-        return chunks;
-    }
-
-    private void validatePNG(InputStream stream) throws Exception {
-        byte[] buf = new byte[8];
-        if (stream.read(buf, 0, buf.length) == -1) {
-            throw new Exception("File is too short!");
-        }
-        if ((buf[0] & 0xFF) == 0x89 &&
-                buf[1] == 0x50 &&
-                buf[2] == 0x4E &&
-                buf[3] == 0x47 &&
-                buf[4] == 0x0D &&
-                buf[5] == 0x0A &&
-                buf[6] == 0x1A &&
-                buf[7] == 0x0A) {
-            // The PNG signature is correct.
-        } else {
-            throw new Exception("Wrong PNG signature.");
-        }
+    /**
+     * Returns true if getData() returns the IDAT data, that must be decoded
+     * with the PNG predictors: /DecodeParms << /Predictor 15 ... >>
+     *
+     * @return true if the image data is predicted.
+     */
+    boolean isPredicted() {
+        return this.predicted;
     }
 
-    private Chunk getChunk(InputStream inputStream) throws Exception {
-        Chunk chunk = new Chunk();
-        chunk.length = getLong(inputStream);                // The length of the data chunk.
-        chunk.type = getNBytes(inputStream, 4);             // The chunk type.
-        chunk.data = getNBytes(inputStream, chunk.length);  // The chunk data.
-        chunk.crc = getLong(inputStream);                   // CRC of the type and data chunks.
-
-        CRC32 crc = new CRC32();
-        crc.update(chunk.type, 0, 4);
-        crc.update(chunk.data, 0, (int) chunk.length);
-        if (crc.getValue() != chunk.crc) {
-            throw new Exception("Chunk has bad CRC.");
-        }
-        return chunk;
+    /**
+     * Returns the number of color components per pixel in the image data.
+     *
+     * @return 1 for grayscale and indexed images, 3 for truecolor images.
+     */
+    int getColors() {
+        return (colorType == 2) ? 3 : 1;
     }
 
-    private long getLong(InputStream inputStream) throws Exception {
-        byte[] buf = getNBytes(inputStream, 4);
-        return (toIntValue(buf, 0) & 0x00000000ffffffffL);
+    /**
+     * Returns the palette of an indexed image.
+     *
+     * @return the RGB palette or null.
+     */
+    byte[] getPalette() {
+        return (colorType == 3) ? this.pLTE : null;
     }
 
-    private byte[] getNBytes(InputStream inputStream, long length) throws Exception {
-        byte[] buf = new byte[(int) length];
-        if (inputStream.read(buf, 0, buf.length) == -1) {
-            throw new Exception("Error reading input stream!");
+    // Non-interlaced images without alpha channel and with bit depths
+    // that are supported by the PDF image XObjects.
+    private boolean isPredictable() {
+        if (interlace != 0) {
+            return false;
         }
-        return buf;
-    }
-
-    private int toIntValue(byte[] buf, int off) {
-        return (buf[off] & 0xff) << 24 |
-                (buf[off + 1] & 0xff) << 16 |
-                (buf[off + 2] & 0xff) << 8 |
-                (buf[off + 3] & 0xff);
-    }
-
-    // Truecolor Image with Bit Depth == 16
-    private byte[] getImageColorType2BitDepth16(byte[] buf) {
-        byte[] image = new byte[buf.length - this.h];
-        byte[] filters = new byte[this.h];
-        int bytesPerLine = 6 * this.w + 1;
-        int k = 0;
-        int j = 0;
-        for (int i = 0; i < buf.length; i++) {
-            if (i % bytesPerLine == 0) {
-                filters[j++] = buf[i];
-            } else {
-                image[k++] = buf[i];
-            }
+        if (colorType == 0) {
+            return bitDepth == 1 || bitDepth == 2 || bitDepth == 4 ||
+                    bitDepth == 8 || bitDepth == 16;
+        } else if (colorType == 2) {
+            return bitDepth == 8 || bitDepth == 16;
+        } else if (colorType == 3) {
+            return pLTE != null && tRNS == null &&
+                    (bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8);
         }
-        applyFilters(filters, image, this.w, this.h, 6);
-        return image;
+        return false;
     }
 
-    // Truecolor Image with Bit Depth == 8
-    private byte[] getImageColorType2BitDepth8(byte[] buf) {
-        byte[] image = new byte[buf.length - this.h];
-        byte[] filters = new byte[this.h];
-        int bytesPerLine = 3 * this.w + 1;
-        int k = 0;
-        int j = 0;
-        for (int i = 0; i < buf.length; i++) {
-            if (i % bytesPerLine == 0) {
-                filters[j++] = buf[i];
-            } else {
-                image[k++] = buf[i];
+    private void startDecoding() throws Exception {
+        int channels;
+        boolean supported;
+        if (colorType == 0) {           // Grayscale
+            channels = 1;
+            supported = bitDepth == 1 || bitDepth == 2 || bitDepth == 4 ||
+                    bitDepth == 8 || bitDepth == 16;
+        } else if (colorType == 2) {    // Truecolor
+            channels = 3;
+            supported = bitDepth == 8 || bitDepth == 16;
+        } else if (colorType == 3) {    // Indexed
+            if (pLTE == null) {
+                throw new Exception("The palette of the indexed image is missing.");
             }
-        }
-        applyFilters(filters, image, this.w, this.h, 3);
-        return image;
-    }
-
-    // Truecolor Image with Alpha Transparency
-    private byte[] getImageColorType6BitDepth8(byte[] buf) {
-        byte[] idata = new byte[3 * this.w * this.h];   // Image data
-        byte[] alpha = new byte[this.w * this.h];       // Alpha values
-        byte[] image = new byte[4 * this.w * this.h];
-        byte[] filters = new byte[this.h];
-        int bytesPerLine = 4 * this.w + 1;
-        int k = 0;
-        int j = 0;
-        int i = 0;
-        for (; i < buf.length; i++) {
-            if (i % bytesPerLine == 0) {
-                filters[j++] = buf[i];
-            } else {
-                image[k++] = buf[i];
+            channels = 1;
+            supported = bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8;
+            colorRow = new byte[3 * w];
+            if (tRNS != null) {
+                alphaRow = new byte[w];
             }
+        } else if (colorType == 4) {    // Grayscale with alpha
+            channels = 2;
+            supported = bitDepth == 8;
+            colorRow = new byte[w];
+            alphaRow = new byte[w];
+        } else if (colorType == 6) {    // Truecolor with alpha
+            channels = 4;
+            supported = bitDepth == 8;
+            colorRow = new byte[3 * w];
+            alphaRow = new byte[w];
+        } else {
+            throw new Exception("Image with unsupported color type == " + colorType);
         }
-        applyFilters(filters, image, this.w, this.h, 4);
-        k = 0;
-        j = 0;
-        i = 0;
-        while (i < image.length) {
-            idata[j++] = image[i++];
-            idata[j++] = image[i++];
-            idata[j++] = image[i++];
-            alpha[k++] = image[i++];
+        if (!supported) {
+            throw new Exception("Image with unsupported bit depth == " + bitDepth);
         }
-        deflatedAlphaData = Compressor.deflate(alpha);
-        return idata;
-    }
 
-    // Indexed-color image with bit depth == 8
-    // Each value is a palette index; a PLTE chunk shall appear.
-    private byte[] getImageColorType3BitDepth8(byte[] buf) {
-        byte[] image = new byte[3 * (this.w * this.h)];
-        byte[] filters = new byte[this.h];
-        byte[] alpha = null;
-        if (tRNS != null) {
-            alpha = new byte[this.w * this.h];
-            Arrays.fill(alpha, (byte) 0xff);
+        int bytesPerRow = (int) (((long) w * channels * bitDepth + 7) / 8);
+        row = new byte[1 + bytesPerRow];
+        prevRow = new byte[1 + bytesPerRow];
+        bytesPerPixel = Math.max(1, channels * bitDepth / 8);
+        inflater = new Inflater();
+        imageCompressor = new StreamCompressor(policy, CompressionPolicy.IMAGES);
+        if (alphaRow != null) {
+            alphaCompressor = new StreamCompressor(policy, CompressionPolicy.IMAGES);
         }
+    }
 
-        int bytesPerLine = this.w + 1;
-        int m = 0;
-        int n = 0;
-        int j = 0;
-        for (int i = 0; i < buf.length; i++) {
-            if (i % bytesPerLine == 0) {
-                filters[m++] = buf[i];
-            } else {
-                int k = ((int) buf[i]) & 0xff;
-                if (tRNS != null && k < tRNS.length) {
-                    alpha[n] = tRNS[k];
+    private void decode(byte[] data) throws Exception {
+        inflater.setInput(data);
+        while (rowCount < h) {
+            int count = inflater.inflate(row, rowLength, row.length - rowLength);
+            if (count == 0) {
+                if (inflater.needsDictionary()) {
+                    throw new Exception("Invalid IDAT data.");
+                }
+                if (inflater.needsInput() || inflater.finished()) {
+                    break;
                 }
-                n++;
-                image[j++] = pLTE[3*k];
-                image[j++] = pLTE[3*k + 1];
-                image[j++] = pLTE[3*k + 2];
             }
-        }
-        applyFilters(filters, image, this.w, this.h, 3);
-        if (tRNS != null) {
-            deflatedAlphaData = Compressor.deflate(alpha);
-        }
-
-        return image;
-    }
-
-    // Indexed Image with Bit Depth == 4
-    private byte[] getImageColorType3BitDepth4(byte[] buf) {
-        byte[] image = new byte[6 * (buf.length - this.h)];
-        int bytesPerLine = this.w / 2 + 1;
-        if (this.w % 2 > 0) {
-            bytesPerLine += 1;
-        }
-
-        int k = 0;
-        int j = 0;
-        for (int i = 0; i < buf.length; i++) {
-            if (i % bytesPerLine == 0) {
-                // Skip the filter byte.
-                continue;
+            rowLength += count;
+            if (rowLength == row.length) {
+                decodeRow();
+                rowLength = 0;
             }
-
-            int l = buf[i];
-            k = 3 * ((l >> 4) & 0x0000000f);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
-
-            if (j % (3 * this.w) == 0) continue;
-            k = 3 * (l & 0x0000000f);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
         }
-
-        return image;
     }
 
-    // Indexed Image with Bit Depth == 2
-    private byte[] getImageColorType3BitDepth2(byte[] buf) {
-        byte[] image = new byte[12 * (buf.length - this.h)];
-        int bytesPerLine = this.w / 4 + 1;
-        if (this.w % 4 > 0) {
-            bytesPerLine += 1;
+    private void finishDecoding() throws Exception {
+        if (rowCount < h) {
+            throw new Exception("The image data is incomplete.");
         }
-
-        int j = 0;
-        int k;
-        for (int i = 0; i < buf.length; i++) {
-            if (i % bytesPerLine == 0) {
-                // Skip the filter byte.
-                continue;
-            }
-
-            int l = buf[i];
-
-            k = 3 * ((l >> 6) & 0x00000003);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
-
-            if (j % (3 * this.w) == 0) continue;
-
-            k = 3 * ((l >> 4) & 0x00000003);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
-
-            if (j % (3 * this.w) == 0) continue;
-
-            k = 3 * ((l >> 2) & 0x00000003);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
-
-            if (j % (3 * this.w) == 0) continue;
-
-            k = 3 * (l & 0x00000003);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
+        deflatedImageData = imageCompressor.finish();
+        if (alphaCompressor != null) {
+            deflatedAlphaData = alphaCompressor.finish();
         }
-
-        return image;
+        row = null;
+        prevRow = null;
+        colorRow = null;
+        alphaRow = null;
     }
 
-    // Indexed Image with Bit Depth == 1
-    private byte[] getImageColorType3BitDepth1(byte[] buf) {
-        byte[] image = new byte[24 * (buf.length - this.h)];
-        int bytesPerLine = this.w / 8 + 1;
-        if (this.w % 8 > 0) {
-            bytesPerLine += 1;
+    // Releases the native memory of the inflater and the deflaters,
+    // also when the image data is invalid.
+    private void endDecoding() {
+        if (inflater != null) {
+            inflater.end();
         }
-
-        int k;
-        int j = 0;
-        for (int i = 0; i < buf.length; i++) {
-            if (i % bytesPerLine == 0) {
-                // Skip the filter byte.
-                continue;
-            }
-
-            int l = buf[i];
-
-            k = 3 * ((l >> 7) & 0x00000001);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
-
-            if (j % (3 * this.w) == 0) continue;
-
-            k = 3 * ((l >> 6) & 0x00000001);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
-
-            if (j % (3 * this.w) == 0) continue;
-
-            k = 3 * ((l >> 5) & 0x00000001);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
-
-            if (j % (3 * this.w) == 0) continue;
-
-            k = 3 * ((l >> 4) & 0x00000001);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
-
-            if (j % (3 * this.w) == 0) continue;
-
-            k = 3 * ((l >> 3) & 0x00000001);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
-
-            if (j % (3 * this.w) == 0) continue;
-
-            k = 3 * ((l >> 2) & 0x00000001);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
-
-            if (j % (3 * this.w) == 0) continue;
-
-            k = 3 * ((l >> 1) & 0x00000001);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
-
-            if (j % (3 * this.w) == 0) continue;
-
-            k = 3 * (l & 0x00000001);
-            image[j++] = pLTE[k];
-            image[j++] = pLTE[k + 1];
-            image[j++] = pLTE[k + 2];
+        if (imageCompressor != null) {
+            imageCompressor.end();
+            imageCompressor = null;
         }
-
-        return image;
-    }
-
-    // Grayscale Image with Bit Depth == 16
-    private byte[] getImageColorType0BitDepth16(byte[] buf) {
-        byte[] image = new byte[buf.length - this.h];
-        byte[] filters = new byte[this.h];
-        int bytesPerLine = 2 * this.w + 1;
-        int k = 0;
-        int j = 0;
-        for (int i = 0; i < buf.length; i++) {
-            if (i % bytesPerLine == 0) {
-                filters[j] = buf[i];
-                j += 1;
-            } else {
-                image[k] = buf[i];
-                k += 1;
-            }
+        if (alphaCompressor != null) {
+            alphaCompressor.end();
+            alphaCompressor = null;
         }
-        applyFilters(filters, image, this.w, this.h, 2);
-        return image;
     }
 
-    // Grayscale Image with Bit Depth == 8
-    private byte[] getImageColorType0BitDepth8(byte[] buf) {
-        byte[] image = new byte[buf.length - this.h];
-        byte[] filters = new byte[this.h];
-        int bytesPerLine = this.w + 1;
-        int k = 0;
-        int j = 0;
-        for (int i = 0; i < buf.length; i++) {
-            if (i % bytesPerLine == 0) {
-                filters[j++] = buf[i];
-            } else {
-                image[k++] = buf[i];
+    private void decodeRow() throws Exception {
+        applyFilter(row, prevRow, bytesPerPixel);
+        if (colorType == 0 || colorType == 2) {
+            imageCompressor.write(row, 1, row.length - 1);
+        } else if (colorType == 3) {
+            int mask = (1 << bitDepth) - 1;
+            for (int x = 0; x < w; x++) {
+                int bit = x * bitDepth;
+                int k = ((row[1 + (bit >> 3)] & 0xff) >> (8 - bitDepth - (bit & 7))) & mask;
+                if (3*k + 2 < pLTE.length) {
+                    colorRow[3*x] = pLTE[3*k];
+                    colorRow[3*x + 1] = pLTE[3*k + 1];
+                    colorRow[3*x + 2] = pLTE[3*k + 2];
+                } else {
+                    colorRow[3*x] = 0;
+                    colorRow[3*x + 1] = 0;
+                    colorRow[3*x + 2] = 0;
+                }
+                if (alphaRow != null) {
+                    alphaRow[x] = (k < tRNS.length) ? tRNS[k] : (byte) 0xff;
+                }
+            }
+            imageCompressor.write(colorRow, 0, colorRow.length);
+        } else if (colorType == 4) {
+            for (int x = 0; x < w; x++) {
+                colorRow[x] = row[1 + 2*x];
+                alphaRow[x] = row[2 + 2*x];
             }
+            imageCompressor.write(colorRow, 0, colorRow.length);
+        } else {
+            for (int x = 0; x < w; x++) {
+                colorRow[3*x] = row[1 + 4*x];
+                colorRow[3*x + 1] = row[2 + 4*x];
+                colorRow[3*x + 2] = row[3 + 4*x];
+                alphaRow[x] = row[4 + 4*x];
+            }
+            imageCompressor.write(colorRow, 0, colorRow.length);
+        }
+        if (alphaCompressor != null) {
+            alphaCompressor.write(alphaRow, 0, alphaRow.length);
         }
-        applyFilters(filters, image, this.w, this.h, 1);
-        return image;
+
+        byte[] temp = prevRow;
+        prevRow = row;
+        row = temp;
+        rowCount++;
     }
 
-    // Grayscale Image with Bit Depth == 4
-    private byte[] getImageColorType0BitDepth4(byte[] buf) {
-        byte[] image = new byte[buf.length - this.h];
-        int bytesPerLine = this.w / 2 + 1;
-        if (this.w % 2 > 0) {
-            bytesPerLine += 1;
+    /**
+     * Reverses the filter of a row of the image data.
+     * The previous row of the first row is all zeros.
+     *
+     * @param row the filter type followed by the filtered row.
+     * @param prevRow the previous row, with the filter already reversed.
+     * @param bytesPerPixel the number of bytes per complete pixel, at least 1.
+     * @throws Exception  If the filter type is invalid.
+     */
+    static void applyFilter(byte[] row, byte[] prevRow, int bytesPerPixel) throws Exception {
+        byte filter = row[0];
+        if (filter == 0x00) {           // None
+            return;
+        }
+        if (filter < 0x00 || filter > 0x04) {
+            throw new Exception("Invalid filter type == " + filter);
         }
-        int j = 0;
-        for (int i = 0; i < buf.length; i++) {
-            if (i % bytesPerLine != 0) {
-                image[j++] = buf[i];
+        for (int i = 1; i < row.length; i++) {
+            int a = 0;                  // The pixel on the left
+            int c = 0;                  // The pixel diagonally left above
+            if (i > bytesPerPixel) {
+                a = row[i - bytesPerPixel] & 0xff;
+                c = prevRow[i - bytesPerPixel] & 0xff;
+            }
+            int b = prevRow[i] & 0xff;  // The pixel above
+
+            if (filter == 0x01) {           // Sub
+                row[i] += (byte) a;
+            } else if (filter == 0x02) {    // Up
+                row[i] += (byte) b;
+            } else if (filter == 0x03) {    // Average
+                row[i] += (byte) ((a + b) >> 1);
+            } else {                        // Paeth
+                int p = a + b - c;
+                int pa = Math.abs(p - a);
+                int pb = Math.abs(p - b);
+                int pc = Math.abs(p - c);
+                if (pa <= pb && pa <= pc) {
+                    row[i] += (byte) a;
+                } else if (pb <= pc) {
+                    row[i] += (byte) b;
+                } else {
+                    row[i] += (byte) c;
+                }
             }
         }
-        return image;
     }
 
-    // Grayscale Image with Bit Depth == 2
-    private byte[] getImageColorType0BitDepth2(byte[] buf) {
-        byte[] image = new byte[buf.length - this.h];
-        int bytesPerLine = this.w / 4 + 1;
-        if (this.w % 4 > 0) {
-            bytesPerLine += 1;
-        }
-        int j = 0;
-        for (int i = 0; i < buf.length; i++) {
-            if (i % bytesPerLine != 0) {
-                image[j++] = buf[i];
-            }
+    private void validatePNG(InputStream stream) throws Exception {
+        byte[] buf = getNBytes(stream, 8);
+        if ((buf[0] & 0xFF) == 0x89 &&
+                buf[1] == 0x50 &&
+                buf[2] == 0x4E &&
+                buf[3] == 0x47 &&
+                buf[4] == 0x0D &&
+                buf[5] == 0x0A &&
+                buf[6] == 0x1A &&
+                buf[7] == 0x0A) {
+            // The PNG signature is correct.
+        } else {
+            throw new Exception("Wrong PNG signature.");
         }
-        return image;
     }
 
-    // Grayscale Image with Bit Depth == 1
-    private byte[] getImageColorType0BitDepth1(byte[] buf) {
-        byte[] image = new byte[buf.length - this.h];
-        int bytesPerLine = this.w / 8 + 1;
-        if (this.w % 8 > 0) {
-            bytesPerLine += 1;
-        }
-        int j = 0;
-        for (int i = 0; i < buf.length; i++) {
-            if (i % bytesPerLine != 0) {
-                image[j++] = buf[i];
-            }
+    private Chunk getChunk(InputStream inputStream) throws Exception {
+        Chunk chunk = new Chunk();
+        chunk.length = getLong(inputStream);                // The length of the data chunk.
+        chunk.type = getNBytes(inputStream, 4);             // The chunk type.
+        chunk.data = getNBytes(inputStream, chunk.length);  // The chunk data.
+        chunk.crc = getLong(inputStream);                   // CRC of the type and data chunks.
+
+        CRC32 crc = new CRC32();
+        crc.update(chunk.type, 0, 4);
+        crc.update(chunk.data, 0, (int) chunk.length);
+        if (crc.getValue() != chunk.crc) {
+            throw new Exception("Chunk has bad CRC.");
         }
-        return image;
+        return chunk;
     }
 
-    private void applyFilters(
-            byte[] filters,
-            byte[] image,
-            int width,
-            int height,
-            int bytesPerPixel) {
-        int bytesPerLine = width * bytesPerPixel;
-        byte filter = 0x00;
-        for (int row = 0; row < height; row++) {
-            for (int col = 0; col < bytesPerLine; col++) {
-                if (col == 0) {
-                    filter = filters[row];
-                }
-                if (filter == 0x00) {           // None
-                    continue;
-                }
-
-                int a = 0;                      // The pixel on the left
-                if (col >= bytesPerPixel) {
-                    a = image[(bytesPerLine * row + col) - bytesPerPixel] & 0xff;
-                }
-                int b = 0;                      // The pixel above
-                if (row > 0) {
-                    b = image[bytesPerLine * (row - 1) + col] & 0xff;
-                }
-                int c = 0;                      // The pixel diagonally left above
-                if (col >= bytesPerPixel && row > 0) {
-                    c = image[(bytesPerLine * (row - 1) + col) - bytesPerPixel] & 0xff;
-                }
+    private long getLong(InputStream inputStream) throws Exception {
+        byte[] buf = getNBytes(inputStream, 4);
+        return (toIntValue(buf, 0) & 0x00000000ffffffffL);
+    }
 
-                int index = bytesPerLine * row + col;
-                if (filter == 0x01) {           // Sub
-                    image[index] += (byte) a;
-                } else if (filter == 0x02) {      // Up
-                    image[index] += (byte) b;
-                } else if (filter == 0x03) {      // Average
-                    image[index] += (byte) Math.floor((a + b) / 2.0);
-                } else if (filter == 0x04) {      // Paeth
-                    int p = a + b - c;
-                    int pa = Math.abs(p - a);
-                    int pb = Math.abs(p - b);
-                    int pc = Math.abs(p - c);
-                    if (pa <= pb && pa <= pc) {
-                        image[index] += (byte) a;
-                    } else if (pb <= pc) {
-                        image[index] += (byte) b;
-                    } else {
-                        image[index] += (byte) c;
-                    }
-                }
+    private byte[] getNBytes(InputStream inputStream, long length) throws Exception {
+        if (length > Integer.MAX_VALUE) {
+            throw new Exception("Invalid chunk length.");
+        }
+        byte[] buf = new byte[(int) length];
+        int off = 0;
+        while (off < buf.length) {
+            int count = inputStream.read(buf, off, buf.length - off);
+            if (count == -1) {
+                throw new Exception("Error reading input stream!");
             }
+            off += count;
         }
+        return buf;
     }
 
-    private byte[] appendIdatChunk(byte[] array1, byte[] array2) {
-        if (array1 == null) {
-            return array2;
-        } else if (array2 == null) {
-            return array1;
-        }
-        byte[] joinedArray = new byte[array1.length + array2.length];
-        System.arraycopy(array1, 0, joinedArray, 0, array1.length);
-        System.arraycopy(array2, 0, joinedArray, array1.length, array2.length);
-        return joinedArray;
+    private int toIntValue(byte[] buf, int off) {
+        return (buf[off] & 0xff) << 24 |
+                (buf[off + 1] & 0xff) << 16 |
+                (buf[off + 2] & 0xff) << 8 |
+                (buf[off + 3] & 0xff);
     }
 /*
     public static void main(String[] args) throws Exception {
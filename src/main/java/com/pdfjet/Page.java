@@ -41,6 +41,7 @@ public class Page {
     protected PDFobj pageObj;
     protected int objNumber;
     protected ByteArrayOutputStream buf;
+    ContentBuffer content;     // The same stream as buf
     protected float[] tm = new float[] {1f, 0f, 0f, 1f};
     protected byte[] tm0;   // Used for caching tm values
     protected byte[] tm1;
@@ -57,6 +58,13 @@ public class Page {
     protected float[] trimBox = null;
     protected float[] artBox = null;
     protected List<StructElem> structures = new ArrayList<StructElem>();
+    // The resources used on this page: the object numbers of the fonts and images,
+    // the numbers of the optional content groups and of the graphics states.
+    protected Set<Integer> fontObjNumbers = new TreeSet<Integer>();
+    protected Set<Integer> imageObjNumbers = new TreeSet<Integer>();
+    protected Set<Integer> ocgNumbers = new TreeSet<Integer>();
+    protected Set<Integer> gsNumbers = new TreeSet<Integer>();
+    protected int resObjNumber;
     private float[] pen = {0f, 0f, 0f};
     private float[] brush = {0f, 0f, 0f};
     private float[] penCMYK = {0f, 0f, 0f, 1f};
@@ -66,6 +74,7 @@ public class Page {
     private JoinStyle lineJoinStyle = JoinStyle.MITER;
     private String linePattern = "[] 0";
     private Font font;
+    private float textRise = 0f;
     private final List<State> savedStates = new ArrayList<State>();
     private int mcid = 0;
 
@@ -125,13 +134,18 @@ public class Page {
         destinations = new ArrayList<Destination>();
         width = pageSize[0];
         height = pageSize[1];
-        buf = new ByteArrayOutputStream(8192);
-        tm0 = PDF.df.format(tm[0]).getBytes();
-        tm1 = PDF.df.format(tm[1]).getBytes();
-        tm2 = PDF.df.format(tm[2]).getBytes();
-        tm3 = PDF.df.format(tm[3]).getBytes();
+        tm0 = NumberWriter.toBytes(tm[0]);
+        tm1 = NumberWriter.toBytes(tm[1]);
+        tm2 = NumberWriter.toBytes(tm[2]);
+        tm3 = NumberWriter.toBytes(tm[3]);
         if (addPageToPDF) {
+            // Adding the page completes the previous page,
+            // which releases the deflater of the PDF for this page.
             pdf.addPage(this);
+            setContent(pdf.newPageContent());
+        } else {
+            // Detached pages keep their content uncompressed until they are added.
+            setContent(new ContentBuffer(null, 8192));
         }
     }
 
@@ -140,11 +154,11 @@ public class Page {
         this.pageObj = pageObj;
         width = pageObj.getPageSize()[0];
         height = pageObj.getPageSize()[1];
-        buf = new ByteArrayOutputStream(8192);
-        tm0 = PDF.df.format(tm[0]).getBytes();
-        tm1 = PDF.df.format(tm[1]).getBytes();
-        tm2 = PDF.df.format(tm[2]).getBytes();
-        tm3 = PDF.df.format(tm[3]).getBytes();
+        setContent(new ContentBuffer(null, 8192));
+        tm0 = NumberWriter.toBytes(tm[0]);
+        tm1 = NumberWriter.toBytes(tm[1]);
+        tm2 = NumberWriter.toBytes(tm[2]);
+        tm3 = NumberWriter.toBytes(tm[3]);
         append("q\n");
         if (pageObj.gsNumber != -1) {
             append("/GS");
@@ -170,8 +184,28 @@ public class Page {
         pageObj.addContent(getContent(), objects);
     }
 
+    /**
+     *  Returns the uncompressed content of this page.
+     *  The content of pages added to the PDF is compressed while it is drawn,
+     *  it is inflated again by this method.
+     *
+     *  @return the content of the page.
+     */
     public byte[] getContent() {
-        return buf.toByteArray();
+        return content.toByteArray();
+    }
+
+    private void setContent(ContentBuffer content) {
+        this.content = content;
+        this.buf = content;
+    }
+
+    // Hands the content to the PDF when the page is completed.
+    ContentBuffer takeContent() {
+        ContentBuffer content = this.content;
+        this.content = null;
+        this.buf = null;    // Release the page content memory!
+        return content;
     }
 
     /**
@@ -275,9 +309,10 @@ public class Page {
         } else {
             Font activeFont = font;
             StringBuilder buf = new StringBuilder();
-            for (int i = 0; i < str.length(); i++) {
-                int ch = str.charAt(i);
-                if (activeFont.unicodeToGID[ch] == 0) {
+            int i = 0;
+            while (i < str.length()) {
+                int ch = str.codePointAt(i);
+                if (activeFont.unicodeToGID.get(ch) == 0) {
                     drawString(activeFont, buf.toString(), x, y, brush, colors);
                     x += activeFont.stringWidth(buf.toString());
                     buf.setLength(0);
@@ -288,7 +323,8 @@ public class Page {
                         activeFont = font;
                     }
                 }
-                buf.append((char) ch);
+                buf.appendCodePoint(ch);
+                i += Character.charCount(ch);
             }
             drawString(activeFont, buf.toString(), x, y, brush, colors);
         }
@@ -411,25 +447,64 @@ public class Page {
         for (int i = 0; i < str.length(); i++) {
             int c1 = str.charAt(i);
             if (c1 < font.firstChar || c1 > font.lastChar) {
-                append(String.format("%02X", 0x20));
-                return;
+                content.appendHex2(0x20);
+                break;
             }
-            append(String.format("%02X", c1));
+            content.appendHex2(c1);
             if (font.isCoreFont && font.kernPairs && i < (str.length() - 1)) {
-                c1 -= 32;
                 int c2 = str.charAt(i + 1);
                 if (c2 < font.firstChar || c2 > font.lastChar) {
                     c2 = 32;
                 }
-                for (int j = 2; j < font.metrics[c1].length; j += 2) {
-                    if (font.metrics[c1][j] == c2) {
-                        append(">");
-                        append(-font.metrics[c1][j + 1]);
-                        append("<");
-                        break;
-                    }
+                int kern = font.kernTable.get(c1, c2);
+                if (kern != 0) {
+                    append(">");
+                    append(-kern);
+                    append("<");
+                }
+            }
+        }
+    }
+
+    // The kerning and the mark offsets are written as TJ adjustments,
+    // the vertical mark offsets change the text rise between the TJ operators.
+    private void drawShapedString(Font font, String str) {
+        GlyphRun run = font.layout.shape(font, str);
+        float k = 1000f / font.unitsPerEm;
+        int shift = 0;          // The distance in font units to the next glyph origin
+        float rise = textRise;
+        for (int i = 0; i < run.count; i++) {
+            int gid = run.glyphs[i];
+            float y = textRise + run.yOffsets[i] * font.size / font.unitsPerEm;
+            if (y != rise) {
+                append(">] TJ\n");
+                append(y);
+                append(" Ts\n[<");
+                rise = y;
+            }
+            shift += run.xOffsets[i];
+            if (shift != 0) {
+                append('>');
+                append(-shift * k);
+                append('<');
+            }
+            content.appendHex4(gid);
+            if (font.subset != null) {
+                int c1 = str.codePointAt(run.start[i]);
+                if (run.end[i] - run.start[i] == Character.charCount(c1)) {
+                    font.subset.addGlyph(gid, c1);
+                } else {
+                    font.subset.addGlyph(gid, str.substring(run.start[i], run.end[i]));
                 }
             }
+            int advance = (gid < font.advanceWidth.length) ?
+                    font.advanceWidth[gid] : font.advanceWidth[0];
+            shift = run.advances[i] - advance - run.xOffsets[i];
+        }
+        if (rise != textRise) {
+            append(">] TJ\n");
+            append(textRise);
+            append(" Ts\n[<");
         }
     }
 
@@ -441,21 +516,29 @@ public class Page {
                     continue;
                 }
                 if (c1 < font.firstChar || c1 > font.lastChar) {
-                    append(String.format("%04X", 0x0020));
+                    content.appendHex4(0x0020);
                 } else {
-                    append(String.format("%04X", c1));
+                    content.appendHex4(c1);
                 }
             }
+        } else if (font.shaping && font.layout != null) {
+            drawShapedString(font, str);
         } else {
-            for (int i = 0; i < str.length(); i++) {
-                int c1 = str.charAt(i);
+            int i = 0;
+            while (i < str.length()) {
+                int c1 = str.codePointAt(i);
+                i += Character.charCount(c1);
                 if (c1 == 0xFEFF) {     // BOM marker
                     continue;
                 }
-                if (c1 < font.firstChar || c1 > font.lastChar) {
-                    append(String.format("%04X", font.unicodeToGID[0x0020]));
-                } else {
-                    append(String.format("%04X", font.unicodeToGID[c1]));
+                int gid = font.unicodeToGID.get(c1);
+                if (c1 < font.firstChar || (c1 > font.lastChar && gid == 0)) {
+                    c1 = 0x0020;
+                    gid = font.unicodeToGID.get(c1);
+                }
+                content.appendHex4(gid);
+                if (font.subset != null) {
+                    font.subset.addGlyph(gid, c1);
                 }
             }
         }
@@ -479,6 +562,7 @@ public class Page {
             n = pdf.states.size() + 1;
             pdf.states.put(state, n);
         }
+        gsNumbers.add(n);
         append("/GS");
         append(n);
         append(" gs\n");
@@ -1264,10 +1348,10 @@ public class Page {
             float cosOfAngle = (float) Math.cos(degrees * (Math.PI / 180));
             tm = new float[] {cosOfAngle, sinOfAngle, -sinOfAngle, cosOfAngle};
         }
-        tm0 = PDF.df.format(tm[0]).getBytes();
-        tm1 = PDF.df.format(tm[1]).getBytes();
-        tm2 = PDF.df.format(tm[2]).getBytes();
-        tm3 = PDF.df.format(tm[3]).getBytes();
+        tm0 = NumberWriter.toBytes(tm[0]);
+        tm1 = NumberWriter.toBytes(tm[1]);
+        tm2 = NumberWriter.toBytes(tm[2]);
+        tm3 = NumberWriter.toBytes(tm[3]);
     }
 
     /**
@@ -1323,14 +1407,17 @@ public class Page {
     }
 
     public void setTextFont(Font font) {
-        this.font = font;
         if (font.fontID != null) {
             append('/');
             append(font.fontID);
         } else {
+            if (this.font == null || this.font.objNumber != font.objNumber) {
+                fontObjNumbers.add(font.objNumber);
+            }
             append("/F");
             append(font.objNumber);
         }
+        this.font = font;
         append(Token.space);
         append(font.size);
         append(" Tf\n");
@@ -1523,26 +1610,23 @@ public class Page {
     }
 
     protected void append(String str) {
-        int len = str.length();
-        for (int i = 0; i < len; i++) {
-            buf.write((byte) str.charAt(i));
-        }
+        content.append(str);
     }
 
     protected void append(int num) {
-        append(Integer.toString(num));
+        content.append(num);
     }
 
     protected void append(float val) {
-        append(PDF.df.format(val));
+        content.append(val);
     }
 
     protected void append(char ch) {
-        buf.write((byte) ch);
+        content.append((byte) ch);
     }
 
     protected void append(byte b) {
-        buf.write(b);
+        content.append(b);
     }
 
     /**
@@ -1550,9 +1634,7 @@ public class Page {
      *  @param buffer the array of bytes that is appended.
      */
     public void append(byte[] buffer) {
-        for (int i = 0; i < buffer.length; i++) {
-            buf.write(buffer[i]);
-        }
+        content.append(buffer, 0, buffer.length);
     }
 
     private void drawWord(
@@ -1899,6 +1981,7 @@ public class Page {
     }
 
     protected void setTextRise(float rise) {
+        this.textRise = rise;
         append(rise);
         append(" Ts\n");
     }
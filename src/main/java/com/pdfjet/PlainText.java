@@ -123,8 +123,7 @@ public class PlainText implements Drawable {
      *  @throws Exception  If an input or output exception occurred
      */
     public float[] drawOn(Page page) throws Exception {
-        float originalSize = font.getSize();
-        font.setSize(fontSize);
+        Font font = this.font.withSize(fontSize);
         float yText = y + font.getAscent();
 
         page.addBMC(StructElem.P, language, Single.space, Single.space);
@@ -153,8 +152,6 @@ public class PlainText implements Drawable {
         page.setTextEnd();
         page.addEMC();
 
-        font.setSize(originalSize);
-
         return new float[] { x + w, y + h };
     }
 
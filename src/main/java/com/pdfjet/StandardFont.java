@@ -9,6 +9,7 @@ class StandardFont {
     protected int underlinePosition;
     protected int underlineThickness;
     protected int[][] metrics;
+    protected KernTable kernTable;
 
     public StandardFont(CoreFont coreFont) {
         if (coreFont == CoreFont.COURIER) {
@@ -151,5 +152,6 @@ class StandardFont {
             this.underlineThickness = ZapfDingbats.underlineThickness;
             this.metrics = ZapfDingbats.metrics;
         }
+        this.kernTable = KernTable.of(metrics);
     }
 }
@@ -0,0 +1,111 @@
+/**
+ *  StreamCompressor.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ *  Compresses data that is written in parts, for example one image row at a time,
+ *  so the uncompressed data never has to be held in memory.
+ *  When the compression policy is exhaustive the data is compressed with
+ *  every strategy and the smallest result is kept.
+ */
+final class StreamCompressor {
+    private static final int[] STRATEGIES = {
+        Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY
+    };
+
+    private final Deflater[] deflaters;
+    private final ByteArrayOutputStream[] outputs;
+    private final byte[] buf;
+
+    StreamCompressor(CompressionPolicy policy, int streamType) {
+        if (policy.isExhaustive(streamType)) {
+            deflaters = new Deflater[STRATEGIES.length];
+            for (int i = 0; i < STRATEGIES.length; i++) {
+                deflaters[i] = new Deflater(policy.getLevel(streamType));
+                deflaters[i].setStrategy(STRATEGIES[i]);
+            }
+        } else {
+            deflaters = new Deflater[] { policy.newDeflater(streamType) };
+        }
+        outputs = new ByteArrayOutputStream[deflaters.length];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new ByteArrayOutputStream();
+        }
+        buf = new byte[policy.getBufferSize(streamType)];
+    }
+
+    /**
+     *  Compresses the next part of the data.
+     *  The array can be reused by the caller when this method returns.
+     *
+     *  @param data the data.
+     *  @param off the offset of the data in the array.
+     *  @param len the length of the data.
+     */
+    void write(byte[] data, int off, int len) {
+        for (int i = 0; i < deflaters.length; i++) {
+            Deflater deflater = deflaters[i];
+            deflater.setInput(data, off, len);
+            while (!deflater.needsInput()) {
+                outputs[i].write(buf, 0, deflater.deflate(buf));
+            }
+        }
+    }
+
+    /**
+     *  Finishes the compression and releases the deflaters.
+     *
+     *  @return the compressed data.
+     */
+    byte[] finish() {
+        byte[] smallest = null;
+        for (int i = 0; i < deflaters.length; i++) {
+            Deflater deflater = deflaters[i];
+            deflater.finish();
+            while (!deflater.finished()) {
+                outputs[i].write(buf, 0, deflater.deflate(buf));
+            }
+            deflater.end();
+            byte[] deflated = outputs[i].toByteArray();
+            outputs[i] = null;
+            if (smallest == null || deflated.length < smallest.length) {
+                smallest = deflated;
+            }
+        }
+        return smallest;
+    }
+
+    /**
+     *  Releases the deflaters without finishing the compression.
+     *  Does nothing if the compression is already finished.
+     */
+    void end() {
+        for (Deflater deflater : deflaters) {
+            deflater.end();
+        }
+    }
+}   // End of StreamCompressor.java
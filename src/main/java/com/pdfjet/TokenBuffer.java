@@ -0,0 +1,135 @@
+/**
+ *  TokenBuffer.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.nio.charset.Charset;
+
+/**
+ *  The typed tokens of one PDF object, produced by the Lexer.
+ *  The bytes of the object are copied once, the tokens are stored as
+ *  offsets into that copy. Strings are only created for the tokens
+ *  that are actually read with getString.
+ */
+final class TokenBuffer {
+    static final byte NAME = 1;
+    static final byte NUMBER = 2;
+    static final byte STRING = 3;           // (literal string)
+    static final byte HEX_STRING = 4;       // <hex string>
+    static final byte KEYWORD = 5;          // obj, R, true, stream ...
+    static final byte ARRAY_BEGIN = 6;
+    static final byte ARRAY_END = 7;
+    static final byte DICT_BEGIN = 8;
+    static final byte DICT_END = 9;
+
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    private final byte[] text;
+    private final byte[] types;
+    private final int[] starts;
+    private final int[] lengths;
+    private final int count;
+    private final long streamOffset;
+    private String[] strings;
+
+    TokenBuffer(
+            byte[] text,
+            byte[] types,
+            int[] starts,
+            int[] lengths,
+            int count,
+            long streamOffset) {
+        this.text = text;
+        this.types = types;
+        this.starts = starts;
+        this.lengths = lengths;
+        this.count = count;
+        this.streamOffset = streamOffset;
+    }
+
+    int size() {
+        return count;
+    }
+
+    byte getType(int i) {
+        checkIndex(i);
+        return types[i];
+    }
+
+    /**
+     *  Returns the offset of the stream data in the buffer that was scanned,
+     *  or 0 if the object has no stream.
+     */
+    long getStreamOffset() {
+        return streamOffset;
+    }
+
+    String getString(int i) {
+        checkIndex(i);
+        if (strings == null) {
+            strings = new String[count];
+        }
+        String str = strings[i];
+        if (str == null) {
+            str = new String(text, starts[i], lengths[i], LATIN_1);
+            strings[i] = str;
+        }
+        return str;
+    }
+
+    /**
+     *  Compares the token with the string without creating a String for the token.
+     */
+    boolean equals(int i, String str) {
+        checkIndex(i);
+        int len = lengths[i];
+        if (str.length() != len) {
+            return false;
+        }
+        int off = starts[i];
+        for (int j = 0; j < len; j++) {
+            if ((text[off + j] & 0xFF) != str.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *  Returns true if the token is the object number of a "n 0 R" reference.
+     */
+    boolean isRef(int i) {
+        return i + 2 < count &&
+                types[i] == NUMBER &&
+                types[i + 1] == NUMBER &&
+                types[i + 2] == KEYWORD &&
+                lengths[i + 2] == 1 &&
+                text[starts[i + 2]] == 'R';
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + count);
+        }
+    }
+}
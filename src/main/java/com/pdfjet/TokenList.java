@@ -0,0 +1,138 @@
+/**
+ *  TokenList.java
+ *
+Copyright 2023 Innovatics Inc.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+package com.pdfjet;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  The tokens of a PDF object dictionary.
+ *  A list read from a PDF file is backed by the typed tokens from the Lexer,
+ *  the Strings are created when the tokens are accessed. The tokens are copied
+ *  to an ArrayList on the first change.
+ *  Keeps an index of the name tokens, so that looking up a key is O(1).
+ *  The index is rebuilt on the first lookup after the list was modified.
+ */
+final class TokenList extends AbstractList<String> {
+    private TokenBuffer tokens;
+    private List<String> list;
+    private Map<String, Integer> names;
+    private int namesModCount = -1;
+
+    TokenList() {
+        this.list = new ArrayList<String>();
+    }
+
+    TokenList(TokenBuffer tokens) {
+        this.tokens = tokens;
+    }
+
+    TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    @Override
+    public int size() {
+        return (tokens != null) ? tokens.size() : list.size();
+    }
+
+    @Override
+    public String get(int index) {
+        return (tokens != null) ? tokens.getString(index) : list.get(index);
+    }
+
+    @Override
+    public String set(int index, String token) {
+        copyTokens();
+        modCount++;
+        return list.set(index, token);
+    }
+
+    @Override
+    public void add(int index, String token) {
+        copyTokens();
+        modCount++;
+        list.add(index, token);
+    }
+
+    @Override
+    public String remove(int index) {
+        copyTokens();
+        modCount++;
+        return list.remove(index);
+    }
+
+    /**
+     *  Returns the index of the first occurrence of the specified token.
+     *
+     *  @param o the token.
+     *  @return the index or -1 if the list does not contain the token.
+     */
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof String)) {
+            return -1;
+        }
+        String str = (String) o;
+        if (!str.startsWith("/")) {
+            if (tokens != null) {
+                for (int i = 0; i < tokens.size(); i++) {
+                    if (tokens.equals(i, str)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            return list.indexOf(str);
+        }
+        if (names == null || namesModCount != modCount) {
+            names = new HashMap<String, Integer>();
+            for (int i = 0; i < size(); i++) {
+                if (tokens != null && tokens.getType(i) != TokenBuffer.NAME) {
+                    continue;
+                }
+                String token = get(i);
+                if (token.startsWith("/") && !names.containsKey(token)) {
+                    names.put(token, i);
+                }
+            }
+            namesModCount = modCount;
+        }
+        Integer index = names.get(str);
+        return (index == null) ? -1 : index;
+    }
+
+    private void copyTokens() {
+        if (tokens != null) {
+            list = new ArrayList<String>(tokens.size());
+            for (int i = 0; i < tokens.size(); i++) {
+                list.add(tokens.getString(i));
+            }
+            tokens = null;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.*;
+import java.util.*;
+
+public class ChunkedBufferTest extends PDFTestBase {
+
+    @Test
+    public void testReadAcrossChunks() throws Exception {
+        byte[] expected = new byte[1000];
+        new Random(3).nextBytes(expected);
+        File file = File.createTempFile("chunked", ".bin");
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(expected);
+        fos.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ChunkedBuffer buf = ChunkedBuffer.map(raf.getChannel(), 6);
+        raf.close();
+
+        assertEquals(expected.length, buf.length());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], buf.get(i));
+        }
+        byte[] actual = new byte[900];
+        buf.get(50, actual, 0, actual.length);
+        assertArrayEquals(Arrays.copyOfRange(expected, 50, 950), actual);
+    }
+
+    @Test
+    public void testReadMappedPDF() throws Exception {
+        File file = createTempFile(createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                pdf.setObjectStreams(true);
+                Font f1 = new Font(pdf, CoreFont.HELVETICA);
+                for (int i = 0; i < 3; i++) {
+                    Page page = new Page(pdf, Letter.PORTRAIT);
+                    page.drawString(f1, "Page " + i, 50f, 50f);
+                }
+            }
+        }));
+
+        List<PDFobj> objects1 = new PDF().read(new FileInputStream(file));
+        List<PDFobj> objects2 = new PDF().read(file.getPath());
+        assertEquals(objects1.size(), objects2.size());
+        for (int i = 0; i < objects1.size(); i++) {
+            assertEquals(objects1.get(i).dict, objects2.get(i).dict);
+            assertArrayEquals(objects1.get(i).getData(), objects2.get(i).getData());
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.*;
+
+public class CodePointTableTest {
+
+    private static final String FONT =
+            "src/examples/resources/fonts/DejaVu/ttf/DejaVuLGCSerif.ttf";
+
+    @Test
+    public void testDefaultValue() {
+        CodePointTable table = new CodePointTable(500);
+        assertEquals(500, table.get(0x41));
+        assertEquals(500, table.get(0x10FFFF));
+        table.put(0x41, 0);
+        table.put(0x1D538, 65535);
+        assertEquals(0, table.get(0x41));
+        assertEquals(500, table.get(0x42));
+        assertEquals(65535, table.get(0x1D538));
+        assertEquals(500, table.get(0x1D539));
+    }
+
+    @Test
+    public void testDenseArray() {
+        int[] values = new int[0x10000];
+        for (int i = 0x20; i < 0x250; i++) {
+            values[i] = i * 7;
+        }
+        CodePointTable table = new CodePointTable(values, 0);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], table.get(i));
+        }
+    }
+
+    @Test
+    public void testSupplementaryPlane() throws Exception {
+        PDF pdf = new PDF(new ByteArrayOutputStream());
+        Font f1 = new Font(pdf, FONT);
+        // U+1D538 MATHEMATICAL DOUBLE-STRUCK CAPITAL A
+        String str = new String(Character.toChars(0x1D538));
+        int gid = f1.unicodeToGID.get(0x1D538);
+        assertEquals(3092, gid);
+        assertEquals(
+                f1.advanceWidth[gid] * f1.getSize() / f1.unitsPerEm,
+                f1.stringWidth(str), 0.001f);
+        assertEquals(0, f1.getFitChars(str + "A", 1f));
+        assertEquals(2, f1.getFitChars(str + "A", f1.stringWidth(str) + 0.5f));
+    }
+}
@@ -0,0 +1,74 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.zip.*;
+
+public class CompressionPolicyTest {
+
+    private static byte[] sampleData() {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            buf.append(i % 97).append(" 0 0 RG ").append(i * 3 % 1001).append(" Td\n");
+        }
+        return buf.toString().getBytes();
+    }
+
+    @Test
+    public void testDeflatedDataRoundTrips() throws Exception {
+        byte[] data = sampleData();
+        CompressionPolicy[] policies = {
+            new CompressionPolicy(),
+            CompressionPolicy.fast(),
+            CompressionPolicy.max(),
+            new CompressionPolicy().setLevel(CompressionPolicy.IMAGES, CompressionPolicy.STORE),
+            new CompressionPolicy().setStrategy(CompressionPolicy.IMAGES, Deflater.HUFFMAN_ONLY),
+        };
+        for (CompressionPolicy policy : policies) {
+            byte[] deflated = Compressor.deflate(data, policy, CompressionPolicy.IMAGES);
+            assertArrayEquals(data, Decompressor.inflate(deflated));
+        }
+    }
+
+    @Test
+    public void testStreamCompressorRoundTrips() throws Exception {
+        byte[] data = sampleData();
+        for (CompressionPolicy policy : new CompressionPolicy[] {
+                new CompressionPolicy(), CompressionPolicy.max() }) {
+            StreamCompressor compressor = new StreamCompressor(policy, CompressionPolicy.IMAGES);
+            for (int off = 0; off < data.length; off += 777) {
+                compressor.write(data, off, Math.min(777, data.length - off));
+            }
+            assertArrayEquals(data, Decompressor.inflate(compressor.finish()));
+        }
+    }
+
+    @Test
+    public void testDefaultPolicyMatchesPreviousOutput() throws Exception {
+        byte[] data = sampleData();
+        assertArrayEquals(
+                Compressor.deflate(data),
+                Compressor.deflate(data, new CompressionPolicy(), CompressionPolicy.IMAGES));
+    }
+
+    @Test
+    public void testLevels() throws Exception {
+        byte[] data = sampleData();
+        int stored = Compressor.deflate(data, new CompressionPolicy()
+                .setLevel(CompressionPolicy.FONTS, CompressionPolicy.STORE),
+                CompressionPolicy.FONTS).length;
+        int fast = Compressor.deflate(
+                data, CompressionPolicy.fast(), CompressionPolicy.FONTS).length;
+        int max = Compressor.deflate(
+                data, CompressionPolicy.max(), CompressionPolicy.FONTS).length;
+        assertTrue(stored > data.length);
+        assertTrue(fast < data.length);
+        assertTrue(max <= fast);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        new CompressionPolicy().setLevel(CompressionPolicy.CONTENT, 10);
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.*;
+import java.util.zip.*;
+
+public class ContentBufferTest {
+
+    @Test
+    public void testCompressedContentSpanningManyWindows() throws Exception {
+        ContentBuffer content = new ContentBuffer(new Deflater(), 64);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 1000; i++) {
+            content.append(i * 0.5f);
+            content.append(" 0 m\n");
+            content.appendHex4(i);
+            expected.write(String.valueOf(i * 0.5f).replaceAll("\\.0$", "").getBytes("ISO-8859-1"));
+            expected.write(" 0 m\n".getBytes("ISO-8859-1"));
+            expected.write(String.format("%04X", i).getBytes("ISO-8859-1"));
+        }
+        byte[] block = new byte[1000];
+        content.append(block, 0, block.length);
+        expected.write(block);
+        assertEquals(expected.size(), content.size());
+
+        int length = content.finish(null);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        content.writeCompressedTo(compressed);
+        assertEquals(length, compressed.size());
+        assertArrayEquals(expected.toByteArray(), Decompressor.inflate(compressed.toByteArray()));
+    }
+
+    @Test
+    public void testCompressedContentIsInflatedOnDemand() throws Exception {
+        ContentBuffer content = new ContentBuffer(new Deflater(), 64);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 500; i++) {
+            content.append(i);
+            content.append(" 0 l\n");
+            expected.write((i + " 0 l\n").getBytes("ISO-8859-1"));
+            if (i % 100 == 0) {
+                assertArrayEquals(expected.toByteArray(), content.toByteArray());
+            }
+        }
+        content.write("S\n".getBytes("ISO-8859-1"));
+        expected.write("S\n".getBytes("ISO-8859-1"));
+        assertArrayEquals(expected.toByteArray(), content.toByteArray());
+
+        content.finish(null);
+        assertArrayEquals(expected.toByteArray(), content.toByteArray());
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        content.writeCompressedTo(compressed);
+        assertArrayEquals(expected.toByteArray(), Decompressor.inflate(compressed.toByteArray()));
+    }
+
+    @Test
+    public void testUncompressedContent() throws Exception {
+        ContentBuffer content = new ContentBuffer(null, 16);
+        content.append("q\n");
+        content.append(12.25f);
+        content.append(" w\n");
+        content.append(-7);
+        assertArrayEquals("q\n12.25 w\n-7".getBytes("ISO-8859-1"), content.toByteArray());
+    }
+
+}
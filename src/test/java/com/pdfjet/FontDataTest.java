@@ -0,0 +1,101 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.*;
+
+public class FontDataTest extends PDFTestBase {
+
+    private static final String FONT =
+            "src/examples/resources/fonts/DejaVu/ttf/DejaVuLGCSerif.ttf";
+
+    private static String createPDF() throws Exception {
+        return withoutIDAndDate(createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                pdf.setFontSubsetting(false);
+                Font f1 = new Font(pdf, FONT);
+                Page page = new Page(pdf, Letter.PORTRAIT);
+                page.drawString(f1, "Hello, World!", 50f, 50f);
+            }
+        }));
+    }
+
+    @Test
+    public void testFontIsParsedOnce() throws Exception {
+        assertSame(FontData.get(FONT), FontData.get(FONT));
+        assertSame(
+                FontData.get(new FileInputStream(FONT), false),
+                FontData.get(new FileInputStream(FONT), false));
+
+        Font f1 = new Font(new PDF(new ByteArrayOutputStream()), FONT);
+        Font f2 = new Font(new PDF(new ByteArrayOutputStream()), FONT);
+        assertSame(f1.unicodeToGID, f2.unicodeToGID);
+        assertNotSame(f1.subset, f2.subset);
+    }
+
+    @Test
+    public void testCompressedProgramIsReused() throws Exception {
+        FontData data = FontData.get(FONT);
+        byte[] compressed = data.getCompressedProgram(new CompressionPolicy());
+        assertSame(compressed, data.getCompressedProgram(new CompressionPolicy()));
+        assertNotSame(compressed, data.getCompressedProgram(CompressionPolicy.max()));
+        assertArrayEquals(data.getProgram(), Decompressor.inflate(compressed));
+    }
+
+    @Test
+    public void testOutputDoesNotDependOnCache() throws Exception {
+        String first = createPDF();
+        String second = createPDF();
+        // The compressed metadata differs in each document, compare the embedded font.
+        assertEquals(fontFile(first), fontFile(second));
+    }
+
+    @Test
+    public void testStreamFontVersion2() throws Exception {
+        File file = File.createTempFile("DejaVuLGCSerif", ".ttf");
+        File streamFile = new File(file.getPath() + ".stream");
+        try {
+            FileOutputStream fos = new FileOutputStream(file);
+            fos.write(Contents.getFromStream(new FileInputStream(FONT)));
+            fos.close();
+            OptimizeOTF.convertFontFile(file.getPath(), false);
+
+            FontData otf = FontData.get(FONT);
+            FontData data = FontData.get(streamFile.getPath());
+            assertEquals(otf.name, data.name);
+            assertEquals(otf.unitsPerEm, data.unitsPerEm);
+            assertEquals(otf.descent, data.descent);
+            assertEquals(otf.lastChar, data.lastChar);
+            assertArrayEquals(otf.advanceWidth, data.advanceWidth);
+            for (int c = 0; c < 0x20000; c++) {
+                assertEquals(otf.glyphWidth.get(c), data.glyphWidth.get(c));
+                assertEquals(otf.unicodeToGID.get(c), data.unicodeToGID.get(c));
+            }
+            assertArrayEquals(otf.getProgram(), data.getProgram());
+            assertArrayEquals(
+                    data.getCompressedProgram(new CompressionPolicy()),
+                    FontData.get(new FileInputStream(streamFile), true)
+                            .getCompressedProgram(CompressionPolicy.max()));
+        } finally {
+            file.delete();
+            streamFile.delete();
+        }
+    }
+
+    @Test(expected = Exception.class)
+    public void testInvalidStreamFont() throws Exception {
+        byte[] buf = new byte[FontData.STREAM_HEADER_SIZE];
+        buf[0] = 'P';
+        buf[1] = 'J';
+        buf[2] = 'F';
+        buf[3] = 'S';
+        buf[7] = 2;
+        FontData.get(new ByteArrayInputStream(buf), true);
+    }
+
+    private static String fontFile(String pdf) {
+        int start = pdf.indexOf("/Length1");
+        assertTrue(start != -1);
+        return pdf.substring(start, pdf.indexOf("endstream", start));
+    }
+}
@@ -0,0 +1,136 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.*;
+import java.util.concurrent.atomic.*;
+
+public class FontSubsetTest extends PDFTestBase {
+
+    private static final String FONT =
+            "src/examples/resources/fonts/DejaVu/ttf/DejaVuLGCSerif.ttf";
+
+    private static byte[] createPDF(final boolean subsetting) throws Exception {
+        return createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                pdf.setFontSubsetting(subsetting);
+                Font f1 = new Font(pdf, new FileInputStream(FONT));
+                Page page = new Page(pdf, Letter.PORTRAIT);
+                page.drawString(f1, "Hello, World! Ärger über Öl", 50f, 50f);
+            }
+        });
+    }
+
+    @Test
+    public void testSubsetIsSmaller() throws Exception {
+        byte[] full = createPDF(false);
+        byte[] subset = createPDF(true);
+        assertTrue(subset.length < full.length);
+
+        String text = new String(subset, "ISO-8859-1");
+        assertTrue(text.matches("(?s).*/FontName /[A-Z]{6}\\+DejaVuLGCSerif.*"));
+        assertFalse(new String(full, "ISO-8859-1").contains("+DejaVuLGCSerif"));
+
+        assertEquals(1, new PDF().getPageObjects(readObjects(subset)).size());
+    }
+
+    @Test
+    public void testUnusedGlyphsAreEmptied() throws Exception {
+        PDF pdf = new PDF(new ByteArrayOutputStream());
+        Font f1 = new Font(pdf, new FileInputStream(FONT));
+        f1.subset.addGlyph(f1.unicodeToGID.get('A'), 'A');
+        byte[] data = f1.subset.subset();
+        assertTrue(data.length < new File(FONT).length() / 4);
+        assertEquals(6, f1.subset.getTag().length());
+    }
+
+    @Test
+    public void testGlyphsAddedOnManyThreads() throws Exception {
+        PDF pdf = new PDF(new ByteArrayOutputStream());
+        Font f2 = new Font(pdf, new FileInputStream(FONT));
+        for (int gid = 1; gid < 3000; gid++) {
+            f2.subset.addGlyph(gid, 0x4000 + gid);
+        }
+        byte[] expected = f2.subset.subset();
+
+        for (int round = 0; round < 10; round++) {
+            Font f1 = new Font(pdf, new FileInputStream(FONT));
+            final AtomicInteger ready = new AtomicInteger();
+            final Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                final Font view = f1.withSize(10f + i);
+                final int first = i + 1;
+                threads[i] = new Thread() {
+                    public void run() {
+                        // Start all the threads at the same time.
+                        ready.incrementAndGet();
+                        while (ready.get() < threads.length) {
+                            Thread.yield();
+                        }
+                        for (int gid = first; gid < 3000; gid += 4) {
+                            view.subset.addGlyph(gid, 0x4000 + gid);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertArrayEquals(expected, f1.subset.subset());
+        }
+    }
+
+    @Test
+    public void testToUnicodeAndWidthsListOnlyUsedGlyphs() throws Exception {
+        for (boolean subsetting : new boolean[] {true, false}) {
+            String cmap = null;
+            int dictSize = 0;
+            for (PDFobj obj : readObjects(createPDF(subsetting))) {
+                if (obj.getValue("/Subtype").equals("/CIDFontType2")) {
+                    dictSize = obj.getDict().size();
+                } else if (obj.getData() != null && obj.getData().length > 0) {
+                    String str = new String(obj.getData(), "ISO-8859-1");
+                    if (str.contains("begincmap")) {
+                        cmap = str;
+                    }
+                }
+            }
+            assertNotNull(cmap);
+            // The /W array of the complete font has thousands of entries.
+            assertTrue(dictSize > 0 && dictSize < 200);
+            // "Hello, World! Ärger über Öl" uses 16 different characters.
+            int entries = 0;
+            for (String line : cmap.split("\n")) {
+                if (line.startsWith("<") && !line.startsWith("<0000> <FFFF>")) {
+                    entries++;
+                }
+            }
+            assertTrue(entries > 0 && entries <= 16);
+            assertTrue(cmap.contains("<0048>"));        // 'H'
+        }
+    }
+
+    @Test
+    public void testSupplementaryPlaneToUnicode() throws Exception {
+        byte[] buf = createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                Font f1 = new Font(pdf, new FileInputStream(FONT));
+                Page page = new Page(pdf, Letter.PORTRAIT);
+                // U+1D538 MATHEMATICAL DOUBLE-STRUCK CAPITAL A is glyph 3092
+                page.drawString(f1, new String(Character.toChars(0x1D538)), 50f, 50f);
+            }
+        });
+
+        String cmap = null;
+        for (PDFobj obj : readObjects(buf)) {
+            if (obj.getData() != null && obj.getData().length > 0) {
+                String str = new String(obj.getData(), "ISO-8859-1");
+                if (str.contains("begincmap")) {
+                    cmap = str;
+                }
+            }
+        }
+        assertTrue(cmap.contains("<0c14> <d835dd38>"));
+    }
+}
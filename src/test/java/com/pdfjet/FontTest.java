@@ -65,4 +65,25 @@ public class FontTest extends PDFTestBase {
         }
     }
 
+    @Test
+    public void testSizedViewDoesNotChangeTheFont() throws Exception {
+        PDF pdf = writablePDF();
+        Font font = new Font(pdf, CoreFont.HELVETICA);
+        font.setSize(12f);
+        Font view = font.withSize(24f);
+        assertEquals(12f, font.getSize(), 0.001f);
+        assertEquals(24f, view.getSize(), 0.001f);
+        assertEquals(2f * font.stringWidth("Test"), view.stringWidth("Test"), 0.001f);
+        assertEquals(2f * font.getAscent(), view.getAscent(), 0.001f);
+
+        view.setSize(8f);
+        assertEquals(12f, font.getSize(), 0.001f);
+
+        Page page = new Page(pdf, Letter.PORTRAIT);
+        page.drawString(view, "Test", 50f, 50f);
+        page.drawString(font, "Test", 50f, 80f);
+        pdf.complete();
+        assertEquals(font.objNumber, view.objNumber);
+        assertEquals(1, pdf.fonts.size());
+    }
 }
@@ -0,0 +1,65 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.*;
+
+public class ImageDataTest {
+
+    private static final String IMAGES = "src/examples/resources/images/";
+
+    private static ImageData get(String fileName, CompressionPolicy policy) throws Exception {
+        return ImageData.get(new FileInputStream(IMAGES + fileName), ImageType.PNG, policy);
+    }
+
+    @Test
+    public void testRepeatedImageIsDecodedOnce() throws Exception {
+        CompressionPolicy policy = new CompressionPolicy();
+        ImageData data = get("linux-logo.png", policy);
+        assertSame(data, get("linux-logo.png", policy));
+        assertSame(data, get("linux-logo.png", new CompressionPolicy()));
+        assertNotSame(data, get("linux-logo.png", CompressionPolicy.fast()));
+        assertNotSame(data, get("map.png", policy));
+    }
+
+    @Test
+    public void testCacheIsBoundedBySize() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.fast();
+        long maxCacheSize = ImageData.getMaxCacheSize();
+        try {
+            ImageData.setMaxCacheSize(0L);
+            assertNotSame(get("eu-flag.png", policy), get("eu-flag.png", policy));
+
+            ImageData.setMaxCacheSize(35000L);
+            ImageData flag = get("eu-flag.png", policy);                // 7 KB
+            assertSame(flag, get("eu-flag.png", policy));
+            ImageData map = get("eu-map.png", policy);                  // 31 KB
+            assertSame(map, get("eu-map.png", policy));
+            assertNotSame(flag, get("eu-flag.png", policy));            // Evicted
+        } finally {
+            ImageData.setMaxCacheSize(maxCacheSize);
+        }
+    }
+
+    @Test
+    public void testResampledCopyIsCountedInTheCacheSize() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.fast();
+        long maxCacheSize = ImageData.getMaxCacheSize();
+        try {
+            ImageData.setMaxCacheSize(0L);                              // Clear the cache
+            ImageData.setMaxCacheSize(67000L);
+            ImageData flag = get("eu-flag.png", policy);                // 6 KB
+            ImageData map = get("eu-map.png", policy);                  // 31 KB
+            assertSame(flag, get("eu-flag.png", policy));
+            assertSame(map, get("eu-map.png", policy));
+
+            // The resampled map is 33 KB, the least recently used flag is evicted.
+            assertNotNull(map.getDownsampled(map.width / 2, map.height / 2, 0, policy));
+            assertSame(map, get("eu-map.png", policy));
+            assertNotSame(flag, get("eu-flag.png", policy));
+        } finally {
+            ImageData.setMaxCacheSize(maxCacheSize);
+        }
+    }
+
+}
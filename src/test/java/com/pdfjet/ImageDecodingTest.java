@@ -0,0 +1,95 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.*;
+import java.util.concurrent.*;
+
+public class ImageDecodingTest extends PDFTestBase {
+
+    private static final String IMAGES = "src/examples/resources/images/";
+
+    private static String createPDF(final Executor executor) throws Exception {
+        return withoutIDAndDate(createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                pdf.setImageDecodingExecutor(executor);
+                Page page = new Page(pdf, Letter.PORTRAIT);
+                String[] fileNames = {
+                        "map407.png",
+                        "linux-logo.png",                   // With alpha
+                        "indexed-color-with-alpha.png",     // Palette with tRNS
+                        "fruit.jpg",
+                        "mt-map.bmp",
+                        "linux-logo.jet",
+                        "map407.png"                        // Uses the objects of the first image
+                };
+                int[] imageTypes = {
+                        ImageType.PNG,
+                        ImageType.PNG,
+                        ImageType.PNG,
+                        ImageType.JPG,
+                        ImageType.BMP,
+                        ImageType.PNG_STREAM,
+                        ImageType.PNG
+                };
+                float y = 0f;
+                for (int i = 0; i < fileNames.length; i++) {
+                    Image image = new Image(
+                            pdf, new FileInputStream(IMAGES + fileNames[i]), imageTypes[i]);
+                    image.scaleBy(0.2f);
+                    image.setLocation(0f, y);
+                    image.drawOn(page);
+                    y += image.getHeight();
+                }
+            }
+        }));
+    }
+
+    @Test
+    public void testParallelOutputIsIdentical() throws Exception {
+        long maxCacheSize = ImageData.getMaxCacheSize();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // Every image is decoded again instead of being taken from the cache.
+            ImageData.setMaxCacheSize(0L);
+            String expected = createPDF((Executor) null);
+            assertEquals(expected, createPDF(executor));
+        } finally {
+            ImageData.setMaxCacheSize(maxCacheSize);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testImageDecodedBeforeTheSameFileIsAddedAgain() throws Exception {
+        long maxCacheSize = ImageData.getMaxCacheSize();
+        Executor executor = new Executor() {
+            public void execute(Runnable task) {
+                task.run();
+            }
+        };
+        try {
+            String expected = createPDF((Executor) null);
+            ImageData.setMaxCacheSize(0L);      // Clear the cache
+            ImageData.setMaxCacheSize(maxCacheSize);
+            // The first map is decoded and cached before it is added again.
+            assertEquals(expected, createPDF(executor));
+        } finally {
+            ImageData.setMaxCacheSize(maxCacheSize);
+        }
+    }
+
+    @Test
+    public void testRejectedImagesAreDecodedOnTheCallingThread() throws Exception {
+        long maxCacheSize = ImageData.getMaxCacheSize();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        try {
+            ImageData.setMaxCacheSize(0L);
+            assertEquals(createPDF((Executor) null), createPDF(executor));
+        } finally {
+            ImageData.setMaxCacheSize(maxCacheSize);
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.awt.image.*;
+import java.io.*;
+import javax.imageio.ImageIO;
+
+public class JPGEncoderTest {
+
+    // A smooth gradient, the samples change slowly across the 8x8 blocks.
+    private static byte[] createImage(int width, int height, int components) {
+        byte[] image = new byte[width * height * components];
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image[i++] = (byte) (20 + 200 * x / width);
+                if (components == 3) {
+                    image[i++] = (byte) (20 + 200 * y / height);
+                    image[i++] = (byte) (220 - 100 * (x + y) / (width + height));
+                }
+            }
+        }
+        return image;
+    }
+
+    // Encodes the image, decodes it with ImageIO and returns the mean absolute sample error.
+    private static double encodeAndDecode(
+            int width, int height, int components, int quality) throws Exception {
+        byte[] image = createImage(width, height, components);
+        JPGEncoder encoder = new JPGEncoder(width, height, components, quality);
+        int rowLength = width * components;
+        for (int y = 0; y < height; y++) {
+            encoder.write(image, y * rowLength, rowLength);
+        }
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encoder.finish()));
+        assertNotNull(decoded);
+        assertEquals(width, decoded.getWidth());
+        assertEquals(height, decoded.getHeight());
+
+        long error = 0L;
+        int i = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (components == 1) {
+                    error += Math.abs(decoded.getRaster().getSample(x, y, 0) - (image[i++] & 0xff));
+                } else {
+                    int rgb = decoded.getRGB(x, y);
+                    error += Math.abs(((rgb >> 16) & 0xff) - (image[i++] & 0xff));
+                    error += Math.abs(((rgb >> 8) & 0xff) - (image[i++] & 0xff));
+                    error += Math.abs((rgb & 0xff) - (image[i++] & 0xff));
+                }
+            }
+        }
+        return (double) error / image.length;
+    }
+
+    @Test
+    public void testEncodedImagesAreDecoded() throws Exception {
+        // The sizes are not multiples of the 8x8 blocks and the 16x16 MCUs.
+        assertTrue(encodeAndDecode(37, 23, 3, 90) < 2.0);
+        assertTrue(encodeAndDecode(37, 23, 1, 90) < 1.0);
+        assertTrue(encodeAndDecode(16, 16, 3, 75) < 3.0);
+        assertTrue(encodeAndDecode(1, 1, 3, 85) < 1.0);
+        assertTrue(encodeAndDecode(1, 1, 1, 85) < 1.0);
+    }
+
+    @Test
+    public void testLowerQualityIncreasesTheError() throws Exception {
+        assertTrue(encodeAndDecode(64, 48, 3, 95) < encodeAndDecode(64, 48, 3, 10));
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.*;
+
+public class KernTableTest {
+
+    @Test
+    public void testSameKerningAsTheMetrics() {
+        for (CoreFont coreFont : CoreFont.values()) {
+            StandardFont font = new StandardFont(coreFont);
+            for (int c1 = 32; c1 < 256; c1++) {
+                int[] row = font.metrics[c1 - 32];
+                for (int c2 = 32; c2 < 256; c2++) {
+                    int kern = 0;
+                    for (int j = 2; j < row.length; j += 2) {
+                        if (row[j] == c2) {
+                            kern = row[j + 1];
+                            break;
+                        }
+                    }
+                    assertEquals(kern, font.kernTable.get(c1, c2));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testKernedWidth() throws Exception {
+        PDF pdf = new PDF(new ByteArrayOutputStream());
+        Font f1 = new Font(pdf, CoreFont.HELVETICA);
+        float width = f1.stringWidth("AV");
+        f1.setKernPairs(true);
+        // KPX A V -70
+        assertEquals(width - 70f * f1.getSize() / 1000f, f1.stringWidth("AV"), 0.001f);
+        assertSame(f1.kernTable, new StandardFont(CoreFont.HELVETICA).kernTable);
+    }
+}
@@ -0,0 +1,37 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.*;
+
+public class LexerTest {
+
+    @Test
+    public void testTokenTypes() throws Exception {
+        String str = "4 0 obj\n<</Type /Annot/Contents <FEFF0041> % comment\n" +
+                "/A << /URI (http://pdfjet.com/a (b\\)) c) >> /Rect [0 -1.5 2 3] /P 7 0 R" +
+                ">>\nstream\r\nDATA\nendstream\nendobj\n";
+        ChunkedBuffer buf = new ChunkedBuffer(str.getBytes("ISO-8859-1"));
+        TokenBuffer tokens = Lexer.tokenize(buf, 0, buf.length());
+
+        List<String> expected = Arrays.asList(
+                "4", "0", "obj", "<<", "/Type", "/Annot", "/Contents", "<FEFF0041>",
+                "/A", "<<", "/URI", "(http://pdfjet.com/a (b\\)) c)", ">>",
+                "/Rect", "[", "0", "-1.5", "2", "3", "]", "/P", "7", "0", "R", ">>", "stream");
+        assertEquals(expected, new TokenList(tokens));
+        assertEquals(str.indexOf("DATA"), tokens.getStreamOffset());
+
+        assertEquals(TokenBuffer.NUMBER, tokens.getType(0));
+        assertEquals(TokenBuffer.KEYWORD, tokens.getType(2));
+        assertEquals(TokenBuffer.DICT_BEGIN, tokens.getType(3));
+        assertEquals(TokenBuffer.NAME, tokens.getType(4));
+        assertEquals(TokenBuffer.HEX_STRING, tokens.getType(7));
+        assertEquals(TokenBuffer.STRING, tokens.getType(11));
+        assertEquals(TokenBuffer.ARRAY_BEGIN, tokens.getType(14));
+        assertEquals(TokenBuffer.NUMBER, tokens.getType(16));
+        assertTrue(tokens.isRef(21));
+        assertFalse(tokens.isRef(17));
+        assertTrue(tokens.equals(11, "(http://pdfjet.com/a (b\\)) c)"));
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.*;
+import java.util.*;
+
+public class MappedObjectListTest extends PDFTestBase {
+
+    private static byte[] createPDF(final boolean useObjectStreams) throws Exception {
+        return createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                pdf.setObjectStreams(useObjectStreams);
+                Font f1 = new Font(pdf, CoreFont.HELVETICA);
+                for (int i = 0; i < 5; i++) {
+                    Page page = new Page(pdf, Letter.PORTRAIT);
+                    page.drawString(f1, "Page " + i, 50f, 50f);
+                }
+            }
+        });
+    }
+
+    private static void testAddText(boolean useObjectStreams) throws Exception {
+        File file = createTempFile(createPDF(useObjectStreams));
+        final List<PDFobj> mapped = new PDF().read(file.getPath());
+        for (int i = 0; i < mapped.size(); i++) {
+            assertFalse(((MappedObjectList) mapped).isLoaded(i));
+        }
+
+        final List<PDFobj> mappedPages = new PDF().getPageObjects(mapped);
+        assertEquals(5, mappedPages.size());
+
+        byte[] buf = createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                Page page = new Page(pdf, mappedPages.get(0));
+                Font f1 = page.addResource(CoreFont.COURIER, mapped);
+                page.drawString(f1, "Hello, World!", 100f, 100f);
+                page.complete(mapped);
+                pdf.addObjects(mapped);
+            }
+        });
+
+        List<PDFobj> objects = readObjects(buf);
+        List<PDFobj> pages = new PDF().getPageObjects(objects);
+        assertEquals(5, pages.size());
+        List<Integer> contents = pages.get(0).getObjectNumbers("/Contents");
+        PDFobj obj = objects.get(contents.get(contents.size() - 1) - 1);
+        assertTrue(new String(obj.getData(), "ISO-8859-1").contains("/COURIER 12 Tf"));
+    }
+
+    @Test
+    public void testAddTextToXRefTablePDF() throws Exception {
+        testAddText(false);
+    }
+
+    @Test
+    public void testAddTextToObjectStreamsPDF() throws Exception {
+        testAddText(true);
+    }
+
+    private static String copyPDF(byte[] buf, final int parsedObject) throws Exception {
+        final File file = createTempFile(buf);
+        return new String(createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                List<PDFobj> objects = new PDF().read(file.getPath());
+                objects.get(parsedObject - 1);      // The other objects are copied without parsing
+                pdf.addObjects(objects);
+            }
+        }), "ISO-8859-1");
+    }
+
+    // Returns the generation of the object in the xref table.
+    private static String getXRefGeneration(String content, int number) {
+        String[] entries = content.substring(content.lastIndexOf("\nxref\n") + 1).split("\n");
+        return entries[number + 2].substring(11, 16);
+    }
+
+    @Test
+    public void testCopiedObjectsKeepTheirGeneration() throws Exception {
+        String source = new String(createPDF(false), "ISO-8859-1");
+        // The replacements keep their length, so the offsets in the xref stay valid.
+        source = source.replace("\n7 0 obj", "\n7 3 obj").replace(" 7 0 R", " 7 3 R");
+        source = source.replace("\n13 0 obj", "\n13 3 obj").replace(" 13 0 R", " 13 3 R");
+        String[] entries = source.substring(source.lastIndexOf("\nxref\n") + 1).split("\n");
+        for (int number : new int[] {7, 13}) {
+            String entry = entries[number + 2];
+            source = source.replace(entry, entry.replace(" 00000 n", " 00003 n"));
+        }
+
+        // Object 7 is the page resources and object 13 is the page tree.
+        for (int parsedObject : new int[] {7, 13}) {
+            String content = copyPDF(source.getBytes("ISO-8859-1"), parsedObject);
+            assertTrue(content.contains("\n7 3 obj"));
+            assertTrue(content.contains("\n13 3 obj"));
+            assertTrue(content.contains("/Resources 7 3 R"));
+            assertTrue(content.contains("/Parent 13 3 R"));
+            assertTrue(content.contains("/Pages 13 3 R"));
+            assertEquals("00003", getXRefGeneration(content, 7));
+            assertEquals("00003", getXRefGeneration(content, 13));
+            assertEquals("00000", getXRefGeneration(content, 8));
+        }
+    }
+
+    @Test
+    public void testFreeObjectsAreCopiedAsNull() throws Exception {
+        byte[] buf = createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                pdf.setObjectStreams(true);
+                // The objects reserved for an image that is never drawn are free entries.
+                new Image(pdf, new FileInputStream("src/examples/resources/images/linux-logo.png"),
+                        ImageType.PNG);
+                Font f1 = new Font(pdf, CoreFont.HELVETICA);
+                Page page = new Page(pdf, Letter.PORTRAIT);
+                page.drawString(f1, "Hello", 50f, 50f);
+            }
+        });
+
+        for (int parsedObject : new int[] {1, 3}) {
+            String content = copyPDF(buf, parsedObject);
+            assertTrue(content.startsWith("1 0 obj\nnull", content.indexOf("1 0 obj")));
+            assertFalse(content.contains("obj\nendobj"));
+        }
+    }
+
+}
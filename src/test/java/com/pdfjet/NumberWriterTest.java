@@ -0,0 +1,58 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.text.*;
+import java.util.*;
+
+public class NumberWriterTest {
+
+    private static String format(float val) {
+        byte[] buf = new byte[NumberWriter.MAX_LENGTH];
+        return new String(buf, 0, NumberWriter.write(val, buf, 0));
+    }
+
+    private static String format(int val) {
+        byte[] buf = new byte[NumberWriter.MAX_LENGTH];
+        return new String(buf, 0, NumberWriter.write(val, buf, 0));
+    }
+
+    private static String format(long val) {
+        byte[] buf = new byte[NumberWriter.MAX_LENGTH];
+        return new String(buf, 0, NumberWriter.write(val, buf, 0));
+    }
+
+    @Test
+    public void testFloatMatchesDecimalFormat() {
+        DecimalFormat df = new DecimalFormat("0.###", new DecimalFormatSymbols(Locale.US));
+        float[] values = {
+            0f, -0f, 1f, -1.5f, 0.0005f, 0.00049f, 0.0625f, 0.1875f,
+            595.276f, 841.89f, 123456.789f, -0.0001f, 1e10f, 1e20f
+        };
+        for (float val : values) {
+            assertEquals("Value " + val, df.format(val), format(val));
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            float val = (random.nextFloat() - 0.5f) * 2000f;
+            assertEquals("Value " + val, df.format(val), format(val));
+        }
+    }
+
+    @Test
+    public void testInt() {
+        assertEquals("0", format(0));
+        assertEquals("-42", format(-42));
+        assertEquals(Integer.toString(Integer.MAX_VALUE), format(Integer.MAX_VALUE));
+        assertEquals(Integer.toString(Integer.MIN_VALUE), format(Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void testLong() {
+        assertEquals("0", format(0L));
+        assertEquals("5000000000", format(5000000000L));
+        assertEquals(Long.toString(Long.MAX_VALUE), format(Long.MAX_VALUE));
+        assertEquals(Long.toString(Long.MIN_VALUE), format(Long.MIN_VALUE));
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.*;
+
+public class ObjectStreamTest extends PDFTestBase {
+
+    private static byte[] createPDF(final boolean useObjectStreams) throws Exception {
+        return createPDF(Compliance.PDF_UA, new Content() {
+            public void draw(PDF pdf) throws Exception {
+                pdf.setObjectStreams(useObjectStreams);
+                Font f1 = new Font(pdf, CoreFont.HELVETICA);
+                for (int i = 0; i < 10; i++) {
+                    Page page = new Page(pdf, Letter.PORTRAIT);
+                    for (int j = 0; j < 20; j++) {
+                        page.addBMC(StructElem.P, "Line " + j, "Line " + j);
+                        page.drawString(f1, "Line " + j, 50f, 50f + j * 12f);
+                        page.addEMC();
+                    }
+                }
+            }
+        });
+    }
+
+    private static List<String> getDictionaries(byte[] buf) throws Exception {
+        List<String> dictionaries = new ArrayList<String>();
+        for (PDFobj obj : readObjects(buf)) {
+            if (obj != null && !obj.dict.contains("stream")) {
+                // The objects in object streams have no "endobj" keyword.
+                obj.dict.remove("endobj");
+                dictionaries.add(obj.dict.toString());
+            }
+        }
+        return dictionaries;
+    }
+
+    @Test
+    public void testObjectStreamsRoundTrip() throws Exception {
+        byte[] buf1 = createPDF(false);
+        byte[] buf2 = createPDF(true);
+        String content = new String(buf2, "ISO-8859-1");
+        assertTrue(content.contains("/Type /ObjStm"));
+        assertTrue(content.contains("/Type /XRef"));
+        assertFalse(content.contains("\nxref\n"));
+        assertTrue(buf2.length < buf1.length);
+
+        List<String> expected = getDictionaries(buf1);
+        List<String> actual = getDictionaries(buf2);
+        assertTrue(expected.size() > 2 * ObjectStream.MAX_OBJECTS);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            String dict = expected.get(i);
+            if (!dict.contains("/ID") && !dict.contains("/CreationDate")) {
+                assertEquals(dict, actual.get(i));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.*;
+
+public class OpenTypeLayoutTest extends PDFTestBase {
+
+    private static final String FONT =
+            "src/examples/resources/fonts/DejaVu/ttf/DejaVuLGCSans.ttf";
+
+    private static Font createFont() throws Exception {
+        Font f1 = new Font(new PDF(new ByteArrayOutputStream()), FONT);
+        f1.setShaping(true);
+        return f1;
+    }
+
+    @Test
+    public void testLigatures() throws Exception {
+        Font f1 = createFont();
+        GlyphRun run = f1.layout.shape(f1, "office");
+        // o, ffi, c, e
+        assertEquals(4, run.count);
+        assertEquals(1, run.start[1]);
+        assertEquals(4, run.end[1]);
+        assertEquals(f1.unicodeToGID.get('c'), run.glyphs[2]);
+        // The ligature isn't split
+        float width = f1.withSize(12f).stringWidth("of");
+        assertEquals(1, f1.getFitChars("office", width));
+    }
+
+    @Test
+    public void testKerning() throws Exception {
+        Font f1 = createFont();
+        GlyphRun run = f1.layout.shape(f1, "AV");
+        int a = f1.unicodeToGID.get('A');
+        assertTrue(run.advances[0] < f1.advanceWidth[a]);
+        assertEquals(run.getAdvance() * f1.getSize() / f1.unitsPerEm, f1.stringWidth("AV"), 0.001f);
+
+        f1.setShaping(false);
+        assertEquals(
+                (f1.advanceWidth[a] + f1.advanceWidth[f1.unicodeToGID.get('V')]) *
+                f1.getSize() / f1.unitsPerEm, f1.stringWidth("AV"), 0.001f);
+    }
+
+    @Test
+    public void testMarkPositioning() throws Exception {
+        Font f1 = createFont();
+        // A with U+0301 COMBINING ACUTE ACCENT
+        GlyphRun run = f1.layout.shape(f1, "Á");
+        assertEquals(2, run.count);
+        assertEquals(0, run.attachedTo[1]);
+        assertEquals(0, run.advances[1]);
+        assertTrue(run.yOffsets[1] > 0);
+        assertEquals(f1.stringWidth("A"), f1.stringWidth("Á"), 0.001f);
+    }
+
+    @Test
+    public void testShapedOutput() throws Exception {
+        byte[] buf = createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                Font f1 = new Font(pdf, FONT);
+                f1.setShaping(true);
+                Page page = new Page(pdf, Letter.PORTRAIT);
+                page.drawString(f1, "office AV Á", 50f, 50f);
+            }
+        });
+
+        String cmap = null;
+        String content = null;
+        for (PDFobj obj : readObjects(buf)) {
+            if (obj.getData() != null && obj.getData().length > 0) {
+                String str = new String(obj.getData(), "ISO-8859-1");
+                if (str.contains("begincmap")) {
+                    cmap = str;
+                } else if (str.contains(" TJ")) {
+                    content = str;
+                }
+            }
+        }
+        assertTrue(cmap.contains(" <006600660069>"));
+        assertTrue(content.contains(" Ts\n"));
+        assertTrue(content.endsWith("0 Ts\n[<>] TJ\nET\n"));
+    }
+}
@@ -3,6 +3,9 @@ package com.pdfjet;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import java.io.*;
+import java.util.*;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
 
 public class PDFDocumentTest extends PDFTestBase {
 
@@ -63,4 +66,193 @@ public class PDFDocumentTest extends PDFTestBase {
         assertTrue("Subject written to info object", content.contains("Test Subject"));
     }
 
+    private static final String IMAGE =
+            "src/examples/resources/images/linux-logo.png";
+
+    private static byte[] createPDFWithResources(final boolean useObjectStreams) throws Exception {
+        return createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                pdf.setObjectStreams(useObjectStreams);
+                Font f1 = new Font(pdf, CoreFont.HELVETICA);
+                Font f2 = new Font(pdf, CoreFont.HELVETICA);
+                new Font(pdf, CoreFont.COURIER);
+                new Font(pdf, "src/examples/resources/fonts/DejaVu/ttf/DejaVuLGCSerif.ttf");
+                Image image1 = new Image(pdf, new FileInputStream(IMAGE), ImageType.PNG);
+                Image image2 = new Image(pdf, new FileInputStream(IMAGE), ImageType.PNG);
+                new Image(pdf, "src/examples/resources/images/eu-flag.png");
+
+                assertEquals(f1.objNumber, f2.objNumber);
+                assertEquals(image1.objNumber, image2.objNumber);
+
+                Page page = new Page(pdf, Letter.PORTRAIT);
+                page.drawString(f1, "Hello", 50f, 50f);
+                page.drawString(f2.withSize(20f), "World", 50f, 100f);
+                image1.setLocation(50f, 150f);
+                image1.drawOn(page);
+                image2.setLocation(50f, 350f);
+                image2.drawOn(page);
+            }
+        });
+    }
+
+    private static List<PDFobj> getImages(byte[] buf) throws Exception {
+        List<PDFobj> images = new ArrayList<PDFobj>();
+        for (PDFobj obj : readObjects(buf)) {
+            if (obj != null && obj.getValue("/Subtype").equals("/Image")) {
+                images.add(obj);
+            }
+        }
+        return images;
+    }
+
+    @Test
+    public void testOnlyUsedResourcesAreWritten() throws Exception {
+        for (boolean useObjectStreams : new boolean[] {false, true}) {
+            byte[] buf = createPDFWithResources(useObjectStreams);
+            String content = new String(buf, "ISO-8859-1");
+            assertFalse(content.contains("/Courier"));
+            assertFalse(content.contains("DejaVu"));
+
+            int fonts = 0;
+            for (PDFobj obj : readObjects(buf)) {
+                if (obj != null && obj.getValue("/Type").equals("/Font")) {
+                    fonts++;
+                }
+            }
+            assertEquals(1, fonts);
+            assertEquals(2, getImages(buf).size());     // The image and its soft mask
+        }
+    }
+
+    @Test
+    public void testFontsAreSharedOnlyForTheSameFontData() throws Exception {
+        final String path = "src/examples/resources/fonts/DejaVu/ttf/DejaVuLGCSerif.ttf";
+        createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                Font f1 = new Font(pdf, path);
+                Font f2 = new Font(pdf, path);
+                assertEquals(f1.objNumber, f2.objNumber);
+
+                // A different font program with the same font name.
+                byte[] buf = Contents.getFromStream(new FileInputStream(path));
+                Font f3 = new Font(pdf, new ByteArrayInputStream(Arrays.copyOf(buf, buf.length + 4)));
+                assertEquals(f1.name, f3.name);
+                assertTrue(f1.objNumber != f3.objNumber);
+            }
+        });
+    }
+
+    @Test
+    public void testPagesWithTheSameResourcesShareTheDictionary() throws Exception {
+        byte[] buf = createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                Font f1 = new Font(pdf, CoreFont.HELVETICA);
+                Image image = new Image(pdf, new FileInputStream(IMAGE), ImageType.PNG);
+                for (int i = 0; i < 3; i++) {
+                    Page page = new Page(pdf, Letter.PORTRAIT);
+                    page.drawString(f1, "Page " + (i + 1), 50f, 50f);
+                    if (i == 2) {
+                        image.drawOn(page);
+                    }
+                }
+            }
+        });
+
+        Map<String, String> resources = new HashMap<String, String>();
+        List<String> pages = new ArrayList<String>();
+        for (PDFobj obj : readObjects(buf)) {
+            if (obj == null) {
+                continue;
+            }
+            if (obj.getValue("/Type").equals("/Page")) {
+                pages.add(obj.getValue("/Resources"));
+            } else if (obj.dict.contains("/Font") && obj.getValue("/Type").equals("")) {
+                resources.put(String.valueOf(obj.number), obj.dict.toString());
+            }
+        }
+        assertEquals(3, pages.size());
+        assertEquals(2, resources.size());
+        assertEquals(pages.get(0), pages.get(1));
+        assertFalse(resources.get(pages.get(0)).contains("/XObject"));
+        assertTrue(resources.get(pages.get(2)).contains("/XObject"));
+    }
+
+    @Test
+    public void testPNGImageDataIsUsedAsIs() throws Exception {
+        final String[] images = {
+                "src/examples/resources/images/map407.png",     // Truecolor
+                "src/examples/resources/images/sz-map.png",     // Indexed
+                "src/examples/resources/images/linux-logo.png"  // With alpha
+        };
+        byte[] buf = createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                Page page = new Page(pdf, Letter.PORTRAIT);
+                for (String fileName : images) {
+                    new Image(pdf, new FileInputStream(fileName), ImageType.PNG).drawOn(page);
+                }
+            }
+        });
+
+        List<String> dicts = new ArrayList<String>();
+        List<byte[]> streams = new ArrayList<byte[]>();
+        for (PDFobj obj : getImages(buf)) {
+            if (!obj.getValue("/ColorSpace").equals("/DeviceGray")) {    // Not the mask
+                dicts.add(obj.dict.toString());
+                streams.add(obj.getStream());
+            }
+        }
+        assertEquals(3, dicts.size());
+        for (int i = 0; i < 2; i++) {
+            PNGImage png = new PNGImage(
+                    new FileInputStream(images[i]), new CompressionPolicy(), true);
+            assertTrue(png.isPredicted());
+            assertTrue(dicts.get(i).contains("/Predictor, 15"));
+            assertArrayEquals(png.iDAT, streams.get(i));
+        }
+        assertTrue(dicts.get(1).contains("/Indexed"));
+        assertFalse(dicts.get(2).contains("/Predictor"));
+    }
+
+    private static List<PDFobj> createPDFWithDownsampling(
+            final float resolution, final int jpegQuality) throws Exception {
+        return getImages(createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                pdf.setImageDownsampling(resolution, jpegQuality);
+                Page page = new Page(pdf, Letter.PORTRAIT);
+                String fileName = "src/examples/resources/images/map407.png";     // 582 x 543
+                Image image1 = new Image(pdf, new FileInputStream(fileName), ImageType.PNG);
+                image1.scaleBy(0.1f);
+                image1.drawOn(page);
+                Image image2 = new Image(pdf, new FileInputStream(fileName), ImageType.PNG);
+                image2.scaleBy(0.2f);
+                image2.drawOn(page);
+            }
+        }));
+    }
+
+    @Test
+    public void testImagesAreDownsampledForTheLargestDrawnSize() throws Exception {
+        List<PDFobj> images = createPDFWithDownsampling(0f, 0);
+        assertEquals(1, images.size());
+        assertEquals("582", images.get(0).getValue("/Width"));
+
+        images = createPDFWithDownsampling(72f, 0);
+        assertEquals(1, images.size());
+        assertEquals("117", images.get(0).getValue("/Width"));
+        assertEquals("109", images.get(0).getValue("/Height"));
+        assertEquals("/FlateDecode", images.get(0).getValue("/Filter"));
+        assertEquals(3 * 117 * 109, Decompressor.inflate(images.get(0).getStream()).length);
+
+        images = createPDFWithDownsampling(72f, 85);
+        assertEquals("/DCTDecode", images.get(0).getValue("/Filter"));
+        BufferedImage jpeg = ImageIO.read(
+                new ByteArrayInputStream(images.get(0).getStream()));
+        assertEquals(117, jpeg.getWidth());
+        assertEquals(109, jpeg.getHeight());
+
+        // The image is not resampled when the number of pixels is reduced by less than half.
+        images = createPDFWithDownsampling(300f, 0);
+        assertEquals("582", images.get(0).getValue("/Width"));
+    }
+
 }
@@ -1,12 +1,55 @@
 package com.pdfjet;
 
 import java.io.*;
+import java.util.*;
 
 public abstract class PDFTestBase {
 
+    /** Sets the options of a new PDF and draws its pages. */
+    protected interface Content {
+        void draw(PDF pdf) throws Exception;
+    }
+
     /** Creates a writable PDF backed by a ByteArrayOutputStream for tests that don't check output bytes. */
     protected PDF writablePDF() throws Exception {
         return new PDF(new ByteArrayOutputStream());
     }
 
+    /** Creates a PDF with the content in memory and returns the completed document. */
+    protected static byte[] createPDF(Content content) throws Exception {
+        return createPDF(0, content);
+    }
+
+    protected static byte[] createPDF(int compliance, Content content) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        PDF pdf = new PDF(os, compliance);
+        content.draw(pdf);
+        pdf.complete();
+        return os.toByteArray();
+    }
+
+    /** Writes the PDF to a temporary file that is deleted when the tests exit. */
+    protected static File createTempFile(byte[] buf) throws Exception {
+        File file = File.createTempFile("pdfjet", ".pdf");
+        file.deleteOnExit();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(buf);
+        } finally {
+            os.close();
+        }
+        return file;
+    }
+
+    /** Returns the PDF as text without the document ID and the creation date, they differ for every PDF. */
+    protected static String withoutIDAndDate(byte[] buf) throws Exception {
+        String content = new String(buf, "ISO-8859-1");
+        content = content.replaceAll("/ID\\[<[0-9a-f]+><[0-9a-f]+>\\]", "/ID[]");
+        return content.replaceAll("\\(D:[0-9]+", "(D:");
+    }
+
+    protected static List<PDFobj> readObjects(byte[] buf) throws Exception {
+        return new PDF().read(new ByteArrayInputStream(buf));
+    }
+
 }
@@ -0,0 +1,69 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class PNGImageTest {
+
+    private static final String IMAGES = "src/examples/resources/images/";
+
+    @Test
+    public void testIndexedImageIsDecodedRowByRow() throws Exception {
+        // The rows of this image use the Up filter.
+        PNGImage png = new PNGImage(new FileInputStream(IMAGES + "ca-flag.png"));
+        byte[] image = Decompressor.inflate(png.getData());
+        assertEquals(3 * png.getWidth() * png.getHeight(), image.length);
+        assertNull(png.getAlpha());
+
+        Set<String> palette = new HashSet<String>();
+        for (int i = 0; i < png.pLTE.length; i += 3) {
+            palette.add(Arrays.toString(Arrays.copyOfRange(png.pLTE, i, i + 3)));
+        }
+        for (int i = 0; i < image.length; i += 3) {
+            assertTrue(palette.contains(Arrays.toString(Arrays.copyOfRange(image, i, i + 3))));
+        }
+    }
+
+    @Test
+    public void testAlphaIsSplitFromTheColorData() throws Exception {
+        PNGImage png = new PNGImage(
+                new FileInputStream(IMAGES + "linux-logo.png"), CompressionPolicy.max());
+        int pixels = png.getWidth() * png.getHeight();
+        assertEquals(3 * pixels, Decompressor.inflate(png.getData()).length);
+        assertEquals(pixels, Decompressor.inflate(png.getAlpha()).length);
+        assertNull(png.iDAT);
+    }
+
+    private static void writeChunk(DataOutputStream os, String type, byte[] data) throws Exception {
+        byte[] bytes = type.getBytes("ISO-8859-1");
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        crc.update(data);
+        os.writeInt(data.length);
+        os.write(bytes);
+        os.write(data);
+        os.writeInt((int) crc.getValue());
+    }
+
+    @Test
+    public void testIncompleteImageData() throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(buf);
+        os.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+        // An 8 x 8 RGB image with the data of only 2 rows.
+        writeChunk(os, "IHDR", new byte[] {0, 0, 0, 8, 0, 0, 0, 8, 8, 2, 0, 0, 0});
+        writeChunk(os, "IDAT", Compressor.deflate(new byte[2 * (1 + 3*8)]));
+        writeChunk(os, "IEND", new byte[0]);
+
+        try {
+            new PNGImage(new ByteArrayInputStream(buf.toByteArray()), CompressionPolicy.max(), false);
+            fail();
+        } catch (Exception e) {
+            assertEquals("The image data is incomplete.", e.getMessage());
+        }
+    }
+
+}
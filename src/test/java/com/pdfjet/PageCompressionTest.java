@@ -0,0 +1,64 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.concurrent.*;
+
+public class PageCompressionTest extends PDFTestBase {
+
+    private static String createPDF(
+            final ExecutorService executor, final int maxPendingPages) throws Exception {
+        return withoutIDAndDate(createPDF(new Content() {
+            public void draw(PDF pdf) throws Exception {
+                if (executor != null) {
+                    pdf.setPageCompressionExecutor(executor, maxPendingPages);
+                }
+                Font f1 = new Font(pdf, CoreFont.HELVETICA);
+                for (int i = 0; i < 25; i++) {
+                    Page page = new Page(pdf, Letter.PORTRAIT);
+                    for (int j = 0; j < 50; j++) {
+                        page.drawString(f1, "Page " + i + " line " + j, 50f, 50f + j * 12f);
+                    }
+                    if (i == 10) {
+                        // Objects written while pages are pending must come after them.
+                        Font f2 = new Font(pdf, CoreFont.TIMES_ROMAN);
+                        page.drawString(f2, "Times", 300f, 300f);
+                    }
+                }
+            }
+        }));
+    }
+
+    @Test
+    public void testParallelOutputIsIdentical() throws Exception {
+        String expected = createPDF(null, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertEquals(expected, createPDF(executor, 1));
+            assertEquals(expected, createPDF(executor, 8));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testContentOfPageAddedToPDF() throws Exception {
+        PDF pdf = writablePDF();
+        Font f1 = new Font(pdf, CoreFont.HELVETICA);
+        Page page = new Page(pdf, Letter.PORTRAIT);
+        page.drawString(f1, "Hello", 50f, 50f);
+        byte[] content = page.getContent();
+        assertTrue(new String(content, "ISO-8859-1").contains("[<48656C6C6F>] TJ"));
+        assertEquals(content.length, page.buf.size());
+        assertArrayEquals(content, page.buf.toByteArray());
+    }
+
+    @Test
+    public void testRejectedPagesAreCompressedOnTheCallingThread() throws Exception {
+        String expected = createPDF(null, 0);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        assertEquals(expected, createPDF(executor, 4));
+    }
+
+}
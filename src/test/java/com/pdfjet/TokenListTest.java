@@ -0,0 +1,29 @@
+package com.pdfjet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import java.util.*;
+
+public class TokenListTest {
+
+    @Test
+    public void testIndexOfAfterChanges() {
+        PDFobj obj = new PDFobj();
+        obj.dict.addAll(Arrays.asList(
+                "5", "0", "obj", "<<", "/Type", "/Page", "/Resources", "7", "0", "R", ">>"));
+        assertEquals(4, obj.dict.indexOf("/Type"));
+        assertEquals("/Page", obj.getValue("/Type"));
+        assertEquals("", obj.getValue("/Contents"));
+
+        obj.dict.addAll(4, Arrays.asList("/Contents", "[", "9", "0", "R", "]"));
+        assertEquals(Arrays.asList(9), obj.getObjectNumbers("/Contents"));
+        assertEquals("7", obj.getValue("/Resources"));
+
+        obj.dict.set(11, "/Pages");
+        assertEquals("/Pages", obj.getValue("/Type"));
+        assertEquals(11, obj.dict.indexOf("/Pages"));
+        assertEquals(-1, obj.dict.indexOf("/Page"));
+        assertEquals(2, obj.dict.indexOf("obj"));
+    }
+
+}